@@ -0,0 +1,56 @@
+package com.example.android.quakereport;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs {@link EarthquakeBenchmark}, {@link ClusterBenchmark}, {@link ImportBenchmark} and
+ * {@link ConnectionBenchmark} and shows their results, also written to the log. Debug builds
+ * only, started with {@code adb shell am start -n com.example.android.quakereport/.BenchmarkActivity}.
+ */
+public class BenchmarkActivity extends Activity {
+    private static final String LOG_TAG = BenchmarkActivity.class.getSimpleName();
+
+    // A large USGS response, the size where parsing costs show
+    private static final int EVENT_COUNT = 1000;
+
+    private TextView mResultsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mResultsTextView = new TextView(this);
+        mResultsTextView.setTextIsSelectable(true);
+        mResultsTextView.setText("Running benchmarks...");
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(mResultsTextView);
+        setContentView(scrollView);
+
+        // Keep the main thread free, and away from the measured one
+        new Thread(this::runBenchmarks, "EarthquakeBenchmark").start();
+    }
+
+    private void runBenchmarks() {
+        StringBuilder text = new StringBuilder();
+        try {
+            List<String> results = new EarthquakeBenchmark(this, EVENT_COUNT).runAll();
+            results.addAll(new ClusterBenchmark().runAll());
+            results.addAll(new ImportBenchmark(getCacheDir()).runAll());
+            results.addAll(new ConnectionBenchmark().runAll());
+            for (String result : results) {
+                Log.i(LOG_TAG, result);
+                text.append(result).append("\n\n");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Benchmark failed", e);
+            text.append("Benchmark failed: ").append(e);
+        }
+        runOnUiThread(() -> mResultsTextView.setText(text));
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures {@link EarthquakeClusterer} on 100k events: clustering them all, syncing in a batch
+ * of new ones as a live update would, and querying the clusters in view at every zoom level as
+ * a frame of the map does. Debug builds only, see {@link BenchmarkActivity}.
+ *
+ * <p>Events are spread around fixed hot spots like real seismicity, so clusters are uneven.
+ */
+public class ClusterBenchmark {
+    private static final int EVENT_COUNT = 100000;
+    private static final int ADDED_COUNT = 1000;
+    private static final int QUERY_REPEATS = 200;
+
+    // Roughly Japan, Chile, Alaska, Indonesia, California and Tonga
+    private static final double[][] HOT_SPOTS = {{36, 140}, {-30, -71}, {60, -150}, {-3, 120},
+            {36, -118}, {-20, -175}};
+
+    // A phone screen at the default cell size of the map, in cells
+    private static final int VIEW_COLUMNS = 8;
+    private static final int VIEW_ROWS = 14;
+
+    /**
+     * Runs every benchmark, returning one line of results each
+     */
+    public List<String> runAll() {
+        List<String> results = new ArrayList<>();
+        Random random = new Random(42);
+        List<EarthquakeEvent> events = generate(random, EVENT_COUNT, 0);
+
+        EarthquakeClusterer clusterer = new EarthquakeClusterer();
+        long start = System.nanoTime();
+        clusterer.sync(events);
+        long buildNanos = System.nanoTime() - start;
+        results.add(String.format(Locale.US, "cluster %d events: %.1f ms, %.0f events/s, %d clusters at zoom 0, %d at zoom %d",
+                events.size(), buildNanos / 1e6, events.size() * 1e9 / buildNanos,
+                clusterer.getClusterCount(0), clusterer.getClusterCount(EarthquakeClusterer.MAX_ZOOM),
+                EarthquakeClusterer.MAX_ZOOM));
+
+        List<EarthquakeEvent> updated = new ArrayList<>(events);
+        updated.addAll(generate(random, ADDED_COUNT, EVENT_COUNT));
+        start = System.nanoTime();
+        clusterer.sync(updated);
+        long syncNanos = System.nanoTime() - start;
+        results.add(String.format(Locale.US, "sync %d new events into %d: %.1f ms",
+                ADDED_COUNT, events.size(), syncNanos / 1e6));
+
+        List<EarthquakeClusterer.Cluster> clusters = new ArrayList<>();
+        for (int zoom = 0; zoom <= EarthquakeClusterer.MAX_ZOOM; zoom++) {
+            // A screenful of cells centered on the first hot spot
+            double cellDegrees = EarthquakeClusterer.cellDegreesAt(zoom);
+            double halfWidth = Math.min(180, VIEW_COLUMNS * cellDegrees / 2);
+            double halfHeight = Math.min(90, VIEW_ROWS * cellDegrees / 2);
+            double latitude = HOT_SPOTS[0][0];
+            double longitude = HOT_SPOTS[0][1];
+            start = System.nanoTime();
+            for (int i = 0; i < QUERY_REPEATS; i++) {
+                clusterer.getClusters(zoom, latitude - halfHeight, longitude - halfWidth,
+                        latitude + halfHeight, longitude + halfWidth, clusters);
+            }
+            long queryNanos = (System.nanoTime() - start) / QUERY_REPEATS;
+            results.add(String.format(Locale.US, "clusters in view at zoom %d: %d, %.3f ms", zoom,
+                    clusters.size(), queryNanos / 1e6));
+        }
+        return results;
+    }
+
+    private static List<EarthquakeEvent> generate(Random random, int count, int firstId) {
+        List<EarthquakeEvent> events = new ArrayList<>(count);
+        long time = 1700000000000L;
+        for (int i = 0; i < count; i++) {
+            double[] hotSpot = HOT_SPOTS[random.nextInt(HOT_SPOTS.length)];
+            double latitude = Math.max(-90, Math.min(90, hotSpot[0] + random.nextGaussian() * 4));
+            double longitude = hotSpot[1] + random.nextGaussian() * 6;
+            longitude = longitude >= 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+            double magnitude = Math.round((2.5 + random.nextDouble() * 5) * 10) / 10.0;
+            time -= random.nextInt(600000);
+            String id = "us" + (firstId + i);
+            EarthquakeEvent event = new EarthquakeEvent(id, magnitude, "somewhere", time, time,
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/" + id);
+            event.setLocation(latitude, longitude, 10);
+            events.add(event);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares requests to {@link UsgsSimulator} on new connections with requests reusing a pooled
+ * one, through {@link UrlConnectionTransport}, and reports the {@link Metrics.Stage#CONNECT}
+ * and {@link Metrics.Stage#FIRST_BYTE} stages of each. Debug builds only, see
+ * {@link BenchmarkActivity}.
+ *
+ * <p>Cold requests ask for their connection to be closed after them, so each one connects
+ * anew; warm ones follow a first request and reuse its connection. The simulator listens on
+ * the loopback interface, so a new connection costs a TCP handshake but no DNS lookup, TLS
+ * or network round trip: the gap to USGS is larger still.
+ */
+public class ConnectionBenchmark {
+    private static final int REQUESTS = 50;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Runs the cold requests, then the warm ones, returning one line of results each
+     */
+    public List<String> runAll() throws IOException {
+        UsgsSimulator simulator = new UsgsSimulator(new UsgsSimulator.Config());
+        boolean wasEnabled = Metrics.isEnabled();
+        List<String> results = new ArrayList<>();
+        try {
+            URL url = new URL(simulator.start()
+                    + "/fdsnws/event/1/query?format=geojson&orderby=time&minmagnitude=4.5&limit=20");
+            Metrics.setEnabled(true);
+            // Cold first, a warm request would leave a pooled connection for them to reuse
+            results.add(measure("cold requests (new connection)", url, true));
+            results.add(measure("warm requests (reused connection)", url, false));
+        } finally {
+            Metrics.setEnabled(wasEnabled);
+            simulator.stop();
+        }
+        return results;
+    }
+
+    private static String measure(String name, URL url, boolean cold) throws IOException {
+        HttpTransport transport = new UrlConnectionTransport(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+        Map<String, String> headers = cold
+                ? Collections.singletonMap("Connection", "close")
+                : Collections.<String, String>emptyMap();
+        // Unmeasured, loads the code paths and for warm requests opens the connection they reuse
+        request(transport, url, headers);
+
+        Metrics.reset();
+        for (int i = 0; i < REQUESTS; i++) {
+            request(transport, url, headers);
+        }
+        return String.format(Locale.US, "%s, %d requests: connect mean %.2f ms, p95 %.2f ms; "
+                        + "first byte mean %.2f ms, p95 %.2f ms", name, REQUESTS,
+                Metrics.getMeanMillis(Metrics.Stage.CONNECT),
+                Metrics.getPercentileMillis(Metrics.Stage.CONNECT, 0.95),
+                Metrics.getMeanMillis(Metrics.Stage.FIRST_BYTE),
+                Metrics.getPercentileMillis(Metrics.Stage.FIRST_BYTE, 0.95));
+    }
+
+    /**
+     * Sends the request and reads the body to the end, so a kept-alive connection goes back to
+     * the pool
+     */
+    private static void request(HttpTransport transport, URL url, Map<String, String> headers) throws IOException {
+        try (HttpTransport.Response response = transport.get(url, headers)) {
+            if (response.getCode() != 200) {
+                throw new IOException("The simulator answered " + response.getCode());
+            }
+            InputStream body = response.getBody();
+            byte[] buffer = new byte[8192];
+            while (body.read(buffer) != -1) {
+                // Only the timings matter
+            }
+        }
+    }
+}
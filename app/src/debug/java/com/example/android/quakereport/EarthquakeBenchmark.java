@@ -0,0 +1,355 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.widget.FrameLayout;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * On-device microbenchmarks of the hot paths, reporting throughput and allocations per
+ * operation. Debug builds only, see {@link BenchmarkActivity}.
+ *
+ * <p>The payload mirrors a USGS GeoJSON response, with every property USGS sends so the parser
+ * also pays for skipping the ones the app doesn't use. Events are generated from a fixed seed,
+ * so runs compare with one another.
+ */
+public class EarthquakeBenchmark {
+    private static final int WARMUP_MILLIS = 1000;
+    private static final int MEASURE_MILLIS = 3000;
+
+    private static final String[] PLACES = {"Lima, Peru", "Tonga", "Anchorage, Alaska",
+            "Sumatra, Indonesia", "Hualien City, Taiwan", "Ridgecrest, CA"};
+    private static final String[] DIRECTIONS = {"N", "NNE", "ENE", "E", "SSW", "W", "NW"};
+
+    // The size of a large imported catalog
+    private static final int LARGE_EVENT_COUNT = 100000;
+    // Responses the parsers are compared on: a page, a long query and the most USGS returns
+    private static final int[] PARSER_EVENT_COUNTS = {20, 2000, 20000};
+
+    private final Context mContext;
+    private final byte[] mPayload;
+    private final int mEventCount;
+
+    /**
+     * @param context    inflates the rows of the bind benchmark
+     * @param eventCount the number of features in the payload
+     */
+    public EarthquakeBenchmark(Context context, int eventCount) {
+        mContext = context;
+        mEventCount = eventCount;
+        mPayload = buildPayload(eventCount).getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Runs every benchmark, returning one line of results each
+     */
+    public List<String> runAll() throws IOException {
+        List<String> results = new ArrayList<>();
+        results.add(String.format(Locale.US, "Payload: %d events, %d KB", mEventCount, mPayload.length / 1024));
+        results.add(run("extractEarthquakes", mEventCount, this::parse));
+        results.addAll(parsers());
+
+        List<EarthquakeEvent> events = QueryUtils.extractEarthquakes(new ByteArrayInputStream(mPayload));
+        results.add(run("format (magnitude, date, time, place split)", events.size(), () -> format(events)));
+        results.add(bind(events));
+        results.add(memory(false));
+        results.add(memory(true));
+        results.addAll(localQueries());
+        results.addAll(spatialQueries());
+        return results;
+    }
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs the operation for a warm up period, then for the measured period, and reports the
+     * mean time, the rate of items and the allocations per operation
+     */
+    private static String run(String name, int itemsPerOperation, Operation operation) throws IOException {
+        long warmupEnd = SystemClock.elapsedRealtime() + WARMUP_MILLIS;
+        while (SystemClock.elapsedRealtime() < warmupEnd) {
+            operation.run();
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        int operations = 0;
+        long start = System.nanoTime();
+        long end = start + MEASURE_MILLIS * 1000000L;
+        long now;
+        do {
+            operation.run();
+            operations++;
+            now = System.nanoTime();
+        } while (now < end);
+        Debug.stopAllocCounting();
+
+        double nanosPerOperation = (double) (now - start) / operations;
+        return String.format(Locale.US, "%s: %.3f ms/op, %.0f items/s, %.0f allocs/op, %.1f KB/op",
+                name, nanosPerOperation / 1e6, itemsPerOperation * 1e9 / nanosPerOperation,
+                (double) Debug.getThreadAllocCount() / operations,
+                Debug.getThreadAllocSize() / 1024.0 / operations);
+    }
+
+    private void parse() throws IOException {
+        QueryUtils.extractEarthquakes(new ByteArrayInputStream(mPayload));
+    }
+
+    /**
+     * Parses responses of several sizes with the streaming parser and with the JSONObject
+     * parser it replaced
+     */
+    private static List<String> parsers() throws IOException {
+        List<String> results = new ArrayList<>();
+        for (int eventCount : PARSER_EVENT_COUNTS) {
+            byte[] payload = buildPayload(eventCount).getBytes(Charset.forName("UTF-8"));
+            results.add(run(String.format(Locale.US, "extractEarthquakes, %d events", eventCount), eventCount,
+                    () -> QueryUtils.extractEarthquakes(new ByteArrayInputStream(payload))));
+            results.add(run(String.format(Locale.US, "JSONObject baseline, %d events", eventCount), eventCount,
+                    () -> extractWithJsonObject(payload)));
+        }
+        return results;
+    }
+
+    /**
+     * The way responses were parsed before streaming: the whole body read into a String, a
+     * JSONObject tree built over it, and the fields the app uses read out of the tree
+     */
+    private static List<EarthquakeEvent> extractWithJsonObject(byte[] payload) throws IOException {
+        StringBuilder response = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload),
+                Charset.forName("UTF-8")))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                response.append(line);
+            }
+        }
+
+        List<EarthquakeEvent> earthquakes = new ArrayList<>();
+        try {
+            JSONArray features = new JSONObject(response.toString()).getJSONArray("features");
+            for (int i = 0; i < features.length(); i++) {
+                JSONObject feature = features.getJSONObject(i);
+                JSONObject properties = feature.getJSONObject("properties");
+                EarthquakeEvent earthquake = new EarthquakeEvent(feature.optString("id"),
+                        properties.optDouble("mag"), properties.optString("place"), properties.optLong("time"),
+                        properties.optLong("updated"), properties.optString("url"),
+                        "deleted".equals(properties.optString("status")));
+                JSONArray coordinates = feature.getJSONObject("geometry").getJSONArray("coordinates");
+                earthquake.setLocation(coordinates.optDouble(1), coordinates.optDouble(0), coordinates.optDouble(2));
+                earthquakes.add(earthquake);
+            }
+        } catch (JSONException e) {
+            throw new IOException("The benchmark payload isn't valid JSON", e);
+        }
+        return earthquakes;
+    }
+
+    private static void format(List<EarthquakeEvent> events) {
+        EarthquakeFormatter formatter = EarthquakeFormatter.get();
+        for (EarthquakeEvent event : events) {
+            // Prepared events are skipped, make each one count again
+            event.setRow(null);
+            formatter.prepare(event);
+        }
+    }
+
+    /**
+     * Binds every event to one row, as scrolling does once rows are created. Rows are prepared
+     * first like the loader does, so a steady-state bind should allocate nothing.
+     */
+    private String bind(List<EarthquakeEvent> events) throws IOException {
+        EarthquakeFormatter formatter = EarthquakeFormatter.get();
+        for (EarthquakeEvent event : events) {
+            formatter.prepare(event);
+        }
+        EarthquakeAdapter adapter = new EarthquakeAdapter(mContext, (EarthquakeEvent earthquake) -> {
+        });
+        // The first list is submitted without diffing, so the items are there right away
+        adapter.submitList(events);
+        EarthquakeAdapter.ViewHolder holder = adapter.onCreateViewHolder(new FrameLayout(mContext), 0);
+        return run("bind (onBindViewHolder)", events.size(), () -> {
+            for (int position = 0; position < events.size(); position++) {
+                adapter.onBindViewHolder(holder, position);
+            }
+        });
+    }
+
+    /**
+     * Answers settings changes and searches from 100k loaded events, as the list does instead
+     * of going back to USGS
+     */
+    private static List<String> localQueries() throws IOException {
+        Random random = new Random(42);
+        List<EarthquakeEvent> events = new ArrayList<>(LARGE_EVENT_COUNT);
+        for (int i = 0; i < LARGE_EVENT_COUNT; i++) {
+            events.add(eventOf(random, i, false));
+        }
+        // As if paging ran out, so the engine knows every event is loaded
+        EarthquakeQuery sourceQuery = new EarthquakeQuery("2.5", "time", LARGE_EVENT_COUNT);
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(events, sourceQuery, true);
+        EarthquakeQuery byTime = new EarthquakeQuery("6", "time", 100);
+        EarthquakeQuery byMagnitude = new EarthquakeQuery("6", "magnitude", 100);
+        if (!engine.covers(byTime) || !engine.covers(byMagnitude)) {
+            throw new IllegalStateException("The loaded events don't cover the benchmark queries");
+        }
+
+        List<String> results = new ArrayList<>();
+        results.add(run("index " + LARGE_EVENT_COUNT + " events (EarthquakeQueryEngine)", LARGE_EVENT_COUNT,
+                () -> new EarthquakeQueryEngine(events, sourceQuery, true)));
+        results.add(run("local query, minmag 6 by time, limit 100", 1, () -> engine.query(byTime)));
+        results.add(run("local query, minmag 6 by magnitude, limit 100", 1, () -> engine.query(byMagnitude)));
+        results.add(run("place search \"lima\"", 1, () -> engine.searchPlace("lima")));
+        return results;
+    }
+
+    /**
+     * Queries 100k events around Lima by box, radius and nearest neighbours, with the grid index
+     * and with a scan of every event for comparison
+     */
+    private static List<String> spatialQueries() throws IOException {
+        Random random = new Random(42);
+        List<EarthquakeEvent> events = new ArrayList<>(LARGE_EVENT_COUNT);
+        for (int i = 0; i < LARGE_EVENT_COUNT; i++) {
+            events.add(eventOf(random, i, false));
+        }
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(events);
+
+        List<String> results = new ArrayList<>();
+        results.add(run("index " + LARGE_EVENT_COUNT + " events (EarthquakeSpatialIndex)", LARGE_EVENT_COUNT,
+                () -> new EarthquakeSpatialIndex(events)));
+        results.add(run("10x10 degree box, grid", 1, () -> index.withinBoundingBox(-17, -82, -7, -72)));
+        results.add(run("500 km radius, grid", 1, () -> index.withinRadius(-12, -77, 500)));
+        results.add(run("500 km radius, scan", 1, () -> {
+            List<EarthquakeEvent> matches = new ArrayList<>();
+            for (EarthquakeEvent event : events) {
+                if (EarthquakeSpatialIndex.distanceKm(-12, -77, event.getLatitude(), event.getLongitude()) <= 500) {
+                    matches.add(event);
+                }
+            }
+        }));
+        results.add(run("20 nearest, grid", 1, () -> index.nearest(-12, -77, 20)));
+        return results;
+    }
+
+    /**
+     * Compares the heap retained by a list of events and by an {@link EarthquakeStore} holding
+     * the same events. Every field is a new object, as it is when parsed. With unique places the
+     * place dictionary of the store saves nothing and only costs its map entries.
+     */
+    private static String memory(boolean uniquePlaces) {
+        long before = usedMemory();
+        ArrayList<EarthquakeEvent> list = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < LARGE_EVENT_COUNT; i++) {
+            list.add(eventOf(random, i, uniquePlaces));
+        }
+        list.trimToSize();
+        long listBytes = usedMemory() - before;
+        int listSize = list.size();
+        list = null;
+
+        before = usedMemory();
+        EarthquakeStore store = new EarthquakeStore();
+        random = new Random(42);
+        for (int i = 0; i < LARGE_EVENT_COUNT; i++) {
+            // Each event is garbage once added, only what the store keeps of it is retained
+            store.add(eventOf(random, i, uniquePlaces));
+        }
+        store.trimToSize();
+        long storeBytes = usedMemory() - before;
+
+        return String.format(Locale.US, "memory, %d events with %s places: List<EarthquakeEvent> %.0f B/event, "
+                        + "EarthquakeStore %.0f B/event", store.size(),
+                uniquePlaces ? "unique" : "repeating", (double) listBytes / listSize,
+                (double) storeBytes / store.size());
+    }
+
+    /**
+     * A USGS style event, a minute older than the one before it. Its place is made unique by
+     * the index if asked.
+     */
+    private static EarthquakeEvent eventOf(Random random, int index, boolean uniquePlace) {
+        String id = "us" + (7000000 + index);
+        double magnitude = Math.round((2.5 + random.nextDouble() * 5) * 10) / 10.0;
+        String place = (1 + random.nextInt(200)) + " km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                + " of " + PLACES[random.nextInt(PLACES.length)];
+        if (uniquePlace) {
+            place = place + " " + index;
+        }
+        long time = 1700000000000L - index * 60000L;
+        EarthquakeEvent event = new EarthquakeEvent(id, magnitude, place, time, time + 600000,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id);
+        event.setLocation(-90 + random.nextDouble() * 180, -180 + random.nextDouble() * 360,
+                random.nextDouble() * 600);
+        return event;
+    }
+
+    /**
+     * The heap in use once everything unreachable is collected
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String buildPayload(int eventCount) {
+        Random random = new Random(42);
+        long time = 1700000000000L;
+        StringBuilder json = new StringBuilder(eventCount * 1200);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":").append(time)
+                .append(",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson\",")
+                .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.14.0\",\"count\":")
+                .append(eventCount).append("},\"features\":[");
+        for (int i = 0; i < eventCount; i++) {
+            String id = "us" + (7000000 + i);
+            double magnitude = Math.round((2.5 + random.nextDouble() * 5) * 10) / 10.0;
+            time -= random.nextInt(600000);
+            String place = random.nextInt(5) == 0 ? "south of the Fiji Islands"
+                    : (1 + random.nextInt(200)) + " km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                    + " of " + PLACES[random.nextInt(PLACES.length)];
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(magnitude)
+                    .append(",\"place\":\"").append(place).append("\",\"time\":").append(time)
+                    .append(",\"updated\":").append(time + 600000)
+                    .append(",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/").append(id)
+                    .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=").append(id)
+                    .append("&format=geojson\",\"felt\":").append(random.nextInt(50))
+                    .append(",\"cdi\":3.4,\"mmi\":4.1,\"alert\":\"green\",\"status\":\"reviewed\",\"tsunami\":0,\"sig\":")
+                    .append(random.nextInt(1000))
+                    .append(",\"net\":\"us\",\"code\":\"").append(7000000 + i)
+                    .append("\",\"ids\":\",").append(id).append(",\",\"sources\":\",us,\",")
+                    .append("\"types\":\",dyfi,losspager,moment-tensor,origin,phase-data,shakemap,\",")
+                    .append("\"nst\":null,\"dmin\":2.1,\"rms\":0.74,\"gap\":35,\"magType\":\"mww\",")
+                    .append("\"type\":\"earthquake\",\"title\":\"M ").append(magnitude).append(" - ").append(place)
+                    .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(-180 + random.nextDouble() * 360).append(',').append(-90 + random.nextDouble() * 180)
+                    .append(',').append(random.nextDouble() * 600).append("]},\"id\":\"").append(id).append("\"}");
+        }
+        json.append("],\"bbox\":[-180,-90,0,180,90,600]}");
+        return json.toString();
+    }
+}
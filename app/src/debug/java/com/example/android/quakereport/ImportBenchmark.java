@@ -0,0 +1,159 @@
+package com.example.android.quakereport;
+
+import android.os.SystemClock;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Measures the throughput of {@link EarthquakeImporter} on synthetic catalogs, on one thread
+ * and on every core. Debug builds only, see {@link BenchmarkActivity}.
+ *
+ * <p>The catalogs are written to the cache directory on the first run and kept for the next
+ * ones: a CSV of a million events, the size of a multi-year global catalog, and a GeoJSON
+ * one, ten times smaller as each feature is about eight times larger.
+ */
+public class ImportBenchmark {
+    private static final int CSV_EVENTS = 1000000;
+    private static final int GEOJSON_EVENTS = 100000;
+
+    private static final String CSV_HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,"
+            + "updated,place,type,horizontalError,depthError,magError,magNst,status,locationSource,magSource\n";
+
+    private static final String[] PLACES = {"Lima, Peru", "Tonga", "Anchorage, Alaska",
+            "Sumatra, Indonesia", "Hualien City, Taiwan", "Ridgecrest, CA"};
+    private static final String[] DIRECTIONS = {"N", "NNE", "ENE", "E", "SSW", "W", "NW"};
+
+    private final File mDirectory;
+
+    /**
+     * @param directory where the catalogs are kept between runs
+     */
+    public ImportBenchmark(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Imports each catalog on one thread, then on every core, returning one line of results each
+     */
+    public List<String> runAll() throws IOException {
+        List<String> results = new ArrayList<>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        File csv = new File(mDirectory, "benchmark-catalog.csv");
+        if (!csv.exists()) {
+            writeCsv(csv);
+        }
+        File geoJson = new File(mDirectory, "benchmark-catalog.geojson");
+        if (!geoJson.exists()) {
+            writeGeoJson(geoJson);
+        }
+
+        for (File file : new File[]{csv, geoJson}) {
+            // One untimed import so the file is in the page cache for every timed one
+            run(file, cores);
+            results.add(describe(file, 1, run(file, 1), file.length()));
+            results.add(describe(file, cores, run(file, cores), file.length()));
+        }
+        return results;
+    }
+
+    /**
+     * Imports the file into a new store, returning the number of events and the milliseconds taken
+     */
+    private static long[] run(File file, int threads) throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            long start = SystemClock.elapsedRealtime();
+            int count = new EarthquakeImporter(store, threads).importFile(in.getChannel(),
+                    (long bytesRead, long totalBytes, int eventCount) -> {
+                    });
+            return new long[]{count, Math.max(1, SystemClock.elapsedRealtime() - start)};
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String describe(File file, int threads, long[] result, long bytes) {
+        return String.format(Locale.US, "import %s, %d thread(s): %d events in %d ms, %.0f events/s, %.1f MB/s",
+                file.getName(), threads, result[0], result[1], result[0] * 1000.0 / result[1],
+                bytes / 1048576.0 * 1000 / result[1]);
+    }
+
+    private static void writeCsv(File file) throws IOException {
+        Random random = new Random(42);
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date date = new Date();
+        long time = 1700000000000L;
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+        try {
+            out.write(CSV_HEADER);
+            for (int i = 0; i < CSV_EVENTS; i++) {
+                time -= random.nextInt(600000);
+                date.setTime(time);
+                String isoTime = isoFormat.format(date);
+                date.setTime(time + 600000);
+                String isoUpdated = isoFormat.format(date);
+                out.write(String.format(Locale.US, "%s,%.4f,%.4f,%.2f,%.1f,ml,,,,,us,us%d,%s,\"%s\",earthquake,,,,,reviewed,us,us\n",
+                        isoTime, -90 + random.nextDouble() * 180, -180 + random.nextDouble() * 360,
+                        random.nextDouble() * 600, 2.5 + random.nextDouble() * 5, 7000000 + i, isoUpdated,
+                        placeOf(random)));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeGeoJson(File file) throws IOException {
+        Random random = new Random(42);
+        long time = 1700000000000L;
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+        try {
+            out.write("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":" + time
+                    + ",\"title\":\"USGS Earthquakes\",\"status\":200,\"count\":" + GEOJSON_EVENTS + "},\"features\":[");
+            for (int i = 0; i < GEOJSON_EVENTS; i++) {
+                String id = "us" + (7000000 + i);
+                double magnitude = Math.round((2.5 + random.nextDouble() * 5) * 10) / 10.0;
+                time -= random.nextInt(600000);
+                String place = placeOf(random);
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write("{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude + ",\"place\":\"" + place
+                        + "\",\"time\":" + time + ",\"updated\":" + (time + 600000)
+                        + ",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + id
+                        + "\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=" + id
+                        + "&format=geojson\",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null,"
+                        + "\"status\":\"reviewed\",\"tsunami\":0,\"sig\":" + random.nextInt(1000)
+                        + ",\"net\":\"us\",\"code\":\"" + (7000000 + i) + "\",\"ids\":\"," + id
+                        + ",\",\"sources\":\",us,\",\"types\":\",origin,phase-data,\",\"nst\":null,\"dmin\":2.1,"
+                        + "\"rms\":0.74,\"gap\":35,\"magType\":\"mb\",\"type\":\"earthquake\",\"title\":\"M "
+                        + magnitude + " - " + place + "\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":["
+                        + (-180 + random.nextDouble() * 360) + "," + (-90 + random.nextDouble() * 180) + ","
+                        + random.nextDouble() * 600 + "]},\"id\":\"" + id + "\"}");
+            }
+            out.write("],\"bbox\":[-180,-90,0,180,90,600]}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String placeOf(Random random) {
+        return random.nextInt(5) == 0 ? "south of the Fiji Islands"
+                : (1 + random.nextInt(200)) + " km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                + " of " + PLACES[random.nextInt(PLACES.length)];
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.android.quakereport;
+
+import android.arch.lifecycle.ViewModelProviders;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loads earthquakes from {@link UsgsSimulator} over and over through the whole app pipeline,
+ * from {@link QueryUtils} through {@link EarthquakeViewModel} to an {@link EarthquakeAdapter}
+ * bound to a list on screen, and reports the latency percentiles, the peak heap and the
+ * allocations. Debug builds only, started with
+ * {@code adb shell am start -n com.example.android.quakereport/.SoakTestActivity}, optionally
+ * with {@code --ei iterations 500 --ei events 50000 --ei latency 200 --ef error_rate 0.05
+ * --ei drip_bytes 512 --ei drip_delay 5 --ez gzip false}.
+ *
+ * <p>Every iteration requests a new base URL so neither the cache nor the loaded earthquakes
+ * answer it, the simulator ignoring the extra path. The query follows the settings of the app.
+ */
+public class SoakTestActivity extends AppCompatActivity {
+    private static final String LOG_TAG = SoakTestActivity.class.getSimpleName();
+
+    private static final String EXTRA_ITERATIONS = "iterations";
+    private static final String EXTRA_EVENTS = "events";
+    private static final String EXTRA_LATENCY = "latency";
+    private static final String EXTRA_ERROR_RATE = "error_rate";
+    private static final String EXTRA_DRIP_BYTES = "drip_bytes";
+    private static final String EXTRA_DRIP_DELAY = "drip_delay";
+    private static final String EXTRA_GZIP = "gzip";
+
+    private static final int DEFAULT_ITERATIONS = 200;
+    // Often enough to catch the peak between two collections
+    private static final long HEAP_SAMPLE_INTERVAL_MILLIS = 50;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSampleHeap = this::sampleHeap;
+    private final List<Long> mLatencies = new ArrayList<>();
+    private UsgsSimulator mSimulator;
+    private String mSimulatorUrl;
+    private EarthquakeViewModel mViewModel;
+    private EarthquakeAdapter mAdapter;
+    private TextView mResultsTextView;
+    private int mIterations;
+    private int mIteration;
+    private long mIterationStart;
+    private boolean mWaiting;
+    private int mFailures;
+    private long mEventsShown;
+    private long mPeakHeapBytes;
+    private long mStartMillis;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mResultsTextView = new TextView(this);
+        mResultsTextView.setTextIsSelectable(true);
+        mResultsTextView.setText("Starting the simulator...");
+        RecyclerView recyclerView = new RecyclerView(this);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        mAdapter = new EarthquakeAdapter(this, (EarthquakeEvent event) -> { });
+        recyclerView.setAdapter(mAdapter);
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(mResultsTextView, new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT));
+        layout.addView(recyclerView, new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT, 0, 1));
+        setContentView(layout);
+
+        Intent intent = getIntent();
+        mIterations = intent.getIntExtra(EXTRA_ITERATIONS, DEFAULT_ITERATIONS);
+        UsgsSimulator.Config config = new UsgsSimulator.Config();
+        config.eventCount = intent.getIntExtra(EXTRA_EVENTS, config.eventCount);
+        config.latencyMillis = intent.getIntExtra(EXTRA_LATENCY, 0);
+        config.errorRate = intent.getFloatExtra(EXTRA_ERROR_RATE, 0);
+        config.dripBytes = intent.getIntExtra(EXTRA_DRIP_BYTES, 0);
+        config.dripDelayMillis = intent.getIntExtra(EXTRA_DRIP_DELAY, 0);
+        config.gzip = intent.getBooleanExtra(EXTRA_GZIP, true);
+        mSimulator = new UsgsSimulator(config);
+
+        // Binding a socket is network access, which the main thread may not do
+        new Thread(() -> {
+            try {
+                String url = mSimulator.start();
+                runOnUiThread(() -> startSoak(url));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not start the simulator", e);
+                runOnUiThread(() -> mResultsTextView.setText("Could not start the simulator: " + e));
+            }
+        }, "UsgsSimulator").start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacksAndMessages(null);
+        QueryUtils.setBaseUrl(BuildConfig.USGS_BASE_URL);
+        mSimulator.stop();
+    }
+
+    private void startSoak(String simulatorUrl) {
+        mSimulatorUrl = simulatorUrl;
+        mViewModel = ViewModelProviders.of(this).get(EarthquakeViewModel.class);
+        Metrics.setEnabled(true);
+        Metrics.reset();
+        Debug.resetAllCounts();
+        Debug.startAllocCounting();
+        mStartMillis = SystemClock.uptimeMillis();
+        mHandler.post(mSampleHeap);
+
+        // Every result reports its error, null on success, before publishing its earthquakes
+        mViewModel.getLoadError().observe(this, (EarthquakeResult.Error error) -> {
+            if (!mWaiting) {
+                return;
+            }
+            mWaiting = false;
+            if (error != null) {
+                mFailures++;
+            }
+            // Let the earthquakes of the same result reach the adapter first
+            mHandler.post(this::completeIteration);
+        });
+        startIteration();
+    }
+
+    private void startIteration() {
+        mResultsTextView.setText(String.format(Locale.US, "Iteration %d of %d...", mIteration + 1, mIterations));
+        QueryUtils.setBaseUrl(mSimulatorUrl + "/soak/" + mIteration);
+        mWaiting = true;
+        mIterationStart = SystemClock.elapsedRealtimeNanos();
+        if (mIteration > 0) {
+            mViewModel.refresh();
+            return;
+        }
+        // Observing the earthquakes the first time loads them
+        mViewModel.getEarthquakes().observe(this, (List<EarthquakeEvent> earthquakes) -> {
+            mAdapter.submitList(earthquakes);
+            if (earthquakes != null) {
+                mEventsShown += earthquakes.size();
+            }
+        });
+    }
+
+    private void completeIteration() {
+        mLatencies.add(SystemClock.elapsedRealtimeNanos() - mIterationStart);
+        mIteration++;
+        if (mIteration < mIterations) {
+            startIteration();
+        } else {
+            showResults();
+        }
+    }
+
+    private void sampleHeap() {
+        recordHeap();
+        mHandler.postDelayed(mSampleHeap, HEAP_SAMPLE_INTERVAL_MILLIS);
+    }
+
+    private void recordHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        mPeakHeapBytes = Math.max(mPeakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    private void showResults() {
+        Debug.stopAllocCounting();
+        mHandler.removeCallbacks(mSampleHeap);
+        recordHeap();
+        QueryUtils.setBaseUrl(BuildConfig.USGS_BASE_URL);
+        long elapsedMillis = SystemClock.uptimeMillis() - mStartMillis;
+
+        List<Long> sorted = new ArrayList<>(mLatencies);
+        Collections.sort(sorted);
+        int allocations = Debug.getGlobalAllocCount();
+        long allocatedBytes = Debug.getGlobalAllocSize();
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        writer.println(String.format(Locale.US, "%d iterations in %d ms, %d failed, %d events shown",
+                sorted.size(), elapsedMillis, mFailures, mEventsShown));
+        writer.println(String.format(Locale.US, "latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6, percentile(sorted, 99) / 1e6,
+                sorted.get(sorted.size() - 1) / 1e6));
+        writer.println(String.format(Locale.US, "peak heap %.1f MB", mPeakHeapBytes / 1048576.0));
+        writer.println(String.format(Locale.US, "allocations %d, %.1f MB, %d and %.1f KB per iteration",
+                allocations, allocatedBytes / 1048576.0, allocations / sorted.size(),
+                allocatedBytes / 1024.0 / sorted.size()));
+        writer.println(String.format(Locale.US, "simulator %d requests, %d failed on purpose, %.1f MB sent",
+                mSimulator.getRequestCount(), mSimulator.getErrorCount(), mSimulator.getBytesSent() / 1048576.0));
+        Metrics.dump("", writer);
+        writer.flush();
+
+        for (String line : text.toString().split("\n")) {
+            Log.i(LOG_TAG, line);
+        }
+        mResultsTextView.setText(text.toString());
+    }
+
+    /**
+     * The value below which the percent of the sorted values fall, nearest rank
+     */
+    private static long percentile(List<Long> sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
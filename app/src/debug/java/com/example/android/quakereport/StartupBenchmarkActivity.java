@@ -0,0 +1,178 @@
+package com.example.android.quakereport;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the time from launching {@link EarthquakeActivity} to its first frame showing
+ * earthquakes, with and without the snapshot of the previous launch. Debug builds only,
+ * started with
+ * {@code adb shell am start -n com.example.android.quakereport/.StartupBenchmarkActivity}.
+ *
+ * <p>Launches alternate between both modes so a warming disk cache or network doesn't favor
+ * either. Each launch is watched through the activity lifecycle callbacks, timed to the first
+ * frame its list draws rows in, and finished from here, so the list itself carries no benchmark
+ * code. They run in this process, so process creation is left out; for full cold starts,
+ * {@code adb shell am start -S -W} and the "Fully drawn" line logged on
+ * {@link Activity#reportFullyDrawn()} measure the same frame.
+ */
+public class StartupBenchmarkActivity extends Activity {
+    private static final String LOG_TAG = StartupBenchmarkActivity.class.getSimpleName();
+
+    // Launches per mode, after one unmeasured launch that leaves a snapshot behind
+    private static final int LAUNCHES = 10;
+
+    private final List<Long> mWithSnapshot = new ArrayList<>();
+    private final List<Long> mWithoutSnapshot = new ArrayList<>();
+    private final Application.ActivityLifecycleCallbacks mCallbacks = new LaunchCallbacks();
+    private int mLaunch;
+    // Uptime the current launch started at, and whether its first frame was timed yet
+    private long mLaunchedAt;
+    private boolean mMeasured;
+    private TextView mResultsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        EarthquakeActivity.markProcessWarm();
+        mResultsTextView = new TextView(this);
+        mResultsTextView.setTextIsSelectable(true);
+        mResultsTextView.setText("Launching the list...");
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(mResultsTextView);
+        setContentView(scrollView);
+
+        getApplication().registerActivityLifecycleCallbacks(mCallbacks);
+        launchNext();
+    }
+
+    @Override
+    protected void onDestroy() {
+        getApplication().unregisterActivityLifecycleCallbacks(mCallbacks);
+        super.onDestroy();
+    }
+
+    /**
+     * Launches the list in the mode of the next launch
+     */
+    private void launchNext() {
+        int launch = mLaunch++;
+        mLaunchedAt = SystemClock.uptimeMillis();
+        mMeasured = false;
+        startActivity(new Intent(this, EarthquakeActivity.class)
+                .putExtra(EarthquakeActivity.EXTRA_SKIP_SNAPSHOT, launch > 0 && !isWithSnapshot(launch)));
+    }
+
+    private void onFirstMeaningfulFrame(EarthquakeActivity activity, long elapsedMillis) {
+        mMeasured = true;
+        int launch = mLaunch - 1;
+        if (launch > 0) {
+            (isWithSnapshot(launch) ? mWithSnapshot : mWithoutSnapshot).add(elapsedMillis);
+        }
+        activity.finish();
+    }
+
+    private void onListClosed() {
+        if (!mMeasured) {
+            mResultsTextView.setText("The list was closed before showing earthquakes");
+        } else if (mLaunch <= 2 * LAUNCHES) {
+            launchNext();
+        } else {
+            showResults();
+        }
+    }
+
+    private static boolean isWithSnapshot(int launch) {
+        return launch % 2 == 0;
+    }
+
+    private void showResults() {
+        String results = summarize("Without snapshot", mWithoutSnapshot) + "\n\n"
+                + summarize("With snapshot", mWithSnapshot);
+        Log.i(LOG_TAG, results);
+        mResultsTextView.setText(results);
+    }
+
+    private static String summarize(String name, List<Long> millis) {
+        List<Long> sorted = new ArrayList<>(millis);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long value : sorted) {
+            sum += value;
+        }
+        return String.format(Locale.US, "%s: first meaningful frame median %d ms, mean %.1f ms, min %d ms, max %d ms (%d launches)",
+                name, sorted.get(sorted.size() / 2), (double) sum / sorted.size(),
+                sorted.get(0), sorted.get(sorted.size() - 1), sorted.size());
+    }
+
+    /**
+     * Times each launched list to the first frame showing earthquakes, the one it reports as
+     * fully drawn, and launches the next once it is gone
+     */
+    private class LaunchCallbacks implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityResumed(Activity activity) {
+            if (!(activity instanceof EarthquakeActivity) || mMeasured) {
+                return;
+            }
+            RecyclerView list = activity.findViewById(R.id.list);
+            list.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+                private boolean mReported;
+
+                @Override
+                public void onDraw() {
+                    if (mReported || mMeasured || list.getAdapter() == null || list.getAdapter().getItemCount() == 0) {
+                        return;
+                    }
+                    mReported = true;
+                    long elapsedMillis = SystemClock.uptimeMillis() - mLaunchedAt;
+                    // Listeners can't be removed while they are being called
+                    list.post(() -> {
+                        list.getViewTreeObserver().removeOnDrawListener(this);
+                        onFirstMeaningfulFrame((EarthquakeActivity) activity, elapsedMillis);
+                    });
+                }
+            });
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            if (activity instanceof EarthquakeActivity) {
+                onListClosed();
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+    }
+}
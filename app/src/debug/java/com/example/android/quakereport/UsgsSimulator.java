@@ -0,0 +1,546 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local HTTP server answering the USGS FDSN event query and the summary feeds with synthetic
+ * earthquakes, for load and soak tests. Debug builds only. Point the app at it with
+ * {@link QueryUtils#setBaseUrl(String)}, as {@link SoakTestActivity} does, so requests go
+ * through the real transport, connection reuse and decompression.
+ *
+ * <p>The catalog is a stream of events one {@link Config#eventSpacingMillis} apart, ending at
+ * the current time: new events keep arriving as time passes, and the oldest drop out once there
+ * are more than {@link Config#eventCount}. Each event is derived from its serial number and the
+ * seed alone, so pages and feeds agree with each other across requests.
+ *
+ * <p>Requests can be delayed, failed with a 503 at random, have their body dripped a few bytes
+ * at a time and be gzipped. Anything before the API paths is ignored, so a client can vary it
+ * to keep its cache from answering. It also runs on a desktop JVM for emulators, see
+ * {@link #main(String[])}.
+ */
+public class UsgsSimulator {
+    private static final String QUERY_PATH = "/fdsnws/event/1/query";
+    private static final String SUMMARY_PATH = "/earthquakes/feed/v1.0/summary/";
+    private static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_LIMIT = 20000;
+    private static final int IDLE_TIMEOUT_MILLIS = 30000;
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private static final String[] PLACES = {"Lima, Peru", "Tonga", "Anchorage, Alaska",
+            "Sumatra, Indonesia", "Hualien City, Taiwan", "Ridgecrest, CA", "Valparaiso, Chile"};
+    private static final String[] DIRECTIONS = {"N", "NNE", "ENE", "E", "SSW", "W", "NW"};
+
+    private final Config mConfig;
+    private final long mStartTime = System.currentTimeMillis();
+    private final Random mErrorRandom = new Random();
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+
+    /**
+     * How the simulator behaves, the defaults answer quickly and without errors
+     */
+    public static class Config {
+        /** The number of events in the catalog at any time */
+        public int eventCount = 20000;
+        /** The time between two events */
+        public long eventSpacingMillis = TimeUnit.SECONDS.toMillis(30);
+        /** The delay before the headers of each response */
+        public long latencyMillis;
+        /** The share of requests answered with a 503, between 0 and 1 */
+        public double errorRate;
+        /** Writes bodies this many bytes at a time, 0 writes them at once */
+        public int dripBytes;
+        /** The delay between two drips of a body */
+        public long dripDelayMillis;
+        /** Whether to gzip the bodies of clients accepting it */
+        public boolean gzip = true;
+        public long seed = 42;
+    }
+
+    public UsgsSimulator(Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * Starts serving on a free port of the loopback interface, returning the base URL to
+     * request it with
+     */
+    public String start() throws IOException {
+        return start(InetAddress.getByName("127.0.0.1"), 0);
+    }
+
+    /**
+     * Starts serving on the address and port, 0 picking a free one
+     */
+    public synchronized String start(InetAddress address, int port) throws IOException {
+        mServerSocket = new ServerSocket(port, 50, address);
+        mExecutor = Executors.newCachedThreadPool();
+        ServerSocket serverSocket = mServerSocket;
+        mExecutor.execute(() -> accept(serverSocket));
+        return getBaseUrl();
+    }
+
+    public synchronized String getBaseUrl() {
+        return "http://" + mServerSocket.getInetAddress().getHostAddress() + ":" + mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting requests and drops the open connections
+     */
+    public synchronized void stop() {
+        if (mServerSocket == null) {
+            return;
+        }
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        mExecutor.shutdownNow();
+        mServerSocket = null;
+    }
+
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * The number of requests failed on purpose
+     */
+    public long getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * The number of body bytes sent, after compression
+     */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    private void accept(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                mExecutor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // Closed by stop()
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of a connection until the client closes it, keeping it alive in
+     * between as USGS does
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null) {
+                    return;
+                }
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+                    }
+                }
+                String[] parts = requestLine.split(" ");
+                if (parts.length < 2) {
+                    return;
+                }
+                respond(parts[1], headers, out);
+            }
+        } catch (SocketException e) {
+            // The client or stop() closed the connection
+        } catch (IOException | InterruptedException e) {
+            // Dropped
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    private void respond(String target, Map<String, String> headers, OutputStream out)
+            throws IOException, InterruptedException {
+        mRequests.incrementAndGet();
+        if (mConfig.latencyMillis > 0) {
+            Thread.sleep(mConfig.latencyMillis);
+        }
+        boolean failed;
+        synchronized (mErrorRandom) {
+            failed = mErrorRandom.nextDouble() < mConfig.errorRate;
+        }
+        if (failed) {
+            mErrors.incrementAndGet();
+            writeResponse(out, "503 Service Unavailable", "Retry-After: 1\r\n", new byte[0]);
+            return;
+        }
+
+        int queryStart = target.indexOf('?');
+        String path = queryStart < 0 ? target : target.substring(0, queryStart);
+        Map<String, String> parameters = parseQuery(queryStart < 0 ? "" : target.substring(queryStart + 1));
+        long now = System.currentTimeMillis();
+        String json;
+        if (path.endsWith(QUERY_PATH)) {
+            json = query(parameters, now);
+        } else if (path.contains(SUMMARY_PATH) && path.endsWith(".geojson")) {
+            json = summary(path.substring(path.indexOf(SUMMARY_PATH) + SUMMARY_PATH.length(), path.length() - ".geojson".length()), now);
+        } else {
+            json = null;
+        }
+        if (json == null) {
+            writeResponse(out, "404 Not Found", "", new byte[0]);
+            return;
+        }
+
+        byte[] body = json.getBytes(UTF_8);
+        String extraHeaders = "Content-Type: application/json\r\n";
+        String acceptEncoding = headers.get("accept-encoding");
+        if (mConfig.gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = gzip(body);
+            extraHeaders += "Content-Encoding: gzip\r\n";
+        }
+        writeResponse(out, "200 OK", extraHeaders, body);
+    }
+
+    private void writeResponse(OutputStream out, String status, String headers, byte[] body)
+            throws IOException, InterruptedException {
+        out.write(("HTTP/1.1 " + status + "\r\n" + headers + "Content-Length: " + body.length + "\r\n\r\n").getBytes(UTF_8));
+        if (mConfig.dripBytes <= 0) {
+            out.write(body);
+        } else {
+            for (int offset = 0; offset < body.length; offset += mConfig.dripBytes) {
+                out.write(body, offset, Math.min(mConfig.dripBytes, body.length - offset));
+                out.flush();
+                Thread.sleep(mConfig.dripDelayMillis);
+            }
+        }
+        out.flush();
+        mBytesSent.addAndGet(body.length);
+    }
+
+    /**
+     * Answers an FDSN query: limit, offset, minmag or minmagnitude, orderby time or magnitude,
+     * and latitude, longitude and maxradiuskm
+     */
+    private String query(Map<String, String> parameters, long now) {
+        int limit = Math.min(MAX_LIMIT, parseInt(parameters.get("limit"), 20));
+        int offset = Math.max(1, parseInt(parameters.get("offset"), 1));
+        String minMagnitudeParameter = parameters.containsKey("minmagnitude")
+                ? parameters.get("minmagnitude") : parameters.get("minmag");
+        double minMagnitude = parseDouble(minMagnitudeParameter, Double.NEGATIVE_INFINITY);
+        double latitude = parseDouble(parameters.get("latitude"), Double.NaN);
+        double longitude = parseDouble(parameters.get("longitude"), Double.NaN);
+        double maxRadiusKm = parseDouble(parameters.get("maxradiuskm"), Double.NaN);
+        boolean byMagnitude = "magnitude".equals(parameters.get("orderby"));
+
+        List<Event> matches = new ArrayList<>();
+        long newest = newestSerial(now);
+        int skip = offset - 1;
+        for (long serial = newest; serial > newest - mConfig.eventCount; serial--) {
+            if (magnitudeOf(randomOf(serial)) < minMagnitude) {
+                continue;
+            }
+            Event event = eventOf(serial);
+            if (!Double.isNaN(maxRadiusKm)
+                    && distanceKm(latitude, longitude, event.latitude, event.longitude) > maxRadiusKm) {
+                continue;
+            }
+            if (byMagnitude) {
+                matches.add(event);
+            } else if (skip > 0) {
+                skip--;
+            } else if (matches.size() < limit) {
+                matches.add(event);
+            } else {
+                break;
+            }
+        }
+        if (byMagnitude) {
+            Collections.sort(matches, (Event a, Event b) -> Double.compare(b.magnitude, a.magnitude));
+            matches = matches.subList(Math.min(matches.size(), offset - 1), Math.min(matches.size(), offset - 1 + limit));
+        }
+        return toGeoJson(matches, now);
+    }
+
+    /**
+     * Answers a summary feed such as 2.5_day, with the events of the period above the tier
+     */
+    private String summary(String feed, long now) {
+        int separator = feed.indexOf('_');
+        if (separator < 0) {
+            return null;
+        }
+        String tier = feed.substring(0, separator);
+        String period = feed.substring(separator + 1);
+        double minMagnitude;
+        if ("all".equals(tier)) {
+            minMagnitude = Double.NEGATIVE_INFINITY;
+        } else if ("significant".equals(tier)) {
+            minMagnitude = 6;
+        } else {
+            minMagnitude = parseDouble(tier, Double.NaN);
+        }
+        long periodMillis;
+        if ("hour".equals(period)) {
+            periodMillis = TimeUnit.HOURS.toMillis(1);
+        } else if ("day".equals(period)) {
+            periodMillis = TimeUnit.DAYS.toMillis(1);
+        } else if ("week".equals(period)) {
+            periodMillis = TimeUnit.DAYS.toMillis(7);
+        } else if ("month".equals(period)) {
+            periodMillis = TimeUnit.DAYS.toMillis(30);
+        } else {
+            return null;
+        }
+        if (Double.isNaN(minMagnitude)) {
+            return null;
+        }
+
+        List<Event> events = new ArrayList<>();
+        long newest = newestSerial(now);
+        for (long serial = newest; serial > newest - mConfig.eventCount; serial--) {
+            if (timeOf(serial) < now - periodMillis) {
+                break;
+            }
+            if (magnitudeOf(randomOf(serial)) >= minMagnitude) {
+                events.add(eventOf(serial));
+            }
+        }
+        return toGeoJson(events, now);
+    }
+
+    /**
+     * The serial of the latest event at the time, the catalog having started full
+     */
+    private long newestSerial(long now) {
+        return mConfig.eventCount - 1 + (now - mStartTime) / mConfig.eventSpacingMillis;
+    }
+
+    private long timeOf(long serial) {
+        return mStartTime - (mConfig.eventCount - 1 - serial) * mConfig.eventSpacingMillis;
+    }
+
+    private static class Event {
+        String id;
+        double magnitude;
+        String place;
+        long time;
+        long updated;
+        double latitude;
+        double longitude;
+        double depth;
+    }
+
+    private Random randomOf(long serial) {
+        return new Random(mConfig.seed * 1000003 + serial);
+    }
+
+    /**
+     * The magnitude of the event, drawn first so filters can skip building the rest
+     */
+    private static double magnitudeOf(Random random) {
+        // From 2.5 up like the catalog the app shows, each magnitude about three times rarer
+        // than the one below so the default minimum of 6 still finds a few hundred events
+        return Math.round(Math.min(9.5, 2.5 - 2 * Math.log10(1 - random.nextDouble())) * 10) / 10.0;
+    }
+
+    private Event eventOf(long serial) {
+        Random random = randomOf(serial);
+        Event event = new Event();
+        event.id = "sim" + serial;
+        event.magnitude = magnitudeOf(random);
+        event.place = random.nextInt(5) == 0 ? "south of the Fiji Islands"
+                : (1 + random.nextInt(200)) + " km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                + " of " + PLACES[random.nextInt(PLACES.length)];
+        event.time = timeOf(serial);
+        event.updated = event.time + random.nextInt(600000);
+        event.latitude = -60 + random.nextDouble() * 120;
+        event.longitude = -180 + random.nextDouble() * 360;
+        event.depth = random.nextDouble() * 600;
+        return event;
+    }
+
+    /**
+     * Writes the events as a compact FeatureCollection with the properties USGS sends
+     */
+    private static String toGeoJson(List<Event> events, long now) {
+        StringBuilder json = new StringBuilder(256 + events.size() * 900);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":").append(now)
+                .append(",\"title\":\"USGS Earthquakes (simulated)\",\"status\":200,\"api\":\"1.14.0\",\"count\":")
+                .append(events.size()).append("},\"features\":[");
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(event.magnitude)
+                    .append(",\"place\":\"").append(event.place).append("\",\"time\":").append(event.time)
+                    .append(",\"updated\":").append(event.updated)
+                    .append(",\"tz\":null,\"url\":\"").append(EVENT_PAGE_URL).append(event.id)
+                    .append("\",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null,\"status\":\"automatic\",")
+                    .append("\"tsunami\":0,\"sig\":").append((int) (event.magnitude * 100))
+                    .append(",\"net\":\"sim\",\"code\":\"").append(event.id.substring(3))
+                    .append("\",\"ids\":\",").append(event.id).append(",\",\"sources\":\",sim,\",")
+                    .append("\"types\":\",origin,phase-data,\",\"nst\":null,\"dmin\":null,\"rms\":0.5,\"gap\":null,")
+                    .append("\"magType\":\"ml\",\"type\":\"earthquake\",\"title\":\"M ").append(event.magnitude)
+                    .append(" - ").append(event.place)
+                    .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(event.longitude).append(',').append(event.latitude).append(',').append(event.depth)
+                    .append("]},\"id\":\"").append(event.id).append("\"}");
+        }
+        json.append("],\"bbox\":[-180,-60,0,180,60,600]}");
+        return json.toString();
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 8 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a line ending with CRLF, or null at the end of the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, UTF_8);
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static double parseDouble(String value, double defaultValue) {
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2) + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(Math.min(1, a)));
+    }
+
+    /**
+     * Runs the simulator on a desktop JVM, for an emulator reaching the host at 10.0.2.2 and an
+     * app built with {@code -PusgsBaseUrl=http://10.0.2.2:8080}. Takes {@code --port},
+     * {@code --events}, {@code --spacing-ms}, {@code --latency-ms}, {@code --error-rate},
+     * {@code --drip-bytes}, {@code --drip-delay-ms} and {@code --no-gzip}.
+     */
+    public static void main(String[] args) throws IOException {
+        Config config = new Config();
+        int port = 8080;
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--events":
+                    config.eventCount = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--spacing-ms":
+                    config.eventSpacingMillis = Long.parseLong(value);
+                    i++;
+                    break;
+                case "--latency-ms":
+                    config.latencyMillis = Long.parseLong(value);
+                    i++;
+                    break;
+                case "--error-rate":
+                    config.errorRate = Double.parseDouble(value);
+                    i++;
+                    break;
+                case "--drip-bytes":
+                    config.dripBytes = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--drip-delay-ms":
+                    config.dripDelayMillis = Long.parseLong(value);
+                    i++;
+                    break;
+                case "--no-gzip":
+                    config.gzip = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        String baseUrl = new UsgsSimulator(config).start(InetAddress.getByName("0.0.0.0"), port);
+        System.out.println("Serving " + config.eventCount + " simulated earthquakes at " + baseUrl);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.quakereport;
+
+import android.arch.lifecycle.ViewModelProviders;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+/**
+ * Imports a catalog file exported from USGS, CSV or GeoJSON, and lists its events as they
+ * are parsed.
+ */
+public class CatalogActivity extends AppCompatActivity {
+    private static final int OPEN_CATALOG_REQUEST = 1;
+
+    private static final int BYTES_PER_MB = 1024 * 1024;
+
+    private CatalogViewModel mCatalogModel;
+    private CatalogAdapter mAdapter;
+    private ProgressBar mProgressBar;
+    private TextView mStatusTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        EarthquakeActivity.markProcessWarm();
+        setContentView(R.layout.catalog_activity);
+        mProgressBar = findViewById(R.id.import_progress_bar);
+        mStatusTextView = findViewById(R.id.import_status_text);
+
+        mCatalogModel = ViewModelProviders.of(this).get(CatalogViewModel.class);
+        RecyclerView catalogListView = findViewById(R.id.catalog_list);
+        catalogListView.setLayoutManager(new LinearLayoutManager(this));
+        catalogListView.setHasFixedSize(true);
+        mAdapter = new CatalogAdapter(this, mCatalogModel.getStore(), (EarthquakeEvent earthquake) -> {
+            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(earthquake.getURL()));
+            if (intent.resolveActivity(getPackageManager()) != null) {
+                startActivity(intent);
+            }
+        });
+        catalogListView.setAdapter(mAdapter);
+
+        mCatalogModel.getProgress().observe(this, this::showProgress);
+
+        if (!mCatalogModel.hasStarted() && savedInstanceState == null) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            startActivityForResult(intent, OPEN_CATALOG_REQUEST);
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != OPEN_CATALOG_REQUEST) {
+            return;
+        }
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            finish();
+            return;
+        }
+        mCatalogModel.importCatalog(data.getData());
+    }
+
+    private void showProgress(CatalogViewModel.Progress progress) {
+        if (progress == null) {
+            return;
+        }
+        mAdapter.setItemCount(progress.eventCount);
+        mProgressBar.setProgress(progress.totalBytes == 0 ? 0
+                : (int) (progress.bytesRead * mProgressBar.getMax() / progress.totalBytes));
+        if (progress.failed) {
+            mStatusTextView.setText(getString(R.string.import_failed, progress.eventCount));
+        } else if (progress.done) {
+            mProgressBar.setVisibility(ProgressBar.GONE);
+            mStatusTextView.setText(getString(R.string.import_done, progress.eventCount));
+        } else {
+            mStatusTextView.setText(getString(R.string.import_progress, progress.eventCount,
+                    progress.bytesRead / BYTES_PER_MB, progress.totalBytes / BYTES_PER_MB));
+        }
+    }
+}
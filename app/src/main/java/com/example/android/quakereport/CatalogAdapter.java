@@ -0,0 +1,103 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.graphics.drawable.GradientDrawable;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * Shows the events of an {@link EarthquakeStore} while it is being imported. Only the events
+ * already published through {@link #setItemCount(int)} are shown, and rows are formatted as
+ * they are bound: a catalog holds far more events than are ever scrolled through.
+ */
+public class CatalogAdapter extends RecyclerView.Adapter<CatalogAdapter.ViewHolder> {
+    private final LayoutInflater mInflater;
+    private final EarthquakeStore mStore;
+    private final EarthquakeAdapter.OnEarthquakeClickListener mClickListener;
+
+    // Magnitude circle colors, indexed by the magnitude bucket of the row
+    private final int[] mMagnitudeColors;
+    private int mItemCount;
+
+    /**
+     * Holds the views of a row so binding doesn't have to look them up again
+     */
+    class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView magnitudeTextView;
+        final GradientDrawable magnitudeCircle;
+        final TextView primaryLocationTextView;
+        final TextView locationOffsetTextView;
+        final TextView dateTextView;
+        final TextView timeTextView;
+        EarthquakeEvent earthquake;
+
+        ViewHolder(View view) {
+            super(view);
+            magnitudeTextView = view.findViewById(R.id.magnitude_text_view);
+            magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
+            primaryLocationTextView = view.findViewById(R.id.primary_location_text_view);
+            locationOffsetTextView = view.findViewById(R.id.location_offset_text_view);
+            dateTextView = view.findViewById(R.id.date_text_view);
+            timeTextView = view.findViewById(R.id.time_text_view);
+
+            view.setOnClickListener((View v) -> {
+                if (earthquake != null) {
+                    mClickListener.onEarthquakeClick(earthquake);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param store         the store being imported into, read under its lock
+     * @param clickListener called when an earthquake is tapped
+     */
+    public CatalogAdapter(Context context, EarthquakeStore store,
+                          EarthquakeAdapter.OnEarthquakeClickListener clickListener) {
+        mInflater = LayoutInflater.from(context);
+        mStore = store;
+        mClickListener = clickListener;
+        mMagnitudeColors = EarthquakeAdapter.getMagnitudeColors(context);
+    }
+
+    /**
+     * Shows the events appended since the last call. The store only ever grows during an import.
+     */
+    public void setItemCount(int itemCount) {
+        if (itemCount > mItemCount) {
+            int previousCount = mItemCount;
+            mItemCount = itemCount;
+            notifyItemRangeInserted(previousCount, itemCount - previousCount);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(mInflater.inflate(R.layout.list_item, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long bindStart = Metrics.start();
+        synchronized (mStore) {
+            holder.earthquake = mStore.toEvent(position);
+        }
+        EarthquakeRow row = EarthquakeFormatter.get().format(holder.earthquake);
+
+        holder.magnitudeCircle.setColor(mMagnitudeColors[row.getMagnitudeBucket()]);
+        holder.magnitudeTextView.setText(row.getMagnitudeText());
+        holder.primaryLocationTextView.setText(row.getPrimaryLocation());
+        holder.locationOffsetTextView.setText(row.getLocationOffset());
+        holder.dateTextView.setText(row.getDateText());
+        holder.timeTextView.setText(row.getTimeText());
+        Metrics.stop(Metrics.Stage.BIND, bindStart);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.quakereport;
+
+import android.app.Application;
+import android.arch.lifecycle.AndroidViewModel;
+import android.arch.lifecycle.LiveData;
+import android.arch.lifecycle.MutableLiveData;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Imports a catalog file chosen by the user into an {@link EarthquakeStore} that outlives
+ * configuration changes, publishing the progress as the events come in.
+ */
+public class CatalogViewModel extends AndroidViewModel {
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = CatalogViewModel.class.getSimpleName();
+
+    private final EarthquakeStore mStore = new EarthquakeStore();
+    private final MutableLiveData<Progress> mProgress = new MutableLiveData<>();
+    private Thread mImportThread;
+
+    /**
+     * A step of the import
+     */
+    public static final class Progress {
+        public final long bytesRead;
+        public final long totalBytes;
+        public final int eventCount;
+        public final boolean done;
+        public final boolean failed;
+
+        Progress(long bytesRead, long totalBytes, int eventCount, boolean done, boolean failed) {
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.eventCount = eventCount;
+            this.done = done;
+            this.failed = failed;
+        }
+    }
+
+    public CatalogViewModel(Application application) {
+        super(application);
+    }
+
+    /**
+     * The imported events, growing during the import. Synchronize on it to read it.
+     */
+    public EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    public LiveData<Progress> getProgress() {
+        return mProgress;
+    }
+
+    public boolean hasStarted() {
+        return mImportThread != null;
+    }
+
+    /**
+     * Starts importing the file on a background thread, parsing on every core
+     */
+    public void importCatalog(Uri uri) {
+        if (mImportThread != null) {
+            return;
+        }
+        mImportThread = new Thread(() -> runImport(uri), "catalog-import");
+        mImportThread.start();
+    }
+
+    @Override
+    protected void onCleared() {
+        if (mImportThread != null) {
+            mImportThread.interrupt();
+        }
+    }
+
+    private void runImport(Uri uri) {
+        ParcelFileDescriptor descriptor = null;
+        FileInputStream in = null;
+        long totalBytes = 0;
+        try {
+            descriptor = getApplication().getContentResolver().openFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                throw new IOException("Unable to open " + uri);
+            }
+            in = new FileInputStream(descriptor.getFileDescriptor());
+            totalBytes = in.getChannel().size();
+            mProgress.postValue(new Progress(0, totalBytes, 0, false, false));
+
+            EarthquakeImporter importer = new EarthquakeImporter(mStore, Runtime.getRuntime().availableProcessors());
+            importer.importFile(in.getChannel(), (long bytesRead, long total, int eventCount) ->
+                    mProgress.postValue(new Progress(bytesRead, total, eventCount, false, false)));
+            mProgress.postValue(new Progress(totalBytes, totalBytes, size(), true, false));
+        } catch (InterruptedIOException e) {
+            Log.i(LOG_TAG, "Catalog import cancelled");
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Problem importing the catalog", e);
+            mProgress.postValue(new Progress(0, totalBytes, size(), true, true));
+        } finally {
+            closeQuietly(in);
+            closeQuietly(descriptor);
+        }
+    }
+
+    private int size() {
+        synchronized (mStore) {
+            return mStore.size();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing the catalog file", e);
+        }
+    }
+}
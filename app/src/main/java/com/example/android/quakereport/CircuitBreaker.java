@@ -0,0 +1,77 @@
+package com.example.android.quakereport;
+
+import android.os.SystemClock;
+
+/**
+ * Stops calling a failing service for a while so requests fail fast instead of waiting on
+ * timeouts and keeping the radio awake.
+ *
+ * <p>After {@code failureThreshold} failures in a row the circuit opens and {@link #allowRequest()}
+ * refuses every request. Once {@code openMillis} have passed, a single trial request is let
+ * through: its success closes the circuit, its failure opens it again for twice as long, up to
+ * {@code maxOpenMillis}. Thread-safe.
+ */
+public class CircuitBreaker {
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final long mMaxOpenMillis;
+
+    // Guarded by this
+    private int mConsecutiveFailures;
+    private long mOpenUntil;
+    private long mCurrentOpenMillis;
+    private boolean mTrialInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+        mMaxOpenMillis = maxOpenMillis;
+        mCurrentOpenMillis = openMillis;
+    }
+
+    /**
+     * Whether a request may go out now. A true answer while the circuit is half open makes
+     * the caller the trial request, which must report back with {@link #onSuccess()},
+     * {@link #onFailure()} or {@link #onAbandoned()}.
+     */
+    public synchronized boolean allowRequest() {
+        if (mConsecutiveFailures < mFailureThreshold) {
+            return true;
+        }
+        if (mTrialInFlight || SystemClock.elapsedRealtime() < mOpenUntil) {
+            return false;
+        }
+        mTrialInFlight = true;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        mCurrentOpenMillis = mOpenMillis;
+        mTrialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        if (mTrialInFlight) {
+            // The service is still down, back off further before the next trial
+            mCurrentOpenMillis = Math.min(mCurrentOpenMillis * 2, mMaxOpenMillis);
+            mTrialInFlight = false;
+        }
+        mConsecutiveFailures++;
+        if (mConsecutiveFailures >= mFailureThreshold) {
+            mOpenUntil = SystemClock.elapsedRealtime() + mCurrentOpenMillis;
+        }
+    }
+
+    /**
+     * Reports a request that was given up before it had an outcome, such as a cancelled one.
+     * It counts neither way, but frees the trial slot if it was the trial request.
+     */
+    public synchronized void onAbandoned() {
+        mTrialInFlight = false;
+    }
+
+    public synchronized boolean isOpen() {
+        return mConsecutiveFailures >= mFailureThreshold;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it, used to measure responses before and after decompression.
+ * While {@link Metrics} are enabled it also adds up the time spent blocked in bulk reads.
+ */
+public class CountingInputStream extends FilterInputStream {
+    private long mCount;
+    private long mReadNanos;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * The number of bytes read so far
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * The time spent in bulk reads so far, 0 while metrics are disabled
+     */
+    public long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long startNanos = Metrics.start();
+        int read = super.read(buffer, offset, length);
+        if (startNanos != 0) {
+            mReadNanos += System.nanoTime() - startNanos;
+        }
+        if (read > 0) {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        mCount += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Rewinding would count the same bytes twice
+        return false;
+    }
+}
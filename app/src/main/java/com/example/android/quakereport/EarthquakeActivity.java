@@ -15,114 +15,441 @@
  */
 package com.example.android.quakereport;
 
+import android.Manifest;
+import android.annotation.SuppressLint;
 import android.arch.lifecycle.ViewModelProviders;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.Adapter;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import java.util.ArrayList;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class EarthquakeActivity extends AppCompatActivity {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
 
+    // How many rows before the end of the list the next page starts loading
+    private static final int PREFETCH_DISTANCE = 5;
+
+    // Radius of the "Near me" filter
+    private static final double NEAR_ME_RADIUS_KM = 500;
+    private static final int LOCATION_PERMISSION_REQUEST = 1;
+
+    // Debug builds only, for StartupBenchmarkActivity: start without the snapshot
+    static final String EXTRA_SKIP_SNAPSHOT = "skip_snapshot";
+
+    private static final String STATE_MAP_SHOWN = "map_shown";
+
+    // Hidden setting recording the metrics, release builds included, switched through dumpsys
+    private static final String METRICS_ENABLED_KEY = "metrics_enabled";
+    private static final String DUMP_METRICS = "metrics";
+
+    // Whether the process already ran an activity or a job, so a launch is no longer cold
+    private static boolean sProcessWarm;
+
     //Adapter for the list of earthquakes
     private EarthquakeAdapter mAdapter;
-    private ListView earthquakeListView;
+    private RecyclerView earthquakeListView;
     private TextView mEemptyTextView;
     private ProgressBar mProgressBar;
+    private EarthquakeMapView mMapView;
+    private EarthquakeViewModel mEarthquakesModel;
+    private boolean mScrollToNewEarthquakes;
+    // The list last handed to the adapter
+    private List<EarthquakeEvent> mShownEarthquakes;
+    // Uptime the launch started at, to time the first frame showing earthquakes
+    private long mLaunchedAt;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mLaunchedAt = getLaunchTime();
+        Metrics.setEnabled(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(METRICS_ENABLED_KEY, BuildConfig.DEBUG));
         setContentView(R.layout.earthquake_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        earthquakeListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        earthquakeListView = findViewById(R.id.list);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(layoutManager);
+        earthquakeListView.setHasFixedSize(true);
 
+        // Create a new {@link EarthquakeAdapter}, opening the USGS page of a tapped earthquake
+        mAdapter = new EarthquakeAdapter(this, this::openEventPage);
 
-        // Create a new {@link ArrayAdapter} of earthquakes
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<>());
-
-        // Setting the onClick listener
-        earthquakeListView.setOnItemClickListener((AdapterView<?> parent, View view, int position, long id) -> {
-            String url = mAdapter.getItem(position).getURL();
-            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(url));
-            if (intent.resolveActivity(getPackageManager()) != null) {
-                startActivity(intent);
-            }
-        });
-
-        // Set the adapter on the {@link ListView}
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
         earthquakeListView.setAdapter(mAdapter);
 
         mProgressBar = findViewById(R.id.progress_bar);
         mEemptyTextView = findViewById(R.id.empty_text);
-        earthquakeListView.setEmptyView(mEemptyTextView);
 
-        // Checking if the device is connected and acting accordingly
-        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-        if (networkInfo != null && networkInfo.isConnectedOrConnecting()){
-            // Updating th UI using a ViewModel Object
-            EarthquakeViewModel earthquakesModel = ViewModelProviders.of(this).get(EarthquakeViewModel.class);
-            earthquakesModel.getEarthquakes().observe(this, earthquakes -> {
-                // Make the progress bar go away
-                mProgressBar.setVisibility(View.GONE);
-                // update UI
-                updateUI(earthquakes);
-                mEemptyTextView.setText("No earthquakes found");
-            });
+        // Updating th UI using a ViewModel Object, cached earthquakes show up even when offline
+        mEarthquakesModel = ViewModelProviders.of(this).get(EarthquakeViewModel.class);
+
+        // The map shares the loaded earthquakes, clustered as they are synced
+        mMapView = findViewById(R.id.map);
+        mMapView.setClusterer(mEarthquakesModel.getClusterer());
+        mMapView.setOnEventClickListener((String id) -> {
+            EarthquakeEvent earthquake = mEarthquakesModel.findEarthquake(id);
+            if (earthquake != null) {
+                openEventPage(earthquake);
+            }
+        });
+        if (savedInstanceState != null && savedInstanceState.getBoolean(STATE_MAP_SHOWN)) {
+            showMap(true);
+        }
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Prefetch the next page while there are still a few rows left to scroll through
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition() >= totalItemCount - PREFETCH_DISTANCE) {
+                    mEarthquakesModel.loadMoreEarthquakes();
+                }
+            }
+        });
+        watchForFirstMeaningfulFrame();
+
+        // Draw the rows the app was left with in the first frame, and only start loading once
+        // it is on screen. A ViewModel that survived a configuration change has them already.
+        List<EarthquakeEvent> snapshot = null;
+        if (!mEarthquakesModel.hasEarthquakes() && !(BuildConfig.DEBUG
+                && getIntent().getBooleanExtra(EXTRA_SKIP_SNAPSHOT, false))) {
+            snapshot = EarthquakeSnapshot.restore(this);
+        }
+        if (snapshot != null && !snapshot.isEmpty()) {
+            mProgressBar.setVisibility(View.GONE);
+            updateUI(snapshot);
+            runAfterFirstFrame(this::observeModel);
         } else {
+            observeModel();
+        }
+
+        // Make sure the cache keeps being refreshed in the background, a no-op once scheduled.
+        // It reads the preferences and asks JobScheduler, none of which the first frame needs.
+        Context applicationContext = getApplicationContext();
+        runAfterFirstFrame(() -> AsyncTask.THREAD_POOL_EXECUTOR.execute(
+                () -> EarthquakePrefetcher.schedule(applicationContext)));
+    }
+
+    /**
+     * Starts loading the earthquakes and following their changes
+     */
+    private void observeModel() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) earthquakeListView.getLayoutManager();
+        mEarthquakesModel.getEarthquakes().observe(this, earthquakes -> {
+            // Make the progress bar go away
             mProgressBar.setVisibility(View.GONE);
-            mEemptyTextView.setText("No internet connection");
+            // update UI
+            updateUI(earthquakes);
+            updateEmptyText();
+        });
+        mEarthquakesModel.getLoadError().observe(this, error -> {
+            updateEmptyText();
+            // Earthquakes still on screen are the last synced ones, say they may be outdated
+            if (error != null && mAdapter.getItemCount() > 0) {
+                Toast.makeText(this, R.string.showing_saved_earthquakes, Toast.LENGTH_SHORT).show();
+            }
+        });
+        mEarthquakesModel.getLiveChanges().observe(this, changes -> {
+            // Keep new earthquakes in sight when the user is looking at the top of the list
+            mScrollToNewEarthquakes = changes != null && !changes.getAdded().isEmpty()
+                    && layoutManager.findFirstCompletelyVisibleItemPosition() == 0;
+        });
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                // Rows inserted above the first one would otherwise land out of sight
+                if (positionStart == 0 && mScrollToNewEarthquakes) {
+                    mScrollToNewEarthquakes = false;
+                    earthquakeListView.scrollToPosition(0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the action right after the next frame is drawn, which is the first one in onCreate
+     */
+    private void runAfterFirstFrame(Runnable action) {
+        Choreographer.getInstance().postFrameCallback((long frameTimeNanos) -> earthquakeListView.post(action));
+    }
+
+    /**
+     * Reports the first frame that shows earthquakes, from the snapshot or loaded, as the app
+     * being fully drawn
+     */
+    private void watchForFirstMeaningfulFrame() {
+        earthquakeListView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean mReported;
+
+            @Override
+            public void onDraw() {
+                if (mReported || mAdapter.getItemCount() == 0) {
+                    return;
+                }
+                mReported = true;
+                long elapsedMillis = SystemClock.uptimeMillis() - mLaunchedAt;
+                // Listeners can't be removed while they are being called
+                earthquakeListView.post(() -> {
+                    earthquakeListView.getViewTreeObserver().removeOnDrawListener(this);
+                    onFirstMeaningfulFrame(elapsedMillis);
+                });
+            }
+        });
+    }
+
+    private void onFirstMeaningfulFrame(long elapsedMillis) {
+        reportFullyDrawn();
+        Metrics.record(Metrics.Stage.FIRST_FRAME, TimeUnit.MILLISECONDS.toNanos(elapsedMillis));
+    }
+
+    /**
+     * The uptime the launch started at: when the process started if it was started for this
+     * activity, on Android N and up, otherwise now
+     */
+    private static long getLaunchTime() {
+        boolean coldStart = !sProcessWarm;
+        markProcessWarm();
+        if (coldStart && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartUptimeMillis();
         }
+        return SystemClock.uptimeMillis();
+    }
 
+    /**
+     * Called by the components that may start the process before this activity, so a later
+     * launch isn't timed from the process start
+     */
+    static void markProcessWarm() {
+        sProcessWarm = true;
+    }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mEarthquakesModel.setLiveUpdates(true);
+    }
+
+    @Override
+    protected void onStop() {
+        mEarthquakesModel.setLiveUpdates(false);
+        // Saved for the first frame of the next launch, which starts without the place and
+        // distance filters. Until the load finishes, the restored snapshot is still what's shown.
+        List<EarthquakeEvent> loaded = mEarthquakesModel.getLoadedEarthquakes();
+        List<EarthquakeEvent> snapshot = loaded != null ? loaded : mShownEarthquakes;
+        Context applicationContext = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> EarthquakeSnapshot.save(applicationContext, snapshot));
+        super.onStop();
+    }
+
+    /**
+     * Explains an empty list by what went wrong, if anything
+     */
+    private void updateEmptyText() {
+        if (mEemptyTextView.getVisibility() != View.VISIBLE) {
+            // Not shown while there are earthquakes, no need to ask ConnectivityManager
+            return;
+        }
+        EarthquakeResult.Error error = mEarthquakesModel.getLoadError().getValue();
+        // Checking if the device is connected first, that is the likeliest cause
+        if (!isConnected()) {
+            mEemptyTextView.setText("No internet connection");
+        } else if (error == EarthquakeResult.Error.NETWORK) {
+            mEemptyTextView.setText(R.string.usgs_unreachable);
+        } else if (error == EarthquakeResult.Error.SERVER || error == EarthquakeResult.Error.UNAVAILABLE) {
+            mEemptyTextView.setText(R.string.usgs_unavailable);
+        } else {
+            mEemptyTextView.setText("No earthquakes found");
+        }
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnectedOrConnecting();
     }
 
 
 
     private void updateUI(List<EarthquakeEvent> earthquakesArray){
-        mAdapter.clear();
+        boolean isEmpty = earthquakesArray == null || earthquakesArray.isEmpty();
+        mEemptyTextView.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+        mShownEarthquakes = earthquakesArray;
 
-        if (earthquakesArray == null || earthquakesArray.isEmpty()){
-            return;
+        // The adapter diffs the new list against the current one in the background
+        // and only rebinds the rows that changed
+        mAdapter.submitList(earthquakesArray);
+        // The clusters were synced along with the list
+        mMapView.invalidate();
+    }
+
+    /**
+     * Opens the USGS page of the earthquake
+     */
+    private void openEventPage(EarthquakeEvent earthquake) {
+        Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(earthquake.getURL()));
+        if (intent.resolveActivity(getPackageManager()) != null) {
+            startActivity(intent);
         }
+    }
+
+    /**
+     * Shows the map of the loaded earthquakes in place of the list, or the list again
+     */
+    private void showMap(boolean shown) {
+        mMapView.setVisibility(shown ? View.VISIBLE : View.GONE);
+        earthquakeListView.setVisibility(shown ? View.GONE : View.VISIBLE);
+    }
 
-        mAdapter.addAll(earthquakesArray);
+    private boolean isMapShown() {
+        return mMapView.getVisibility() == View.VISIBLE;
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_MAP_SHOWN, isMapShown());
     }
 
 
+    /**
+     * Adds the metrics and the earthquake stats to
+     * {@code adb shell dumpsys activity com.example.android.quakereport}. Appending
+     * {@code metrics on} or {@code metrics off} switches recording the metrics for this and the
+     * following launches, {@code metrics reset} clears them.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (args != null && args.length == 2 && DUMP_METRICS.equals(args[0])) {
+            if ("reset".equals(args[1])) {
+                Metrics.reset();
+            } else if ("on".equals(args[1]) || "off".equals(args[1])) {
+                boolean enabled = "on".equals(args[1]);
+                Metrics.setEnabled(enabled);
+                PreferenceManager.getDefaultSharedPreferences(this).edit()
+                        .putBoolean(METRICS_ENABLED_KEY, enabled)
+                        .apply();
+            } else {
+                writer.println(prefix + "Unknown metrics command " + args[1] + ", expected on, off or reset");
+            }
+        }
+        Metrics.dump(prefix, writer);
+        mEarthquakesModel.getStats().dump(prefix, writer, System.currentTimeMillis());
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+
+        // Filter the loaded earthquakes by place as the user types, without going to USGS
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mEarthquakesModel.setPlaceFilter(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mEarthquakesModel.setPlaceFilter(newText);
+                return true;
+            }
+        });
+        menu.findItem(R.id.action_near_me).setChecked(mEarthquakesModel.hasNearFilter());
+        menu.findItem(R.id.action_map).setChecked(isMapShown());
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_near_me) {
+            if (mEarthquakesModel.hasNearFilter()) {
+                mEarthquakesModel.clearNearFilter();
+                item.setChecked(false);
+            } else if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION)
+                    == PackageManager.PERMISSION_GRANTED) {
+                item.setChecked(showEarthquakesNearMe());
+            } else {
+                ActivityCompat.requestPermissions(this,
+                        new String[]{Manifest.permission.ACCESS_COARSE_LOCATION}, LOCATION_PERMISSION_REQUEST);
+            }
+            return true;
+        }
         if (item.getItemId() == R.id.action_settings) {
             Intent settingsIntent = new Intent(this, SettingsActivity.class);
             startActivity(settingsIntent);
             return true;
         }
+        if (item.getItemId() == R.id.action_map) {
+            showMap(!isMapShown());
+            item.setChecked(isMapShown());
+            return true;
+        }
+        if (item.getItemId() == R.id.action_import_catalog) {
+            startActivity(new Intent(this, CatalogActivity.class));
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == LOCATION_PERMISSION_REQUEST && grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            showEarthquakesNearMe();
+            invalidateOptionsMenu();
+        }
+    }
+
+    /**
+     * Filters the list down to the earthquakes around the last known location of the device,
+     * returning false if there is no such location
+     */
+    @SuppressLint("MissingPermission")
+    private boolean showEarthquakesNearMe() {
+        LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        Location location = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+        if (location == null) {
+            location = locationManager.getLastKnownLocation(LocationManager.PASSIVE_PROVIDER);
+        }
+        if (location == null) {
+            Toast.makeText(this, R.string.location_unavailable, Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        mEarthquakesModel.setNearFilter(location.getLatitude(), location.getLongitude(), NEAR_ME_RADIUS_KM);
+        return true;
+    }
 }
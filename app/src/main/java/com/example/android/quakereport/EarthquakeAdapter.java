@@ -3,134 +3,140 @@ package com.example.android.quakereport;
 import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-
-public class EarthquakeAdapter extends ArrayAdapter<EarthquakeEvent> {
+/**
+ * Shows the earthquakes in a {@link RecyclerView}. New lists are diffed against the current one
+ * on a background thread, keyed by USGS event id, so only inserted, removed or changed rows
+ * are rebound.
+ */
+public class EarthquakeAdapter extends ListAdapter<EarthquakeEvent, EarthquakeAdapter.ViewHolder> {
     // Properties
 
+    private static final DiffUtil.ItemCallback<EarthquakeEvent> DIFF_CALLBACK = new DiffUtil.ItemCallback<EarthquakeEvent>() {
+        @Override
+        public boolean areItemsTheSame(EarthquakeEvent oldEvent, EarthquakeEvent newEvent) {
+            return oldEvent.getId() != null && oldEvent.getId().equals(newEvent.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(EarthquakeEvent oldEvent, EarthquakeEvent newEvent) {
+            // USGS bumps the updated time whenever anything about the event changes
+            return oldEvent.getUpdated() == newEvent.getUpdated()
+                    && Double.compare(oldEvent.getMagnitude(), newEvent.getMagnitude()) == 0
+                    && oldEvent.getDate() == newEvent.getDate()
+                    && oldEvent.getPlace().equals(newEvent.getPlace());
+        }
+    };
+
+    private final LayoutInflater mInflater;
+    private final OnEarthquakeClickListener mClickListener;
+
+    // Magnitude circle colors, indexed by the magnitude bucket of the row
+    private final int[] mMagnitudeColors;
+
     /**
-     * Default EarthquakeAdapter constructor
-     *
-     * @param context the context of the activity
-     * @param objects the ArrayList of the earthquakes
+     * Called when a row is tapped
      */
-    public EarthquakeAdapter(Context context, ArrayList<EarthquakeEvent> objects) {
-        super(context, 0, objects);
+    public interface OnEarthquakeClickListener {
+        void onEarthquakeClick(EarthquakeEvent earthquake);
     }
 
     /**
-     * Gets the view for each row in the list view
-     *
-     * @param position    the position of the earthquake to display in the array data
-     * @param convertView the recycled or the current view for the row
-     * @param parent      the parent view group of the row
-     * @return the current row view
+     * Holds the views of a row so binding doesn't have to look them up again
      */
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        View currentView = convertView;
-        EarthquakeEvent currentEarthquake = getItem(position);
-
-        if (currentView == null) {
-            currentView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent, false);
+    class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView magnitudeTextView;
+        final GradientDrawable magnitudeCircle;
+        final TextView primaryLocationTextView;
+        final TextView locationOffsetTextView;
+        final TextView dateTextView;
+        final TextView timeTextView;
+
+        ViewHolder(View view) {
+            super(view);
+            magnitudeTextView = view.findViewById(R.id.magnitude_text_view);
+            // Fetch the background from the TextView, which is a GradientDrawable.
+            magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
+            primaryLocationTextView = view.findViewById(R.id.primary_location_text_view);
+            locationOffsetTextView = view.findViewById(R.id.location_offset_text_view);
+            dateTextView = view.findViewById(R.id.date_text_view);
+            timeTextView = view.findViewById(R.id.time_text_view);
+
+            view.setOnClickListener((View v) -> {
+                int position = getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    mClickListener.onEarthquakeClick(getItem(position));
+                }
+            });
         }
+    }
 
-        TextView magnitudeTextView = currentView.findViewById(R.id.magnitude_text_view);
-
-        // Set the proper background color on the magnitude circle.
-        // Fetch the background from the TextView, which is a GradientDrawable.
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
-
-        // Get the appropriate background color based on the current earthquake magnitude
-        int magnitudeColor = getMagnitudeColor(currentEarthquake.getMagnitude());
-
-        // Set the color on the magnitude circle
-        magnitudeCircle.setColor(magnitudeColor);
-
-        DecimalFormat decimalFormatter = new DecimalFormat("#.#");
-        magnitudeTextView.setText(decimalFormatter.format(currentEarthquake.getMagnitude()));
+    /**
+     * Default EarthquakeAdapter constructor
+     *
+     * @param context       the context of the activity
+     * @param clickListener called when an earthquake is tapped
+     */
+    public EarthquakeAdapter(Context context, OnEarthquakeClickListener clickListener) {
+        super(DIFF_CALLBACK);
+        mInflater = LayoutInflater.from(context);
+        mClickListener = clickListener;
+        mMagnitudeColors = getMagnitudeColors(context);
+    }
 
-        TextView primaryLocationTextView = currentView.findViewById(R.id.primary_location_text_view);
-        TextView locationOffsetTextView = currentView.findViewById(R.id.location_offset_text_view);
-        String primaryLocation = currentEarthquake.getPlace();
-        String locationOffset;
-        if (primaryLocation.contains(" of ")) {
-            int startingIndex = primaryLocation.indexOf(" of ") + 3;
-            locationOffset = primaryLocation.substring(0, startingIndex);
-            primaryLocation = primaryLocation.substring(startingIndex + 1);
-        } else {
-            locationOffset = "Near the";
+    /**
+     * The magnitude circle colors, indexed by the magnitude bucket of a row
+     */
+    static int[] getMagnitudeColors(Context context) {
+        int[] magnitudeColorIds = {R.color.magnitude1, R.color.magnitude1, R.color.magnitude2,
+                R.color.magnitude3, R.color.magnitude4, R.color.magnitude5, R.color.magnitude6,
+                R.color.magnitude7, R.color.magnitude8, R.color.magnitude9, R.color.magnitude10plus};
+        int[] magnitudeColors = new int[EarthquakeRow.MAGNITUDE_BUCKETS];
+        for (int i = 0; i < magnitudeColorIds.length; i++) {
+            magnitudeColors[i] = ContextCompat.getColor(context, magnitudeColorIds[i]);
         }
+        return magnitudeColors;
+    }
 
-        primaryLocationTextView.setText(primaryLocation);
-        locationOffsetTextView.setText(locationOffset);
-
-        TextView dateTextView = currentView.findViewById(R.id.date_text_view);
-        // Formatting the date
-        Date dateObject = new Date(currentEarthquake.getDate());
-        SimpleDateFormat dateFormatter = new SimpleDateFormat("MMM d, yyyy");
-        String dateToDisplay = dateFormatter.format(dateObject);
-
-        dateTextView.setText(dateToDisplay);
-
-        TextView timeTextView = currentView.findViewById(R.id.time_text_view);
-        // Formatting the time
-        SimpleDateFormat timeFormatter = new SimpleDateFormat("HH:mm a");
-        String timeToDisplay = timeFormatter.format(dateObject);
-
-        timeTextView.setText(timeToDisplay);
-
-        return currentView;
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(mInflater.inflate(R.layout.list_item, parent, false));
     }
 
-    private int getMagnitudeColor(double magnitude) {
-        int magnitudeColorId;
-        int roundedMagnitude = (int) Math.floor(magnitude);
-
-        switch (roundedMagnitude) {
-            case 0:
-            case 1:
-                magnitudeColorId = R.color.magnitude1;
-                break;
-            case 2:
-                magnitudeColorId = R.color.magnitude2;
-                break;
-            case 3:
-                magnitudeColorId = R.color.magnitude3;
-                break;
-            case 4:
-                magnitudeColorId = R.color.magnitude4;
-                break;
-            case 5:
-                magnitudeColorId = R.color.magnitude5;
-                break;
-            case 6:
-                magnitudeColorId = R.color.magnitude6;
-                break;
-            case 7:
-                magnitudeColorId = R.color.magnitude7;
-                break;
-            case 8:
-                magnitudeColorId = R.color.magnitude8;
-                break;
-            case 9:
-                magnitudeColorId = R.color.magnitude9;
-                break;
-            default:
-                magnitudeColorId = R.color.magnitude10plus;
-                break;
+    /**
+     * Binds the earthquake at the given position to the row
+     *
+     * @param holder   the views of the row
+     * @param position the position of the earthquake to display
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long bindStart = Metrics.start();
+        EarthquakeEvent currentEarthquake = getItem(position);
 
+        // The loader builds rows in the background, this only catches events that skipped it
+        EarthquakeRow row = currentEarthquake.getRow();
+        if (row == null) {
+            EarthquakeFormatter.get().prepare(currentEarthquake);
+            row = currentEarthquake.getRow();
         }
 
-        return ContextCompat.getColor(getContext(), magnitudeColorId);
+        // Set the color on the magnitude circle based on the current earthquake magnitude
+        holder.magnitudeCircle.setColor(mMagnitudeColors[row.getMagnitudeBucket()]);
+        holder.magnitudeTextView.setText(row.getMagnitudeText());
+
+        holder.primaryLocationTextView.setText(row.getPrimaryLocation());
+        holder.locationOffsetTextView.setText(row.getLocationOffset());
+
+        holder.dateTextView.setText(row.getDateText());
+        holder.timeTextView.setText(row.getTimeText());
+        Metrics.stop(Metrics.Stage.BIND, bindStart);
     }
 }
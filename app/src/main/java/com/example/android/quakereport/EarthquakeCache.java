@@ -0,0 +1,282 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Size-bounded on-disk cache of parsed earthquake responses, keyed by the full query URL.
+ * Entries are stored in a compact binary format together with the HTTP validators needed to
+ * revalidate them, and the least recently used entries are evicted once the cache grows over
+ * its size limit.
+ */
+public class EarthquakeCache {
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EarthquakeCache.class.getSimpleName();
+
+    // Bumped whenever the layout of the cache files changes, older files are then ignored
+    private static final int FORMAT_VERSION = 3;
+
+    private static final String DIRECTORY_NAME = "earthquakes";
+    private static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private static EarthquakeCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /**
+     * A cached response: the parsed events and the validators the server sent with them.
+     */
+    public static class Entry {
+        private final List<EarthquakeEvent> mEvents;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mFetchedAt;
+
+        public Entry(List<EarthquakeEvent> events, String eTag, String lastModified, long fetchedAt) {
+            mEvents = events;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mFetchedAt = fetchedAt;
+        }
+
+        public List<EarthquakeEvent> getEvents() {
+            return mEvents;
+        }
+
+        public String getETag() {
+            return mETag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        public long getFetchedAt() {
+            return mFetchedAt;
+        }
+    }
+
+    /**
+     * Returns the cache shared by the whole app, stored in the application's cache directory
+     */
+    public static synchronized EarthquakeCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME);
+            sInstance = new EarthquakeCache(directory, DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param directory the directory holding the cache files
+     * @param maxBytes  the size the cache is trimmed down to after each write
+     */
+    public EarthquakeCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached entry for the given URL, or null if there is none
+     */
+    public synchronized Entry get(String url) {
+        Entry entry = read(url);
+        Metrics.increment(entry != null ? Metrics.Counter.CACHE_HITS : Metrics.Counter.CACHE_MISSES);
+        return entry;
+    }
+
+    /**
+     * Returns the entry stored under a key that isn't a query URL, such as the state of a
+     * poller, or null if there is none. Unlike {@link #get(String)}, it doesn't count as a
+     * cache hit or miss.
+     */
+    public synchronized Entry getState(String key) {
+        return read(key);
+    }
+
+    private Entry read(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION || !url.equals(in.readUTF())) {
+                return null;
+            }
+            String eTag = readOptionalString(in);
+            String lastModified = readOptionalString(in);
+            long fetchedAt = in.readLong();
+
+            int count = in.readInt();
+            List<EarthquakeEvent> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readOptionalString(in);
+                double magnitude = in.readDouble();
+                String place = in.readUTF();
+                long time = in.readLong();
+                long updated = in.readLong();
+                String eventUrl = in.readUTF();
+                EarthquakeEvent event = new EarthquakeEvent(id, magnitude, place, time, updated, eventUrl);
+                event.setLocation(in.readDouble(), in.readDouble(), in.readDouble());
+                events.add(event);
+            }
+
+            // Reading counts as a use for the LRU policy
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(events, eTag, lastModified, fetchedAt);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cached earthquakes, dropping them", e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores the entry for the given URL, replacing any previous one, then evicts the least
+     * recently used entries until the cache fits within its size limit
+     */
+    public synchronized void put(String url, Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the cache directory");
+            return;
+        }
+
+        File file = fileFor(url);
+        // Write to a temporary file first so a crash never leaves a half written entry behind
+        File temporaryFile = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(url);
+            writeOptionalString(out, entry.getETag());
+            writeOptionalString(out, entry.getLastModified());
+            out.writeLong(entry.getFetchedAt());
+
+            List<EarthquakeEvent> events = entry.getEvents();
+            out.writeInt(events.size());
+            for (EarthquakeEvent event : events) {
+                writeOptionalString(out, event.getId());
+                out.writeDouble(event.getMagnitude());
+                out.writeUTF(event.getPlace());
+                out.writeLong(event.getDate());
+                out.writeLong(event.getUpdated());
+                out.writeUTF(event.getURL());
+                out.writeDouble(event.getLatitude());
+                out.writeDouble(event.getLongitude());
+                out.writeDouble(event.getDepth());
+            }
+            out.close();
+            out = null;
+
+            if (!temporaryFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Unable to commit the cached earthquakes");
+                temporaryFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquakes cache", e);
+            temporaryFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+
+        trimToSize();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is within its size limit
+     */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxBytes) {
+            return;
+        }
+
+        // Oldest access first
+        Arrays.sort(files, (File a, File b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (size <= mMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(mDirectory, hash(url));
+    }
+
+    /**
+     * Hashes the URL into a file name, the URL itself is stored in the file to rule out collisions
+     */
+    private static String hash(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16));
+                name.append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing the cache file", e);
+        }
+    }
+}
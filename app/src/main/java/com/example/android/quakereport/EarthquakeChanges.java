@@ -0,0 +1,55 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What changed in a feed since it was last polled: the events that appeared, those USGS
+ * revised, and the ids of those it withdrew.
+ */
+public class EarthquakeChanges {
+    private final List<EarthquakeEvent> mAdded;
+    private final List<EarthquakeEvent> mUpdated;
+    private final List<String> mRemovedIds;
+
+    public EarthquakeChanges(List<EarthquakeEvent> added, List<EarthquakeEvent> updated, List<String> removedIds) {
+        mAdded = added;
+        mUpdated = updated;
+        mRemovedIds = removedIds;
+    }
+
+    public static EarthquakeChanges none() {
+        return new EarthquakeChanges(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    public List<EarthquakeEvent> getAdded() {
+        return mAdded;
+    }
+
+    public List<EarthquakeEvent> getUpdated() {
+        return mUpdated;
+    }
+
+    public List<String> getRemovedIds() {
+        return mRemovedIds;
+    }
+
+    public boolean isEmpty() {
+        return mAdded.isEmpty() && mUpdated.isEmpty() && mRemovedIds.isEmpty();
+    }
+
+    /**
+     * The changes as events to merge with {@link EarthquakeSync#merge}, removals being events
+     * with a deleted status
+     */
+    public List<EarthquakeEvent> toEvents() {
+        List<EarthquakeEvent> events = new ArrayList<>(mAdded.size() + mUpdated.size() + mRemovedIds.size());
+        events.addAll(mAdded);
+        events.addAll(mUpdated);
+        for (String id : mRemovedIds) {
+            events.add(new EarthquakeEvent(id, Double.NaN, "", 0, 0, "", true));
+        }
+        return events;
+    }
+}
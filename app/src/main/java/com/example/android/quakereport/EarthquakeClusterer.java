@@ -0,0 +1,423 @@
+package com.example.android.quakereport;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Clusters the epicenters of earthquakes for every zoom level of a map, so drawing a frame
+ * only takes the clusters in view, however many events there are.
+ *
+ * <p>Each zoom level is a grid of square cells in degrees, {@link #ZOOM_0_CELL_DEGREES} wide at
+ * zoom 0 and halving with each level, and a cluster is the events of one cell. The cells of a
+ * level split exactly into four cells of the next one, so the clusters form a tree: adding or
+ * removing an event only updates the one cluster holding it on each level, from the leaves at
+ * {@link #MAX_ZOOM} up. Clusters keep the count, the centroid and the strongest magnitude of
+ * their events.
+ *
+ * <p>Not thread-safe, meant to be confined to the main thread.
+ */
+public class EarthquakeClusterer {
+    /**
+     * The deepest level, cells about 2.5 km wide. Closer zooms show its clusters.
+     */
+    public static final int MAX_ZOOM = 10;
+    public static final double ZOOM_0_CELL_DEGREES = 22.5;
+
+    // The leaf grid, every coarser grid is a power of two smaller
+    private static final int LEAF_COLUMNS = (int) (360 / ZOOM_0_CELL_DEGREES) << MAX_ZOOM;
+    private static final int LEAF_ROWS = (int) (180 / ZOOM_0_CELL_DEGREES) << MAX_ZOOM;
+
+    // The version of each event clustered in, by id
+    private final Map<String, Point> mPoints = new HashMap<>();
+    // The clusters of each level, by cell
+    private final List<Map<Long, Cluster>> mLevels = new ArrayList<>(MAX_ZOOM + 1);
+
+    /**
+     * The events of one cell at one zoom level
+     */
+    public static final class Cluster {
+        private final int mZoom;
+        private final int mRow;
+        private final int mColumn;
+        private final Cluster mParent;
+        // The clusters of the next level inside this one by quadrant, or the events of a leaf
+        private final Cluster[] mChildren;
+        private final List<Point> mPoints;
+
+        private int mCount;
+        private double mLatitudeSum;
+        private double mLongitudeSum;
+        private double mMaxMagnitude = Double.NaN;
+        // The count as text, made once per count so drawing frames doesn't allocate
+        private String mLabel;
+
+        Cluster(int zoom, int row, int column, Cluster parent) {
+            mZoom = zoom;
+            mRow = row;
+            mColumn = column;
+            mParent = parent;
+            mChildren = zoom < MAX_ZOOM ? new Cluster[4] : null;
+            mPoints = zoom < MAX_ZOOM ? null : new ArrayList<Point>(1);
+        }
+
+        public int getZoom() {
+            return mZoom;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * The count as the text drawn on the cluster
+         */
+        public String getLabel() {
+            if (mLabel == null) {
+                mLabel = Integer.toString(mCount);
+            }
+            return mLabel;
+        }
+
+        /**
+         * The latitude of the centroid of the events
+         */
+        public double getLatitude() {
+            return mLatitudeSum / mCount;
+        }
+
+        /**
+         * The longitude of the centroid of the events. Cells never cross the antimeridian.
+         */
+        public double getLongitude() {
+            return mLongitudeSum / mCount;
+        }
+
+        /**
+         * The strongest magnitude of the events, NaN if none has one
+         */
+        public double getMaxMagnitude() {
+            return mMaxMagnitude;
+        }
+
+        /**
+         * The id of the only event of the cluster, or null if it has several
+         */
+        public String getEventId() {
+            if (mCount != 1) {
+                return null;
+            }
+            Cluster cluster = this;
+            while (cluster.mChildren != null) {
+                cluster = cluster.firstChild();
+            }
+            return cluster.mPoints.get(0).mId;
+        }
+
+        private void add(Point point) {
+            mCount++;
+            mLabel = null;
+            mLatitudeSum += point.mLatitude;
+            mLongitudeSum += point.mLongitude;
+            if (Double.isNaN(mMaxMagnitude) || point.mMagnitude > mMaxMagnitude) {
+                mMaxMagnitude = point.mMagnitude;
+            }
+        }
+
+        private void remove(Point point) {
+            mCount--;
+            mLabel = null;
+            mLatitudeSum -= point.mLatitude;
+            mLongitudeSum -= point.mLongitude;
+            if (mCount == 0) {
+                mLatitudeSum = 0;
+                mLongitudeSum = 0;
+            }
+            if (!(point.mMagnitude < mMaxMagnitude)) {
+                // It may have been the strongest, ask the children, at most four of them
+                mMaxMagnitude = Double.NaN;
+                if (mChildren != null) {
+                    for (Cluster child : mChildren) {
+                        if (child != null) {
+                            mMaxMagnitude = max(mMaxMagnitude, child.mMaxMagnitude);
+                        }
+                    }
+                } else {
+                    for (Point member : mPoints) {
+                        mMaxMagnitude = max(mMaxMagnitude, member.mMagnitude);
+                    }
+                }
+            }
+        }
+
+        private Cluster firstChild() {
+            for (Cluster child : mChildren) {
+                if (child != null) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * The slot of a child among the four of its parent
+         */
+        private int quadrant() {
+            return (mRow & 1) << 1 | (mColumn & 1);
+        }
+    }
+
+    /**
+     * The clustered fields of an event
+     */
+    private static final class Point {
+        final String mId;
+        final double mLatitude;
+        final double mLongitude;
+        final double mMagnitude;
+        final Cluster mLeaf;
+
+        Point(String id, double latitude, double longitude, double magnitude, Cluster leaf) {
+            mId = id;
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mMagnitude = magnitude;
+            mLeaf = leaf;
+        }
+    }
+
+    public EarthquakeClusterer() {
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            mLevels.add(new HashMap<Long, Cluster>());
+        }
+    }
+
+    /**
+     * Makes the clusters cover exactly the events, only moving the ones that were added,
+     * removed or relocated since the last call. Deleted events and events without
+     * coordinates are left out.
+     */
+    public void sync(List<EarthquakeEvent> events) {
+        Set<String> ids = new HashSet<>(events.size() * 2);
+        for (EarthquakeEvent event : events) {
+            if (event.getId() != null && !event.isDeleted()) {
+                ids.add(event.getId());
+            }
+            put(event);
+        }
+
+        Iterator<Map.Entry<String, Point>> iterator = mPoints.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Point> entry = iterator.next();
+            if (!ids.contains(entry.getKey())) {
+                unlink(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Clusters the event in, replacing its previous version. A deleted event is removed.
+     */
+    public void put(EarthquakeEvent event) {
+        put(event.getId(), event.getLatitude(), event.getLongitude(), event.getMagnitude(), event.isDeleted());
+    }
+
+    /**
+     * Clusters an event in from its raw fields, so bulk loaders don't need an
+     * {@link EarthquakeEvent} per event
+     */
+    public void put(String id, double latitude, double longitude, double magnitude, boolean deleted) {
+        if (id == null) {
+            return;
+        }
+        if (deleted || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            remove(id);
+            return;
+        }
+        Point previous = mPoints.get(id);
+        if (previous != null) {
+            if (previous.mLatitude == latitude && previous.mLongitude == longitude
+                    && Double.compare(previous.mMagnitude, magnitude) == 0) {
+                return;
+            }
+            unlink(previous);
+        }
+
+        int row = rowOf(latitude);
+        int column = columnOf(longitude);
+        Point point = new Point(id, latitude, longitude, magnitude, leafFor(row, column));
+        mPoints.put(id, point);
+        point.mLeaf.mPoints.add(point);
+        for (Cluster cluster = point.mLeaf; cluster != null; cluster = cluster.mParent) {
+            cluster.add(point);
+        }
+    }
+
+    public void remove(String id) {
+        Point previous = mPoints.remove(id);
+        if (previous != null) {
+            unlink(previous);
+        }
+    }
+
+    /**
+     * The number of events clustered in
+     */
+    public int size() {
+        return mPoints.size();
+    }
+
+    /**
+     * The number of clusters at the zoom level
+     */
+    public int getClusterCount(int zoom) {
+        return mLevels.get(clampZoom(zoom)).size();
+    }
+
+    /**
+     * Adds the clusters of the zoom level whose cells intersect the box to the list, which is
+     * cleared first so callers can reuse it from frame to frame. Zooms past
+     * {@link #MAX_ZOOM} get its clusters. A west longitude greater than the east one means the
+     * box crosses the antimeridian.
+     */
+    public void getClusters(int zoom, double south, double west, double north, double east,
+                            @NonNull List<Cluster> clusters) {
+        clusters.clear();
+        zoom = clampZoom(zoom);
+        if (west > east) {
+            collect(zoom, south, west, north, 180, clusters);
+            collect(zoom, south, -180, north, east, clusters);
+        } else {
+            collect(zoom, south, west, north, east, clusters);
+        }
+    }
+
+    /**
+     * The deepest zoom level whose cells are at least the given size on screen
+     *
+     * @param pixelsPerDegree the scale of the map
+     * @param cellPixels      the smallest distance in pixels between the centers of two clusters
+     */
+    public static int zoomFor(double pixelsPerDegree, double cellPixels) {
+        double cellsAtZoom0 = ZOOM_0_CELL_DEGREES * pixelsPerDegree / cellPixels;
+        if (cellsAtZoom0 < 2) {
+            return 0;
+        }
+        return (int) Math.floor(Math.log(cellsAtZoom0) / Math.log(2));
+    }
+
+    /**
+     * The width of the cells at the zoom level, in degrees
+     */
+    public static double cellDegreesAt(int zoom) {
+        return ZOOM_0_CELL_DEGREES / (1 << clampZoom(zoom));
+    }
+
+    private void collect(int zoom, double south, double west, double north, double east, List<Cluster> clusters) {
+        Map<Long, Cluster> level = mLevels.get(zoom);
+        int shift = MAX_ZOOM - zoom;
+        int firstRow = rowOf(north) >> shift;
+        int lastRow = rowOf(south) >> shift;
+        int firstColumn = columnOf(west) >> shift;
+        int lastColumn = columnOf(east) >> shift;
+        long cells = (long) (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1);
+        if (cells > level.size()) {
+            // Fewer clusters than cells in view, looking through them all is cheaper
+            for (Cluster cluster : level.values()) {
+                if (cluster.mRow >= firstRow && cluster.mRow <= lastRow
+                        && cluster.mColumn >= firstColumn && cluster.mColumn <= lastColumn) {
+                    clusters.add(cluster);
+                }
+            }
+            return;
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Cluster cluster = level.get(keyOf(row, column));
+                if (cluster != null) {
+                    clusters.add(cluster);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the leaf cluster of the cell, creating it and its missing ancestors
+     */
+    private Cluster leafFor(int leafRow, int leafColumn) {
+        // An existing cluster has all of its ancestors, only look up as far as needed
+        int zoom = MAX_ZOOM;
+        Cluster existing = null;
+        for (; zoom >= 0; zoom--) {
+            int shift = MAX_ZOOM - zoom;
+            existing = mLevels.get(zoom).get(keyOf(leafRow >> shift, leafColumn >> shift));
+            if (existing != null) {
+                break;
+            }
+        }
+        if (zoom == MAX_ZOOM) {
+            return existing;
+        }
+
+        Cluster parent = existing;
+        for (zoom++; zoom <= MAX_ZOOM; zoom++) {
+            int shift = MAX_ZOOM - zoom;
+            Cluster cluster = new Cluster(zoom, leafRow >> shift, leafColumn >> shift, parent);
+            mLevels.get(zoom).put(keyOf(cluster.mRow, cluster.mColumn), cluster);
+            if (parent != null) {
+                parent.mChildren[cluster.quadrant()] = cluster;
+            }
+            parent = cluster;
+        }
+        return parent;
+    }
+
+    /**
+     * Takes the point out of its clusters, dropping the ones left empty
+     */
+    private void unlink(Point point) {
+        point.mLeaf.mPoints.remove(point);
+        // Children first, so a parent recomputing its maximum sees them up to date
+        for (Cluster cluster = point.mLeaf; cluster != null; cluster = cluster.mParent) {
+            cluster.remove(point);
+            if (cluster.mCount == 0) {
+                mLevels.get(cluster.mZoom).remove(keyOf(cluster.mRow, cluster.mColumn));
+                if (cluster.mParent != null) {
+                    cluster.mParent.mChildren[cluster.quadrant()] = null;
+                }
+            }
+        }
+    }
+
+    private static int rowOf(double latitude) {
+        int row = (int) ((90 - latitude) / 180 * LEAF_ROWS);
+        return Math.max(0, Math.min(LEAF_ROWS - 1, row));
+    }
+
+    private static int columnOf(double longitude) {
+        int column = (int) ((longitude + 180) / 360 * LEAF_COLUMNS);
+        return Math.max(0, Math.min(LEAF_COLUMNS - 1, column));
+    }
+
+    private static long keyOf(int row, int column) {
+        return (long) row << 32 | column;
+    }
+
+    private static int clampZoom(int zoom) {
+        return Math.max(0, Math.min(MAX_ZOOM, zoom));
+    }
+
+    private static double max(double a, double b) {
+        if (Double.isNaN(a)) {
+            return b;
+        }
+        return Double.isNaN(b) || a >= b ? a : b;
+    }
+}
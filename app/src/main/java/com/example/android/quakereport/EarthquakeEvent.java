@@ -2,16 +2,52 @@ package com.example.android.quakereport;
 
 public class EarthquakeEvent {
     // Properties
+    String mId;
     double mMagnitude;
     String mPlace;
     long mDate;
+    long mUpdated;
     String mURL;
+    boolean mDeleted;
+    double mLatitude = Double.NaN;
+    double mLongitude = Double.NaN;
+    double mDepth = Double.NaN;
 
-    public EarthquakeEvent(double mag, String place, long date, String url) {
+    // Display model, built once by EarthquakeFormatter
+    private volatile EarthquakeRow mRow;
+
+    public EarthquakeEvent(String id, double mag, String place, long date, long updated, String url) {
+        this(id, mag, place, date, updated, url, false);
+    }
+
+    public EarthquakeEvent(String id, double mag, String place, long date, long updated, String url, boolean deleted) {
+        mId = id;
         mMagnitude = mag;
         mPlace = place;
         mDate = date;
+        mUpdated = updated;
         mURL = url;
+        mDeleted = deleted;
+    }
+
+    /**
+     * Sets the hypocenter of the earthquake
+     *
+     * @param latitude  in degrees
+     * @param longitude in degrees
+     * @param depth     in kilometers
+     */
+    public void setLocation(double latitude, double longitude, double depth) {
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDepth = depth;
+    }
+
+    /**
+     * The USGS event id, stable across updates of the same earthquake
+     */
+    public String getId() {
+        return mId;
     }
 
     public double getMagnitude() {
@@ -26,7 +62,56 @@ public class EarthquakeEvent {
         return mDate;
     }
 
+    /**
+     * The last time USGS updated this event, in milliseconds since the epoch
+     */
+    public long getUpdated() {
+        return mUpdated;
+    }
+
     public String getURL() {
         return mURL;
     }
+
+    /**
+     * The latitude in degrees, NaN if unknown
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * The longitude in degrees, NaN if unknown
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * The depth in kilometers, NaN if unknown
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * The formatted row of the event, null until {@link EarthquakeFormatter} prepared it
+     */
+    public EarthquakeRow getRow() {
+        return mRow;
+    }
+
+    /**
+     * Sets the formatted row, or clears it with null so it gets formatted again
+     */
+    void setRow(EarthquakeRow row) {
+        mRow = row;
+    }
+
+    /**
+     * Whether USGS reported this event as deleted, only the case in delta sync responses
+     */
+    public boolean isDeleted() {
+        return mDeleted;
+    }
 }
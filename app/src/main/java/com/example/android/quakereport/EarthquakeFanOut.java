@@ -0,0 +1,168 @@
+package com.example.android.quakereport;
+
+import android.support.annotation.MainThread;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Loads several queries at once, such as a few regions or magnitude bands, and merges their
+ * events into one list.
+ *
+ * <p>Every query gets its own {@link EarthquakeLoader}, so they all run side by side on the
+ * shared pool and the whole set takes about as long as its slowest query. The merged list is
+ * republished each time a query brings events, cached or synced, so the first results show as
+ * soon as any query has them. Events matched by more than one query are listed once.
+ */
+public class EarthquakeFanOut {
+    private final EarthquakeSync mSync;
+    private final List<EarthquakeLoader> mLoaders = new ArrayList<>();
+
+    // Only touched on the main thread. Replaced on every load so late results of the
+    // previous set can't mix in.
+    private Batch mBatch;
+
+    /**
+     * Receives the merged results on the main thread
+     */
+    public interface Listener {
+        /**
+         * Called each time a query brings events, with the events of every query so far
+         */
+        void onEvents(List<EarthquakeEvent> events);
+
+        /**
+         * Called once every query is synced, or failed to, with the error of a failed one
+         * or null if they all succeeded
+         */
+        void onComplete(EarthquakeResult.Error error);
+    }
+
+    public EarthquakeFanOut(EarthquakeSync sync) {
+        mSync = sync;
+    }
+
+    /**
+     * Loads every query, superseding the queries previously loaded. The queries should share
+     * their order, which the merged list follows.
+     */
+    @MainThread
+    public void load(List<EarthquakeQuery> queries, Listener listener) {
+        cancel();
+        while (mLoaders.size() < queries.size()) {
+            mLoaders.add(new EarthquakeLoader(mSync));
+        }
+
+        Batch batch = new Batch(queries.size(), queries.get(0).getComparator(), listener);
+        mBatch = batch;
+        for (int i = 0; i < queries.size(); i++) {
+            mLoaders.get(i).load(queries.get(i), batch.listenerFor(i));
+        }
+    }
+
+    /**
+     * Cancels every query, the listener won't be called anymore
+     */
+    @MainThread
+    public void cancel() {
+        mBatch = null;
+        for (EarthquakeLoader loader : mLoaders) {
+            loader.cancel();
+        }
+    }
+
+    /**
+     * Merges lists sorted by the comparator into one sorted list, keeping the first of the
+     * events sharing an id
+     */
+    static List<EarthquakeEvent> merge(List<List<EarthquakeEvent>> lists, Comparator<EarthquakeEvent> comparator) {
+        long mergeStart = Metrics.start();
+        int size = 0;
+        for (List<EarthquakeEvent> list : lists) {
+            size += list.size();
+        }
+
+        // Heads of the lists, as the list index and the position in it
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()), (int[] a, int[] b) ->
+                comparator.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+
+        List<EarthquakeEvent> merged = new ArrayList<>(size);
+        Set<String> ids = new HashSet<>();
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<EarthquakeEvent> list = lists.get(head[0]);
+            EarthquakeEvent event = list.get(head[1]);
+            if (ids.add(event.getId())) {
+                merged.add(event);
+            }
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        Metrics.stop(Metrics.Stage.DIFF, mergeStart);
+        return merged;
+    }
+
+    /**
+     * The results of one set of queries as they come in
+     */
+    private class Batch {
+        private final List<List<EarthquakeEvent>> mEvents = new ArrayList<>();
+        private final Comparator<EarthquakeEvent> mComparator;
+        private final Listener mListener;
+        private int mPending;
+        private EarthquakeResult.Error mError;
+
+        Batch(int size, Comparator<EarthquakeEvent> comparator, Listener listener) {
+            for (int i = 0; i < size; i++) {
+                mEvents.add(new ArrayList<>());
+            }
+            mPending = size;
+            mComparator = comparator;
+            mListener = listener;
+        }
+
+        EarthquakeLoader.Listener listenerFor(int index) {
+            return new EarthquakeLoader.Listener() {
+                @Override
+                public void onCachedEvents(List<EarthquakeEvent> events) {
+                    onEvents(index, events);
+                }
+
+                @Override
+                public void onResult(EarthquakeResult result) {
+                    if (mBatch != Batch.this) {
+                        return;
+                    }
+                    if (result.getError() != null) {
+                        mError = result.getError();
+                    }
+                    // A failed query keeps showing its cached events, if any
+                    if (result.getEvents() != null && result.getEvents() != mEvents.get(index)) {
+                        onEvents(index, result.getEvents());
+                    }
+                    if (--mPending == 0) {
+                        mListener.onComplete(mError);
+                    }
+                }
+            };
+        }
+
+        private void onEvents(int index, List<EarthquakeEvent> events) {
+            if (mBatch != Batch.this || events == null) {
+                return;
+            }
+            mEvents.set(index, events);
+            mListener.onEvents(merge(mEvents, mComparator));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Fetches from USGS through {@link QueryUtils}, retrying transient failures with jittered
+ * exponential backoff, and failing fast through a circuit breaker shared by the whole app while
+ * USGS keeps failing.
+ */
+public class EarthquakeFetcher {
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EarthquakeFetcher.class.getSimpleName();
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_DELAY_MILLIS = 1000;
+    private static final long MAX_DELAY_MILLIS = 8000;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // Every query goes to the same host, so they share one breaker
+    private static final CircuitBreaker sBreaker = new CircuitBreaker(3, 30 * 1000, 10 * 60 * 1000);
+
+    private final Random mRandom = new Random();
+
+    /**
+     * Thrown instead of making a request while the circuit is open
+     */
+    public static class CircuitOpenException extends IOException {
+        CircuitOpenException() {
+            super("USGS is failing, not sending requests for now");
+        }
+    }
+
+    /**
+     * Fetches the URL, revalidating the cached response if there is one.
+     *
+     * @return the fresh response, or the cached one if the server answered 304 Not Modified
+     * @throws IOException the last failure once retries are exhausted, a
+     *                     {@link CircuitOpenException} if no request was made, or an
+     *                     {@link InterruptedIOException} if the thread was interrupted. An
+     *                     interrupted request isn't retried and doesn't count for or against
+     *                     the circuit breaker.
+     */
+    public EarthquakeCache.Entry fetch(String url, EarthquakeCache.Entry cached) throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Cancelled before sending the request");
+        }
+        // The breaker hears once per fetch, however many attempts it takes, so one failed
+        // load doesn't open the circuit on its own. A trial keeps its slot through its retries.
+        if (!sBreaker.allowRequest()) {
+            throw new CircuitOpenException();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            IOException failure;
+            try {
+                EarthquakeCache.Entry response = QueryUtils.fetchEarthquakeEvents(url, cached);
+                sBreaker.onSuccess();
+                return response;
+            } catch (IOException e) {
+                failure = e;
+                if (isCancellation(e)) {
+                    // Says nothing about USGS, and there is no one left to retry for
+                    sBreaker.onAbandoned();
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                // Every fetch let through must be reported, or a trial would hold the circuit open
+                sBreaker.onFailure();
+                throw e;
+            }
+
+            long delayMillis = getRetryDelay(failure, attempt);
+            if (attempt >= MAX_ATTEMPTS || !isRetryable(failure) || delayMillis < 0) {
+                if (isRetryable(failure)) {
+                    sBreaker.onFailure();
+                } else {
+                    // USGS answered, it is the request that is wrong
+                    sBreaker.onSuccess();
+                }
+                throw failure;
+            }
+            Log.w(LOG_TAG, "Attempt " + attempt + " failed, retrying in " + delayMillis + " ms", failure);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                // The load was cancelled, give up quietly
+                Thread.currentThread().interrupt();
+                sBreaker.onAbandoned();
+                throw new InterruptedIOException("Cancelled while waiting to retry");
+            }
+        }
+    }
+
+    /**
+     * Maps a failure of {@link #fetch(String, EarthquakeCache.Entry)} to the error reported to
+     * the UI
+     */
+    public static EarthquakeResult.Error errorOf(IOException failure) {
+        if (failure instanceof CircuitOpenException) {
+            return EarthquakeResult.Error.UNAVAILABLE;
+        }
+        if (failure instanceof HttpStatusException) {
+            return isRetryable(failure) ? EarthquakeResult.Error.SERVER : EarthquakeResult.Error.REQUEST;
+        }
+        if (failure instanceof MalformedURLException || failure instanceof MalformedResponseException) {
+            return EarthquakeResult.Error.REQUEST;
+        }
+        return EarthquakeResult.Error.NETWORK;
+    }
+
+    /**
+     * Whether the request failed because its thread was interrupted, as cancelled loads and
+     * stopped jobs are. Timeouts are interrupted I/O too, but they are network failures.
+     */
+    private static boolean isCancellation(IOException failure) {
+        return Thread.currentThread().isInterrupted() || (failure instanceof InterruptedIOException
+                && !(failure instanceof SocketTimeoutException));
+    }
+
+    /**
+     * Server errors, rate limiting and network failures may go away on their own, the other
+     * failures, bad URLs and responses included, won't
+     */
+    private static boolean isRetryable(IOException failure) {
+        if (failure instanceof HttpStatusException) {
+            int code = ((HttpStatusException) failure).getResponseCode();
+            return code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS;
+        }
+        return !(failure instanceof MalformedURLException) && !(failure instanceof MalformedResponseException)
+                && !(failure instanceof CircuitOpenException);
+    }
+
+    /**
+     * Picks a random delay up to the exponential backoff of the attempt ("full jitter"), so
+     * clients that failed together don't all retry together. Honors a Retry-After from the
+     * server, returning -1 if it asks to wait longer than we are willing to.
+     */
+    private long getRetryDelay(IOException failure, int attempt) {
+        if (failure instanceof HttpStatusException) {
+            long retryAfterMillis = ((HttpStatusException) failure).getRetryAfterMillis();
+            if (retryAfterMillis > MAX_DELAY_MILLIS) {
+                return -1;
+            }
+            if (retryAfterMillis >= 0) {
+                return retryAfterMillis;
+            }
+        }
+        long backoffMillis = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (attempt - 1));
+        return (long) (mRandom.nextDouble() * backoffMillis);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Turns earthquake data into the {@link EarthquakeRow rows} shown in the list. The formatters
+ * aren't thread-safe, so each thread gets its own instance through {@link #get()} and reuses it
+ * for every event.
+ */
+public final class EarthquakeFormatter {
+    private static final String LOCATION_SEPARATOR = " of ";
+
+    private static final ThreadLocal<EarthquakeFormatter> sFormatters = new ThreadLocal<EarthquakeFormatter>() {
+        @Override
+        protected EarthquakeFormatter initialValue() {
+            return new EarthquakeFormatter();
+        }
+    };
+
+    private final DecimalFormat mMagnitudeFormatter = new DecimalFormat("#.#");
+    private final SimpleDateFormat mDateFormatter = new SimpleDateFormat("MMM d, yyyy");
+    private final SimpleDateFormat mTimeFormatter = new SimpleDateFormat("HH:mm a");
+    private final Date mDate = new Date();
+
+    private EarthquakeFormatter() {
+    }
+
+    /**
+     * Returns the formatter of the calling thread
+     */
+    public static EarthquakeFormatter get() {
+        return sFormatters.get();
+    }
+
+    /**
+     * Builds the rows of the events that don't have one yet. Meant to run on the loading
+     * thread so binding a row only has to set text.
+     */
+    public void prepare(List<EarthquakeEvent> events) {
+        for (EarthquakeEvent event : events) {
+            prepare(event);
+        }
+    }
+
+    public void prepare(EarthquakeEvent event) {
+        if (event.getRow() == null) {
+            event.setRow(format(event));
+        }
+    }
+
+    /**
+     * Builds the row of the event
+     */
+    public EarthquakeRow format(EarthquakeEvent event) {
+        String primaryLocation = event.getPlace();
+        String locationOffset;
+        int separatorIndex = primaryLocation.indexOf(LOCATION_SEPARATOR);
+        if (separatorIndex >= 0) {
+            int startingIndex = separatorIndex + LOCATION_SEPARATOR.length() - 1;
+            locationOffset = primaryLocation.substring(0, startingIndex);
+            primaryLocation = primaryLocation.substring(startingIndex + 1);
+        } else {
+            locationOffset = "Near the";
+        }
+
+        mDate.setTime(event.getDate());
+        return new EarthquakeRow(mMagnitudeFormatter.format(event.getMagnitude()),
+                EarthquakeRow.magnitudeBucketOf(event.getMagnitude()),
+                locationOffset, primaryLocation, mDateFormatter.format(mDate), mTimeFormatter.format(mDate));
+    }
+}
@@ -0,0 +1,585 @@
+package com.example.android.quakereport;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports a local catalog of earthquakes, as exported by USGS in CSV or GeoJSON, into an
+ * {@link EarthquakeStore}.
+ *
+ * <p>The file is memory-mapped and cut into chunks that are parsed in parallel, each into a
+ * store of its own. Chunks are appended to the target store in file order as soon as they and
+ * the ones before them are parsed, so the first events can be browsed while the rest of a
+ * multi-million event catalog is still being read.
+ *
+ * <p>An event belongs to the chunk where its record starts: a chunk skips the partial record
+ * at its start and reads on past its end to finish its last one. CSV records are lines, and
+ * GeoJSON records start with the {@code {"type":"Feature",} of each feature, as in the
+ * compact output of USGS.
+ */
+public class EarthquakeImporter {
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EarthquakeImporter.class.getSimpleName();
+
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+    // How far a chunk may read past its end to finish its last record
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final EarthquakeStore mStore;
+    private final int mThreads;
+    private final int mChunkBytes;
+
+    /**
+     * Receives the progress of an import on the importing thread
+     */
+    public interface Listener {
+        /**
+         * Called each time parsed events were appended to the store
+         *
+         * @param bytesRead  how much of the file is imported
+         * @param totalBytes the size of the file
+         * @param eventCount the number of events in the store
+         */
+        void onProgress(long bytesRead, long totalBytes, int eventCount);
+    }
+
+    /**
+     * @param store   the store the events are appended to. It is locked while a chunk is
+     *                appended, threads reading it during the import must synchronize on it.
+     * @param threads the number of chunks parsed at once
+     */
+    public EarthquakeImporter(EarthquakeStore store, int threads) {
+        this(store, threads, CHUNK_BYTES);
+    }
+
+    /**
+     * For tests, chunks of any size so small files cross chunk boundaries
+     */
+    EarthquakeImporter(EarthquakeStore store, int threads, int chunkBytes) {
+        mStore = store;
+        mThreads = Math.max(1, threads);
+        mChunkBytes = chunkBytes;
+    }
+
+    /**
+     * Imports every event of the file, blocking until done, and returns how many there were.
+     * Deleted events and malformed CSV rows are skipped.
+     *
+     * @throws InterruptedIOException if the thread is interrupted, the events appended so far
+     *                                stay in the store
+     */
+    public int importFile(FileChannel channel, Listener listener) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        long size = channel.size();
+        Format format = Format.detect(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_RECORD_BYTES)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        int imported = 0;
+        try {
+            List<Future<EarthquakeStore>> chunks = new ArrayList<>();
+            List<Long> chunkEnds = new ArrayList<>();
+            for (long start = format.getDataStart(); start < size; start += mChunkBytes) {
+                long chunkStart = start;
+                long chunkEnd = Math.min(size, start + mChunkBytes);
+                chunks.add(executor.submit(() -> parseChunk(channel, format, chunkStart, chunkEnd, size)));
+                chunkEnds.add(chunkEnd);
+            }
+
+            for (int i = 0; i < chunks.size(); i++) {
+                EarthquakeStore chunk = chunks.get(i).get();
+                int eventCount;
+                synchronized (mStore) {
+                    mStore.addAll(chunk);
+                    eventCount = mStore.size();
+                }
+                imported += chunk.size();
+                listener.onProgress(chunkEnds.get(i), size, eventCount);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Import interrupted after " + imported + " events");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Problem parsing the catalog", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long millis = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        Log.i(LOG_TAG, String.format(Locale.US, "Imported %d events from %d MB in %d ms, %.0f events/s",
+                imported, size / (1024 * 1024), millis, imported * 1000.0 / millis));
+        return imported;
+    }
+
+    /**
+     * Maps the chunk, with the byte before it and the room to finish its last record, and
+     * parses the records starting in it
+     */
+    private static EarthquakeStore parseChunk(FileChannel channel, Format format, long start, long end, long size)
+            throws IOException {
+        long windowStart = start > format.getDataStart() ? start - 1 : start;
+        long windowEnd = Math.min(size, end + MAX_RECORD_BYTES);
+        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+        int from = (int) (start - windowStart);
+        return format.parse(window, from, (int) (end - windowStart), windowEnd == size);
+    }
+
+    /**
+     * How records are found and parsed in one file format
+     */
+    private abstract static class Format {
+        /**
+         * Picks the format from the start of the file: GeoJSON if it starts with an object,
+         * CSV otherwise
+         */
+        static Format detect(ByteBuffer head) throws IOException {
+            int position = skipByteOrderMark(head, 0);
+            while (position < head.limit() && Character.isWhitespace(head.get(position))) {
+                position++;
+            }
+            if (position < head.limit() && head.get(position) == '{') {
+                return new GeoJsonFormat();
+            }
+            return new CsvFormat(head, position);
+        }
+
+        /**
+         * The offset of the first record, past any header
+         */
+        abstract long getDataStart();
+
+        /**
+         * Parses the records starting between from and end in the window. The byte before
+         * from is part of the window unless from is the data start.
+         *
+         * @param reachesEnd whether the window reaches the end of the file
+         */
+        abstract EarthquakeStore parse(ByteBuffer window, int from, int end, boolean reachesEnd) throws IOException;
+    }
+
+    /**
+     * The CSV of the USGS catalog search: a header naming the columns, then one event per
+     * line. Only the columns used are read, wherever they are.
+     */
+    private static class CsvFormat extends Format {
+        private static final String[] COLUMNS = {"time", "latitude", "longitude", "depth", "mag", "id",
+                "updated", "place", "status"};
+        private static final int TIME = 0;
+        private static final int LATITUDE = 1;
+        private static final int LONGITUDE = 2;
+        private static final int DEPTH = 3;
+        private static final int MAGNITUDE = 4;
+        private static final int ID = 5;
+        private static final int UPDATED = 6;
+        private static final int PLACE = 7;
+        private static final int STATUS = 8;
+
+        private static final int ESTIMATED_BYTES_PER_ROW = 160;
+
+        private final long mDataStart;
+        // For each column of the file, the index in COLUMNS it holds, or -1 if it isn't read
+        private final int[] mFieldColumns;
+
+        CsvFormat(ByteBuffer head, int start) throws IOException {
+            int lineEnd = indexOf(head, (byte) '\n', start, head.limit());
+            if (lineEnd < 0) {
+                throw new IOException("No CSV header found");
+            }
+            String[] names = new String(bytesOf(head, start, lineEnd), UTF_8).trim().split(",");
+            mFieldColumns = new int[names.length];
+            boolean[] found = new boolean[COLUMNS.length];
+            for (int i = 0; i < names.length; i++) {
+                mFieldColumns[i] = -1;
+                String name = names[i].trim().replace("\"", "");
+                for (int column = 0; column < COLUMNS.length; column++) {
+                    if (COLUMNS[column].equals(name)) {
+                        mFieldColumns[i] = column;
+                        found[column] = true;
+                    }
+                }
+            }
+            for (int column = 0; column < STATUS; column++) {
+                if (!found[column]) {
+                    throw new IOException("The CSV has no " + COLUMNS[column] + " column");
+                }
+            }
+            mDataStart = lineEnd + 1;
+        }
+
+        @Override
+        long getDataStart() {
+            return mDataStart;
+        }
+
+        @Override
+        EarthquakeStore parse(ByteBuffer window, int from, int end, boolean reachesEnd) throws IOException {
+            int limit = window.limit();
+            int position = from;
+            if (from > 0 && window.get(from - 1) != '\n') {
+                // The line started in the previous chunk, which reads it
+                int lineEnd = indexOf(window, (byte) '\n', from, Math.min(end, limit));
+                position = lineEnd < 0 ? end : lineEnd + 1;
+            }
+
+            EarthquakeStore store = new EarthquakeStore((end - from) / ESTIMATED_BYTES_PER_ROW);
+            int[] fieldStarts = new int[COLUMNS.length];
+            int[] fieldEnds = new int[COLUMNS.length];
+            byte[] scratch = new byte[256];
+            int skipped = 0;
+            while (position < end && position < limit) {
+                int lineEnd = indexOf(window, (byte) '\n', position, limit);
+                if (lineEnd < 0) {
+                    if (!reachesEnd) {
+                        throw new IOException("CSV line longer than " + MAX_RECORD_BYTES + " bytes");
+                    }
+                    lineEnd = limit;
+                }
+                int contentEnd = lineEnd > position && window.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (contentEnd > position) {
+                    try {
+                        if (splitFields(window, position, contentEnd, fieldStarts, fieldEnds)) {
+                            addRow(store, window, fieldStarts, fieldEnds, scratch);
+                        } else {
+                            skipped++;
+                        }
+                    } catch (IllegalArgumentException e) {
+                        skipped++;
+                    }
+                }
+                position = lineEnd + 1;
+            }
+            if (skipped > 0) {
+                Log.w(LOG_TAG, "Skipped " + skipped + " malformed CSV rows");
+            }
+            return store;
+        }
+
+        /**
+         * Finds the bounds of the columns read on the line, quotes included. Returns false if
+         * a column is missing.
+         */
+        private boolean splitFields(ByteBuffer window, int start, int end, int[] fieldStarts, int[] fieldEnds) {
+            for (int column = 0; column < COLUMNS.length; column++) {
+                fieldStarts[column] = -1;
+            }
+            int field = 0;
+            int fieldStart = start;
+            boolean quoted = false;
+            for (int i = start; i <= end; i++) {
+                byte b = i < end ? window.get(i) : (byte) ',';
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == ',' && !quoted) {
+                    if (field < mFieldColumns.length && mFieldColumns[field] >= 0) {
+                        fieldStarts[mFieldColumns[field]] = fieldStart;
+                        fieldEnds[mFieldColumns[field]] = i;
+                    }
+                    field++;
+                    fieldStart = i + 1;
+                }
+            }
+            for (int column = 0; column < STATUS; column++) {
+                if (fieldStarts[column] < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void addRow(EarthquakeStore store, ByteBuffer window, int[] starts, int[] ends,
+                                   byte[] scratch) {
+            if (starts[STATUS] >= 0 && "deleted".equals(readString(window, starts[STATUS], ends[STATUS], scratch))) {
+                return;
+            }
+            // The URL of a catalog event is its event page, which the store derives from the id
+            store.add(readString(window, starts[ID], ends[ID], scratch),
+                    parseDecimal(window, starts[MAGNITUDE], ends[MAGNITUDE]),
+                    readString(window, starts[PLACE], ends[PLACE], scratch),
+                    parseIsoTime(window, starts[TIME], ends[TIME]),
+                    parseIsoTime(window, starts[UPDATED], ends[UPDATED]),
+                    null,
+                    parseDecimal(window, starts[LATITUDE], ends[LATITUDE]),
+                    parseDecimal(window, starts[LONGITUDE], ends[LONGITUDE]),
+                    parseDecimal(window, starts[DEPTH], ends[DEPTH]));
+        }
+
+        /**
+         * Decodes a UTF-8 field, unquoting it
+         */
+        private static String readString(ByteBuffer window, int start, int end, byte[] scratch) {
+            boolean quoted = end - start >= 2 && window.get(start) == '"' && window.get(end - 1) == '"';
+            if (quoted) {
+                start++;
+                end--;
+            }
+            if (end - start > scratch.length) {
+                scratch = new byte[end - start];
+            }
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                byte b = window.get(i);
+                scratch[length++] = b;
+                // A doubled quote stands for one quote
+                if (quoted && b == '"' && i + 1 < end && window.get(i + 1) == '"') {
+                    i++;
+                }
+            }
+            return new String(scratch, 0, length, UTF_8);
+        }
+
+        /**
+         * Parses a plain decimal number without going through a String, NaN if the field is
+         * empty. Exponents fall back to Double.parseDouble.
+         */
+        private static double parseDecimal(ByteBuffer window, int start, int end) {
+            if (start == end) {
+                return Double.NaN;
+            }
+            int i = start;
+            boolean negative = window.get(i) == '-';
+            if (negative || window.get(i) == '+') {
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int decimals = -1;
+            for (; i < end; i++) {
+                byte b = window.get(i);
+                if (b >= '0' && b <= '9') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (decimals >= 0) {
+                        decimals++;
+                    }
+                } else if (b == '.' && decimals < 0) {
+                    decimals = 0;
+                } else {
+                    break;
+                }
+            }
+            if (i < end || digits == 0 || digits > 15 || decimals > 15) {
+                return Double.parseDouble(new String(bytesOf(window, start, end), UTF_8));
+            }
+            // Exact, both the mantissa and the power of ten fit in a double
+            double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+
+        private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+                1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+        /**
+         * Parses a UTC time such as 2024-01-15T08:30:12.345Z into milliseconds since the epoch
+         */
+        private static long parseIsoTime(ByteBuffer window, int start, int end) {
+            if (end - start < 19 || window.get(start + 4) != '-' || window.get(start + 10) != 'T') {
+                throw new IllegalArgumentException("Not an ISO 8601 time");
+            }
+            int year = digits(window, start, 4);
+            int month = digits(window, start + 5, 2);
+            int day = digits(window, start + 8, 2);
+            int hour = digits(window, start + 11, 2);
+            int minute = digits(window, start + 14, 2);
+            int second = digits(window, start + 17, 2);
+            int millis = 0;
+            if (start + 19 < end && window.get(start + 19) == '.') {
+                int scale = 100;
+                for (int i = start + 20; i < end && scale > 0; i++, scale /= 10) {
+                    byte b = window.get(i);
+                    if (b < '0' || b > '9') {
+                        break;
+                    }
+                    millis += (b - '0') * scale;
+                }
+            }
+            return ((daysSinceEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+        }
+
+        private static int digits(ByteBuffer window, int start, int count) {
+            int value = 0;
+            for (int i = start; i < start + count; i++) {
+                byte b = window.get(i);
+                if (b < '0' || b > '9') {
+                    throw new IllegalArgumentException("Not a digit");
+                }
+                value = value * 10 + (b - '0');
+            }
+            return value;
+        }
+
+        /**
+         * Days from 1970-01-01 to the date of the proleptic Gregorian calendar, years 0 and up
+         */
+        private static long daysSinceEpoch(int year, int month, int day) {
+            if (month < 1 || month > 12 || day < 1 || day > 31) {
+                throw new IllegalArgumentException("Not a date");
+            }
+            // Counted from March so the leap day ends the year
+            int y = month <= 2 ? year - 1 : year;
+            int era = (y >= 0 ? y : y - 399) / 400;
+            int yearOfEra = y - era * 400;
+            int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146097L + dayOfEra - 719468;
+        }
+    }
+
+    /**
+     * A GeoJSON FeatureCollection. Each chunk's features are handed to the same streaming
+     * parser as USGS responses, wrapped into a collection of their own.
+     */
+    private static class GeoJsonFormat extends Format {
+        private static final byte[] FEATURE_START = "{\"type\":\"Feature\",".getBytes(UTF_8);
+        private static final byte[] COLLECTION_START = "{\"features\":[".getBytes(UTF_8);
+        private static final byte[] COLLECTION_END = "]}".getBytes(UTF_8);
+
+        @Override
+        long getDataStart() {
+            return 0;
+        }
+
+        @Override
+        EarthquakeStore parse(ByteBuffer window, int from, int end, boolean reachesEnd) throws IOException {
+            InputStream features = geoJsonFeaturesOf(window, from, end, reachesEnd);
+            if (features == null) {
+                return new EarthquakeStore(1);
+            }
+
+            List<EarthquakeEvent> events = QueryUtils.extractEarthquakes(features);
+            EarthquakeStore store = new EarthquakeStore(events.size());
+            for (EarthquakeEvent event : events) {
+                if (!event.isDeleted()) {
+                    store.add(event);
+                }
+            }
+            return store;
+        }
+    }
+
+    /**
+     * The GeoJSON features starting between from and end in the window, wrapped into a
+     * collection of their own, or null if none starts there
+     */
+    static InputStream geoJsonFeaturesOf(ByteBuffer window, int from, int end, boolean reachesEnd)
+            throws IOException {
+        int limit = window.limit();
+        int first = indexOf(window, GeoJsonFormat.FEATURE_START, from, Math.min(end, limit));
+        if (first < 0) {
+            return null;
+        }
+
+        // Up to the first feature of the next chunk, or to the end of the file, which closes
+        // the array and the collection itself
+        int next = indexOf(window, GeoJsonFormat.FEATURE_START, end, limit);
+        if (next >= 0) {
+            int last = next - 1;
+            while (last > first && (window.get(last) == ',' || Character.isWhitespace(window.get(last)))) {
+                last--;
+            }
+            return new SequenceInputStream(new SequenceInputStream(
+                    new ByteArrayInputStream(GeoJsonFormat.COLLECTION_START),
+                    new ByteBufferInputStream(window, first, last + 1)),
+                    new ByteArrayInputStream(GeoJsonFormat.COLLECTION_END));
+        } else if (reachesEnd) {
+            return new SequenceInputStream(new ByteArrayInputStream(GeoJsonFormat.COLLECTION_START),
+                    new ByteBufferInputStream(window, first, limit));
+        }
+        throw new IOException("GeoJSON feature longer than " + MAX_RECORD_BYTES + " bytes");
+    }
+
+    /**
+     * Reads a range of a buffer without copying it
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer, int start, int end) {
+            mBuffer = buffer.duplicate();
+            mBuffer.limit(end);
+            mBuffer.position(start);
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+
+    private static int skipByteOrderMark(ByteBuffer buffer, int position) {
+        if (buffer.limit() >= position + 3 && (buffer.get(position) & 0xFF) == 0xEF
+                && (buffer.get(position + 1) & 0xFF) == 0xBB && (buffer.get(position + 2) & 0xFF) == 0xBF) {
+            return position + 3;
+        }
+        return position;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The first position between from and to where the pattern starts, it may run past to
+     */
+    private static int indexOf(ByteBuffer buffer, byte[] pattern, int from, int to) {
+        int last = Math.min(to, buffer.limit() - pattern.length + 1);
+        search:
+        for (int i = from; i < last; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer.get(i + j) != pattern[j]) {
+                    continue search;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] bytesOf(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return bytes;
+    }
+}
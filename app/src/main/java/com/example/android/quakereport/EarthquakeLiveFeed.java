@@ -0,0 +1,192 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the recent earthquakes through the USGS summary feeds, which are precomputed every
+ * minute and served from a CDN, so polling them is much cheaper than repeating an FDSN query.
+ *
+ * <p>Each poll picks the smallest feed covering the time since the previous poll and the
+ * magnitude asked for, and diffs it by event id against the previous poll. The events of the
+ * previous poll are kept in the {@link EarthquakeCache} for each consumer, so the list and the
+ * notifications each see every change once, whichever polls first. So is the start of the
+ * feed they came from: after a longer gap the next poll takes a longer feed, whose older
+ * events aren't new, only out of reach of the previous one.
+ */
+public class EarthquakeLiveFeed {
+    private static final String SUMMARY_PATH = "/earthquakes/feed/v1.0/summary/";
+
+    // The magnitude tiers USGS publishes, strongest first, below them is the "all" feed
+    private static final double[] TIER_MAGNITUDES = {4.5, 2.5, 1.0};
+    private static final String[] TIER_NAMES = {"4.5", "2.5", "1.0"};
+    private static final String ALL_TIER = "all";
+
+    private static final long[] PERIOD_MILLIS = {TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1),
+            TimeUnit.DAYS.toMillis(7)};
+    private static final String[] PERIOD_NAMES = {"hour", "day", "week"};
+    // The week of every magnitude runs into megabytes, never poll it
+    private static final int MAX_ALL_TIER_PERIOD = 1;
+    // Feeds lag a few minutes behind, and events at the very edge of a window come and go
+    private static final long SLACK_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String STATE_KEY_PREFIX = "summary-state:";
+    // Holds no events, only the start of the state's feed as its time
+    private static final String WINDOW_KEY_SUFFIX = ":window";
+
+    private final EarthquakeCache mCache;
+    private final EarthquakeFetcher mFetcher;
+    private final String mConsumer;
+
+    // The last feed fetched, whose validators let the next poll of the same feed cost a 304
+    private String mLastUrl;
+    private EarthquakeCache.Entry mLastResponse;
+
+    /**
+     * @param cache    keeps the events of the previous poll
+     * @param consumer names who the changes are for, polls of other consumers don't affect them
+     */
+    public EarthquakeLiveFeed(EarthquakeCache cache, String consumer) {
+        this(cache, consumer, new EarthquakeFetcher());
+    }
+
+    EarthquakeLiveFeed(EarthquakeCache cache, String consumer, EarthquakeFetcher fetcher) {
+        mCache = cache;
+        mConsumer = consumer;
+        mFetcher = fetcher;
+    }
+
+    /**
+     * Returns the changes to the earthquakes of at least the given magnitude since the last
+     * poll of this consumer. The first poll only records where to start from and returns no
+     * changes.
+     */
+    public EarthquakeChanges poll(double minMagnitude) throws IOException {
+        String tier = tierOf(minMagnitude);
+        String stateKey = stateKeyOf(mConsumer, minMagnitude);
+        EarthquakeCache.Entry state = mCache.getState(stateKey);
+        long now = System.currentTimeMillis();
+
+        int period = state == null ? 0 : periodOf(now - state.getFetchedAt(), tier);
+        long windowStart = now - PERIOD_MILLIS[period] + SLACK_MILLIS;
+        String url = QueryUtils.getBaseUrl() + SUMMARY_PATH + tier + "_" + PERIOD_NAMES[period] + ".geojson";
+        EarthquakeCache.Entry response = mFetcher.fetch(url, url.equals(mLastUrl) ? mLastResponse : null);
+        boolean notModified = url.equals(mLastUrl) && mLastResponse != null
+                && response.getEvents() == mLastResponse.getEvents();
+        mLastUrl = url;
+        mLastResponse = response;
+
+        if (state == null || notModified) {
+            // Nothing to compare with yet, or nothing changed since this feed was last seen
+            saveState(stateKey, state == null ? response.getEvents() : state.getEvents(), windowStart, now);
+            return EarthquakeChanges.none();
+        }
+
+        EarthquakeChanges changes = diff(state.getEvents(), response.getEvents(),
+                getWindowStart(stateKey, state), windowStart, minMagnitude);
+        saveState(stateKey, response.getEvents(), windowStart, now);
+        return changes;
+    }
+
+    /**
+     * The cache key of the state of the consumer's polls at the magnitude
+     */
+    static String stateKeyOf(String consumer, double minMagnitude) {
+        return STATE_KEY_PREFIX + consumer + ":" + tierOf(minMagnitude);
+    }
+
+    private void saveState(String stateKey, List<EarthquakeEvent> events, long windowStart, long now) {
+        mCache.put(stateKey + WINDOW_KEY_SUFFIX, new EarthquakeCache.Entry(
+                new ArrayList<EarthquakeEvent>(), null, null, windowStart));
+        mCache.put(stateKey, new EarthquakeCache.Entry(events, null, null, now));
+    }
+
+    /**
+     * Where the feed of the state started. States saved without it came from the hour feed.
+     */
+    private long getWindowStart(String stateKey, EarthquakeCache.Entry state) {
+        EarthquakeCache.Entry window = mCache.getState(stateKey + WINDOW_KEY_SUFFIX);
+        if (window != null) {
+            return window.getFetchedAt();
+        }
+        return state.getFetchedAt() - PERIOD_MILLIS[0] + SLACK_MILLIS;
+    }
+
+    /**
+     * Diffs a feed against the events previously seen, by event id.
+     *
+     * @param knownStart   where the feed of the known events started: events missing from them
+     *                     are only considered added if they happened after this time, older
+     *                     ones were simply out of that feed
+     * @param windowStart  events missing from the feed are only considered removed if they
+     *                     happened after this time, older ones simply fell out of the feed
+     * @param minMagnitude added and updated events below this magnitude are left out
+     */
+    static EarthquakeChanges diff(List<EarthquakeEvent> known, List<EarthquakeEvent> feed,
+                                  long knownStart, long windowStart, double minMagnitude) {
+        long diffStart = Metrics.start();
+        Map<String, EarthquakeEvent> knownById = new HashMap<>();
+        for (EarthquakeEvent event : known) {
+            knownById.put(event.getId(), event);
+        }
+
+        List<EarthquakeEvent> added = new ArrayList<>();
+        List<EarthquakeEvent> updated = new ArrayList<>();
+        Set<String> feedIds = new HashSet<>();
+        for (EarthquakeEvent event : feed) {
+            feedIds.add(event.getId());
+            EarthquakeEvent knownEvent = knownById.get(event.getId());
+            if (event.getMagnitude() < minMagnitude) {
+                continue;
+            }
+            if (knownEvent == null) {
+                if (event.getDate() >= knownStart) {
+                    added.add(event);
+                }
+            } else if (event.getUpdated() > knownEvent.getUpdated()) {
+                updated.add(event);
+            }
+        }
+
+        List<String> removedIds = new ArrayList<>();
+        for (EarthquakeEvent event : known) {
+            if (!feedIds.contains(event.getId()) && event.getDate() >= windowStart) {
+                removedIds.add(event.getId());
+            }
+        }
+        Metrics.stop(Metrics.Stage.DIFF, diffStart);
+        return new EarthquakeChanges(added, updated, removedIds);
+    }
+
+    /**
+     * The strongest tier that still holds every event of the magnitude
+     */
+    private static String tierOf(double minMagnitude) {
+        for (int i = 0; i < TIER_MAGNITUDES.length; i++) {
+            if (minMagnitude >= TIER_MAGNITUDES[i]) {
+                return TIER_NAMES[i];
+            }
+        }
+        return ALL_TIER;
+    }
+
+    /**
+     * The shortest period covering the time since the last poll
+     */
+    private static int periodOf(long elapsedMillis, String tier) {
+        int maxPeriod = ALL_TIER.equals(tier) ? MAX_ALL_TIER_PERIOD : PERIOD_MILLIS.length - 1;
+        for (int i = 0; i < maxPeriod; i++) {
+            if (elapsedMillis + SLACK_MILLIS <= PERIOD_MILLIS[i]) {
+                return i;
+            }
+        }
+        // Changes older than the longest feed are left to the next full sync
+        return maxPeriod;
+    }
+}
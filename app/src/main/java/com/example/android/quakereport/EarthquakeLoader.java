@@ -0,0 +1,311 @@
+package com.example.android.quakereport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads earthquake queries on a small bounded thread pool shared by the whole app.
+ *
+ * <ul>
+ * <li>Requests for the same query URL that are in flight at the same time share one sync.</li>
+ * <li>Each loader runs at most one request at a time: loads issued while one is running
+ * collapse into a single pending load of the latest query.</li>
+ * <li>{@link #cancel()} drops every result still to come, and stops requests nobody else
+ * is waiting for before they reach the network.</li>
+ * </ul>
+ */
+public class EarthquakeLoader {
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EarthquakeLoader.class.getSimpleName();
+
+    // Enough for a few watched regions to load side by side, see EarthquakeFanOut
+    private static final int POOL_SIZE = 4;
+    private static final int QUEUE_CAPACITY = 16;
+
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+
+    // Requests currently queued or running, keyed by query URL. Guarded by itself.
+    private static final Map<String, Request> sInFlight = new HashMap<>();
+
+    private final EarthquakeSync mSync;
+    // Runs the deliveries on the main thread
+    private final Executor mMainThread;
+
+    // Only touched on the main thread
+    private Subscription mActive;
+    private EarthquakeQuery mPendingQuery;
+    private Listener mPendingListener;
+
+    /**
+     * Receives the results of a load on the main thread
+     */
+    public interface Listener {
+        /**
+         * Called with the cached events of the query, before syncing with USGS
+         */
+        void onCachedEvents(List<EarthquakeEvent> events);
+
+        /**
+         * Called once the query is synced, or failed to, with the error and the cached events
+         */
+        void onResult(EarthquakeResult result);
+    }
+
+    public EarthquakeLoader(EarthquakeSync sync) {
+        this(sync, new Handler(Looper.getMainLooper())::post);
+    }
+
+    /**
+     * @param mainThread runs the deliveries to the listeners, in order, on the thread that
+     *                   calls {@link #load} and {@link #cancel()}
+     */
+    EarthquakeLoader(EarthquakeSync sync, Executor mainThread) {
+        mSync = sync;
+        mMainThread = mainThread;
+    }
+
+    /**
+     * Loads the query, superseding any load previously issued by this loader
+     */
+    @MainThread
+    public void load(EarthquakeQuery query, Listener listener) {
+        if (mActive != null) {
+            // Let the running request finish but ignore its results, and only remember the
+            // latest query to run next, so a burst of loads costs one extra request at most
+            mActive.cancel();
+            mPendingQuery = query;
+            mPendingListener = listener;
+            return;
+        }
+        mActive = subscribe(query, listener);
+    }
+
+    /**
+     * Cancels the running and pending loads, their listeners won't be called anymore
+     */
+    @MainThread
+    public void cancel() {
+        mPendingQuery = null;
+        mPendingListener = null;
+        if (mActive != null) {
+            mActive.cancel();
+        }
+    }
+
+    /**
+     * Called on the main thread when the active request is done, successfully or not
+     */
+    private void onRequestFinished(Subscription subscription) {
+        if (subscription != mActive) {
+            return;
+        }
+        mActive = null;
+        if (mPendingQuery != null) {
+            EarthquakeQuery query = mPendingQuery;
+            Listener listener = mPendingListener;
+            mPendingQuery = null;
+            mPendingListener = null;
+            mActive = subscribe(query, listener);
+        }
+    }
+
+    /**
+     * Joins the in-flight request for the query URL, or starts a new one
+     */
+    private Subscription subscribe(EarthquakeQuery query, Listener listener) {
+        Subscription subscription = new Subscription(listener);
+        String key = query.toUrl();
+        synchronized (sInFlight) {
+            Request request = sInFlight.get(key);
+            if (request == null) {
+                request = new Request(key, query, mSync);
+                request.mSubscribers.add(subscription);
+                try {
+                    request.mFuture = sExecutor.submit(request);
+                    sInFlight.put(key, request);
+                } catch (RejectedExecutionException e) {
+                    Log.e(LOG_TAG, "Too many earthquake requests queued, dropping " + key);
+                    subscription.deliverResult(EarthquakeResult.failure(EarthquakeResult.Error.UNAVAILABLE, null));
+                    return subscription;
+                }
+            } else {
+                request.mSubscribers.add(subscription);
+            }
+            subscription.mRequest = request;
+        }
+        return subscription;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * One listener's interest in a request
+     */
+    private class Subscription {
+        private final Listener mListener;
+        private volatile boolean mCancelled;
+        private Request mRequest;
+
+        Subscription(Listener listener) {
+            mListener = listener;
+        }
+
+        void cancel() {
+            mCancelled = true;
+            synchronized (sInFlight) {
+                if (mRequest != null) {
+                    mRequest.onSubscriberCancelled();
+                }
+            }
+        }
+
+        void deliverCachedEvents(List<EarthquakeEvent> events) {
+            mMainThread.execute(() -> {
+                if (!mCancelled) {
+                    mListener.onCachedEvents(events);
+                }
+            });
+        }
+
+        void deliverResult(EarthquakeResult result) {
+            mMainThread.execute(() -> {
+                if (!mCancelled) {
+                    mListener.onResult(result);
+                }
+                onRequestFinished(this);
+            });
+        }
+    }
+
+    /**
+     * A sync of one query URL, shared by every subscription asking for it while it runs
+     */
+    private static class Request implements Runnable {
+        private final String mKey;
+        private final EarthquakeQuery mQuery;
+        private final EarthquakeSync mSync;
+        // Guarded by sInFlight
+        private final List<Subscription> mSubscribers = new ArrayList<>();
+        private Future<?> mFuture;
+        private boolean mStarted;
+        private volatile boolean mCancelled;
+
+        Request(String key, EarthquakeQuery query, EarthquakeSync sync) {
+            mKey = key;
+            mQuery = query;
+            mSync = sync;
+        }
+
+        /**
+         * Stops the request once every subscriber has cancelled. A request still queued is
+         * dropped right away, a running one skips the network if it hasn't reached it yet, stops
+         * waiting to retry, and reports back when it is done, so its owner never has two
+         * requests running at once.
+         * Must hold the sInFlight lock.
+         */
+        void onSubscriberCancelled() {
+            for (Subscription subscription : mSubscribers) {
+                if (!subscription.mCancelled) {
+                    return;
+                }
+            }
+            if (mCancelled) {
+                return;
+            }
+
+            mCancelled = true;
+            // Later loads of the same URL must not join a request that is giving up
+            if (sInFlight.get(mKey) == this) {
+                sInFlight.remove(mKey);
+            }
+            if (mStarted) {
+                // Wakes the request up if it is sleeping before a retry
+                mFuture.cancel(true);
+            } else {
+                mFuture.cancel(false);
+                finish(EarthquakeResult.failure(EarthquakeResult.Error.UNAVAILABLE, null));
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (sInFlight) {
+                if (mCancelled) {
+                    return;
+                }
+                mStarted = true;
+            }
+
+            EarthquakeCache.Entry cached = null;
+            EarthquakeResult result = null;
+            try {
+                cached = mSync.getCached(mQuery);
+                if (cached != null) {
+                    List<EarthquakeEvent> events = cached.getEvents();
+                    EarthquakeFormatter.get().prepare(events);
+                    for (Subscription subscription : snapshotSubscribers()) {
+                        subscription.deliverCachedEvents(events);
+                    }
+                }
+
+                // Nobody wants the result anymore, don't spend a network round trip on it
+                if (!mCancelled) {
+                    result = mSync.sync(mQuery, cached);
+                    if (result.isSuccess()) {
+                        // Format off the main thread, rows then bind without any work
+                        EarthquakeFormatter.get().prepare(result.getEvents());
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Problem loading the earthquakes", e);
+            }
+            if (result == null) {
+                result = EarthquakeResult.failure(EarthquakeResult.Error.REQUEST,
+                        cached == null ? null : cached.getEvents());
+            }
+
+            synchronized (sInFlight) {
+                if (sInFlight.get(mKey) == this) {
+                    sInFlight.remove(mKey);
+                }
+                finish(result);
+            }
+        }
+
+        /**
+         * Hands the result to every subscriber. Must hold the sInFlight lock.
+         */
+        private void finish(EarthquakeResult result) {
+            for (Subscription subscription : mSubscribers) {
+                subscription.deliverResult(result);
+            }
+            mSubscribers.clear();
+        }
+
+        private List<Subscription> snapshotSubscribers() {
+            synchronized (sInFlight) {
+                return new ArrayList<>(mSubscribers);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plots the clusters of an {@link EarthquakeClusterer} on a plain latitude/longitude grid,
+ * dragged to pan, pinched to zoom and wrapping around the antimeridian.
+ *
+ * <p>Each frame picks the zoom level whose cells are {@link #CLUSTER_CELL_DP} wide on screen and
+ * only draws the clusters of the cells in view, a few hundred at most whatever the number of
+ * events. Circles grow with the number of events and take the color of the strongest one.
+ * Tapping a single event opens it, tapping a cluster zooms in on it.
+ */
+public class EarthquakeMapView extends View {
+    private static final float CLUSTER_CELL_DP = 48;
+    private static final float MIN_RADIUS_DP = 6;
+    private static final float MAX_RADIUS_DP = 22;
+    private static final float TEXT_SIZE_DP = 11;
+    private static final int GRATICULE_DEGREES = 30;
+    private static final double MAX_PIXELS_PER_DEGREE = 1e6;
+
+    private final float mDensity;
+    private final Paint mGraticulePaint = new Paint();
+    private final Paint mCirclePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int mBackgroundColor;
+    private final int[] mMagnitudeColors;
+    private final GestureDetector mGestureDetector;
+    private final ScaleGestureDetector mScaleDetector;
+
+    // Reused from frame to frame so drawing doesn't allocate
+    private final List<EarthquakeClusterer.Cluster> mClusters = new ArrayList<>();
+
+    private EarthquakeClusterer mClusterer;
+    private OnEventClickListener mClickListener;
+    private double mCenterLatitude;
+    private double mCenterLongitude;
+    // 0 until the view is laid out, then at least what fits the whole world
+    private double mPixelsPerDegree;
+
+    /**
+     * Called when a single event is tapped
+     */
+    public interface OnEventClickListener {
+        void onEventClick(String id);
+    }
+
+    public EarthquakeMapView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mDensity = context.getResources().getDisplayMetrics().density;
+        mBackgroundColor = ContextCompat.getColor(context, R.color.map_background);
+        mMagnitudeColors = EarthquakeAdapter.getMagnitudeColors(context);
+        mGraticulePaint.setColor(ContextCompat.getColor(context, R.color.map_graticule));
+        mGraticulePaint.setStrokeWidth(mDensity);
+        mTextPaint.setColor(ContextCompat.getColor(context, android.R.color.white));
+        mTextPaint.setTextSize(TEXT_SIZE_DP * mDensity);
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onScroll(MotionEvent down, MotionEvent move, float distanceX, float distanceY) {
+                moveCenter(distanceY / mPixelsPerDegree, distanceX / mPixelsPerDegree);
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent event) {
+                onTap(event.getX(), event.getY());
+                return true;
+            }
+        });
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Shows the clusters, to be called again with the same clusterer whenever it was synced
+     */
+    public void setClusterer(EarthquakeClusterer clusterer) {
+        mClusterer = clusterer;
+        invalidate();
+    }
+
+    public void setOnEventClickListener(OnEventClickListener listener) {
+        mClickListener = listener;
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        mPixelsPerDegree = Math.max(mPixelsPerDegree, minPixelsPerDegree());
+        moveCenter(0, 0);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        if (!mScaleDetector.isInProgress()) {
+            handled |= mGestureDetector.onTouchEvent(event);
+        }
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawColor(mBackgroundColor);
+        if (mPixelsPerDegree == 0) {
+            return;
+        }
+        drawGraticule(canvas);
+        if (mClusterer == null) {
+            return;
+        }
+
+        long drawStart = Metrics.start();
+        queryVisibleClusters();
+        float minRadius = MIN_RADIUS_DP * mDensity;
+        float maxRadius = MAX_RADIUS_DP * mDensity;
+        for (EarthquakeClusterer.Cluster cluster : mClusters) {
+            float x = xOf(cluster.getLongitude());
+            float y = yOf(cluster.getLatitude());
+            // Area grows with the log of the count, so a thousand events don't cover the screen
+            float radius = (float) Math.min(maxRadius, minRadius * (1 + Math.log10(cluster.getCount())));
+            mCirclePaint.setColor(mMagnitudeColors[EarthquakeRow.magnitudeBucketOf(cluster.getMaxMagnitude())]);
+            canvas.drawCircle(x, y, radius, mCirclePaint);
+            if (cluster.getCount() > 1) {
+                canvas.drawText(cluster.getLabel(), x, y + mTextPaint.getTextSize() / 3, mTextPaint);
+            }
+        }
+        Metrics.stop(Metrics.Stage.MAP_DRAW, drawStart);
+    }
+
+    private void drawGraticule(Canvas canvas) {
+        for (int latitude = -90 + GRATICULE_DEGREES; latitude < 90; latitude += GRATICULE_DEGREES) {
+            float y = yOf(latitude);
+            canvas.drawLine(0, y, getWidth(), y, mGraticulePaint);
+        }
+        for (int longitude = -180; longitude < 180; longitude += GRATICULE_DEGREES) {
+            float x = xOf(longitude);
+            canvas.drawLine(x, yOf(90), x, yOf(-90), mGraticulePaint);
+        }
+    }
+
+    private void queryVisibleClusters() {
+        double halfHeight = getHeight() / 2.0 / mPixelsPerDegree;
+        double halfWidth = getWidth() / 2.0 / mPixelsPerDegree;
+        int zoom = EarthquakeClusterer.zoomFor(mPixelsPerDegree, CLUSTER_CELL_DP * mDensity);
+        double south = Math.max(-90, mCenterLatitude - halfHeight);
+        double north = Math.min(90, mCenterLatitude + halfHeight);
+        if (halfWidth >= 180) {
+            mClusterer.getClusters(zoom, south, -180, north, 180, mClusters);
+        } else {
+            mClusterer.getClusters(zoom, south, wrapLongitude(mCenterLongitude - halfWidth),
+                    north, wrapLongitude(mCenterLongitude + halfWidth), mClusters);
+        }
+    }
+
+    /**
+     * Opens the event under the tap, or zooms in on the cluster under it
+     */
+    private void onTap(float x, float y) {
+        EarthquakeClusterer.Cluster nearest = null;
+        float nearestDistance = MAX_RADIUS_DP * mDensity;
+        for (EarthquakeClusterer.Cluster cluster : mClusters) {
+            float distance = (float) Math.hypot(xOf(cluster.getLongitude()) - x, yOf(cluster.getLatitude()) - y);
+            if (distance <= nearestDistance) {
+                nearest = cluster;
+                nearestDistance = distance;
+            }
+        }
+        if (nearest == null) {
+            return;
+        }
+        String id = nearest.getEventId();
+        if (id != null) {
+            if (mClickListener != null) {
+                mClickListener.onEventClick(id);
+            }
+        } else {
+            mCenterLatitude = nearest.getLatitude();
+            mCenterLongitude = nearest.getLongitude();
+            zoomBy(2, getWidth() / 2f, getHeight() / 2f);
+        }
+    }
+
+    private void zoomBy(float factor, float focusX, float focusY) {
+        // Keep the point under the focus in place
+        double focusLatitude = latitudeOf(focusY);
+        double focusLongitude = longitudeOf(focusX);
+        mPixelsPerDegree = Math.max(minPixelsPerDegree(), Math.min(MAX_PIXELS_PER_DEGREE, mPixelsPerDegree * factor));
+        moveCenter(focusLatitude - latitudeOf(focusY), longitudeOf(focusX) - focusLongitude);
+    }
+
+    private void moveCenter(double northDegrees, double westDegrees) {
+        if (mPixelsPerDegree == 0) {
+            return;
+        }
+        // Keep the poles from leaving the edges of the screen
+        double halfHeight = Math.min(90, getHeight() / 2.0 / mPixelsPerDegree);
+        mCenterLatitude = Math.max(-90 + halfHeight, Math.min(90 - halfHeight, mCenterLatitude - northDegrees));
+        mCenterLongitude = wrapLongitude(mCenterLongitude + westDegrees);
+        invalidate();
+    }
+
+    private double minPixelsPerDegree() {
+        return Math.min(getWidth() / 360.0, getHeight() / 180.0);
+    }
+
+    private float xOf(double longitude) {
+        return (float) (getWidth() / 2.0 + wrapLongitude(longitude - mCenterLongitude) * mPixelsPerDegree);
+    }
+
+    private float yOf(double latitude) {
+        return (float) (getHeight() / 2.0 - (latitude - mCenterLatitude) * mPixelsPerDegree);
+    }
+
+    private double latitudeOf(float y) {
+        return mCenterLatitude - (y - getHeight() / 2.0) / mPixelsPerDegree;
+    }
+
+    private double longitudeOf(float x) {
+        return wrapLongitude(mCenterLongitude + (x - getWidth() / 2.0) / mPixelsPerDegree);
+    }
+
+    /**
+     * The same longitude in [-180, 180)
+     */
+    private static double wrapLongitude(double longitude) {
+        double wrapped = (longitude + 180) % 360;
+        return (wrapped < 0 ? wrapped + 360 : wrapped) - 180;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.quakereport;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Notifies the user of new strong earthquakes, each opening its USGS page when tapped
+ */
+public class EarthquakeNotifier {
+    private static final String CHANNEL_ID = "new_earthquakes";
+    private static final String GROUP_KEY = "com.example.android.quakereport.NEW_EARTHQUAKES";
+
+    // A burst of aftershocks shouldn't flood the shade
+    private static final int MAX_NOTIFICATIONS = 3;
+
+    private final Context mContext;
+
+    public EarthquakeNotifier(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Posts a notification for each of the strongest new earthquakes
+     */
+    public void notifyNewEarthquakes(List<EarthquakeEvent> earthquakes) {
+        if (earthquakes.isEmpty()) {
+            return;
+        }
+        createChannel();
+
+        EarthquakeFormatter formatter = EarthquakeFormatter.get();
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(mContext);
+        for (EarthquakeEvent earthquake : strongestOf(earthquakes)) {
+            formatter.prepare(earthquake);
+            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(earthquake.getURL()));
+            PendingIntent contentIntent = PendingIntent.getActivity(mContext, 0, intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext, CHANNEL_ID)
+                    .setSmallIcon(R.mipmap.ic_launcher)
+                    .setContentTitle(mContext.getString(R.string.new_earthquake_title, earthquake.getRow().getMagnitudeText()))
+                    .setContentText(earthquake.getPlace())
+                    .setContentIntent(contentIntent)
+                    .setGroup(GROUP_KEY)
+                    .setAutoCancel(true);
+            // The same event notified twice replaces its notification
+            notificationManager.notify(earthquake.getId().hashCode(), builder.build());
+        }
+    }
+
+    /**
+     * The earthquakes worth a notification, strongest first. Feeds list them by time.
+     */
+    static List<EarthquakeEvent> strongestOf(List<EarthquakeEvent> earthquakes) {
+        List<EarthquakeEvent> strongest = new ArrayList<>(earthquakes);
+        Collections.sort(strongest, (EarthquakeEvent a, EarthquakeEvent b) ->
+                Double.compare(b.getMagnitude(), a.getMagnitude()));
+        return strongest.size() > MAX_NOTIFICATIONS ? strongest.subList(0, MAX_NOTIFICATIONS) : strongest;
+    }
+
+    private void createChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    mContext.getString(R.string.new_earthquakes_channel), NotificationManager.IMPORTANCE_DEFAULT);
+            NotificationManager notificationManager =
+                    (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+            notificationManager.createNotificationChannel(channel);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.android.quakereport;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+
+/**
+ * Runs the periodic prefetch scheduled by {@link EarthquakePrefetcher} off the main thread
+ */
+public class EarthquakePrefetchService extends JobService {
+    private Thread mPrefetchThread;
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        EarthquakeActivity.markProcessWarm();
+        EarthquakePrefetcher prefetcher = new EarthquakePrefetcher(getApplicationContext());
+        mPrefetchThread = new Thread(() -> {
+            boolean success = prefetcher.prefetch();
+            // A stopped job is rescheduled by onStopJob, don't ask twice
+            if (!Thread.currentThread().isInterrupted()) {
+                jobFinished(params, !success);
+            }
+        }, "EarthquakePrefetch");
+        mPrefetchThread.start();
+        // Still working in the background
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The constraints aren't met anymore, stop retries and requests still to come
+        if (mPrefetchThread != null) {
+            mPrefetchThread.interrupt();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.android.quakereport;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the cache warm in the background, so opening the app reads the earthquakes from disk
+ * instead of waiting on USGS.
+ *
+ * <p>The queries the user actually looked at recently are remembered, and a periodic job syncs
+ * them all. Queries differing only in their minimum magnitude are coalesced: the one with the
+ * lowest minimum is fetched, and the others are answered from its events whenever they hold
+ * everything USGS would return, so several settings combinations usually cost one request.
+ */
+public class EarthquakePrefetcher {
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EarthquakePrefetcher.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+
+    private static final String ACTIVE_QUERIES_NAME = "active_queries";
+    // Queries not looked at for this long aren't prefetched anymore
+    private static final long ACTIVE_QUERY_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final int MAX_ACTIVE_QUERIES = 8;
+    // Queries synced this recently, by the previous run or by the app since, are left as they
+    // are. The shortest period of the job, so a job that runs twice in a row costs nothing.
+    private static final long FRESH_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    // The live feed keeps its own state for the notifications, apart from that of the list
+    private static final String LIVE_FEED_CONSUMER = "notifications";
+    private static final String KEY_SEPARATOR = "|";
+
+    private final Context mContext;
+    private final EarthquakeSync mSync;
+    private final SharedPreferences mActiveQueries;
+
+    public EarthquakePrefetcher(Context context) {
+        this(context.getApplicationContext(), new EarthquakeSync(EarthquakeCache.getInstance(context)),
+                getActiveQueries(context));
+    }
+
+    EarthquakePrefetcher(Context context, EarthquakeSync sync, SharedPreferences activeQueries) {
+        mContext = context;
+        mSync = sync;
+        mActiveQueries = activeQueries;
+    }
+
+    /**
+     * Schedules, reschedules or cancels the prefetch job to match the settings. Leaves a job
+     * that already matches them alone, so its period isn't restarted on every call.
+     */
+    public static void schedule(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        long intervalMinutes = parseMinutes(preferences.getString(
+                context.getString(R.string.settings_prefetch_interval_key),
+                context.getString(R.string.settings_prefetch_interval_default)));
+        boolean unmeteredOnly = preferences.getBoolean(
+                context.getString(R.string.settings_prefetch_unmetered_key), true);
+        int networkType = unmeteredOnly ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY;
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (intervalMinutes <= 0) {
+            jobScheduler.cancel(JOB_ID);
+            return;
+        }
+
+        long intervalMillis = TimeUnit.MINUTES.toMillis(intervalMinutes);
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == JOB_ID && pendingJob.getIntervalMillis() == intervalMillis
+                    && pendingJob.getNetworkType() == networkType) {
+                return;
+            }
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, EarthquakePrefetchService.class))
+                .setPeriodic(intervalMillis)
+                .setRequiredNetworkType(networkType)
+                .setPersisted(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setRequiresBatteryNotLow(true);
+        }
+        if (jobScheduler.schedule(builder.build()) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Couldn't schedule the prefetch job");
+        }
+    }
+
+    /**
+     * Remembers that the user looked at the query, so the job keeps it warm
+     */
+    public static void recordActiveQuery(Context context, EarthquakeQuery query) {
+        getActiveQueries(context).edit()
+                .putLong(keyOf(query), System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Syncs every recently used query and notifies of new strong earthquakes, returning false
+     * if something couldn't be synced. Blocks, and stops early if the thread is interrupted.
+     */
+    public boolean prefetch() {
+        boolean success = notifyNewEarthquakes();
+        for (List<EarthquakeQuery> group : groupsOf(loadActiveQueries())) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            success &= prefetchGroup(group);
+        }
+        return success;
+    }
+
+    /**
+     * Groups the queries that may be answered from one another, those with the same order
+     * over the same region, keeping the order of their first query
+     */
+    static Collection<List<EarthquakeQuery>> groupsOf(List<EarthquakeQuery> queries) {
+        Map<String, List<EarthquakeQuery>> queriesByOrder = new LinkedHashMap<>();
+        for (EarthquakeQuery query : queries) {
+            String groupKey = query.getOrderBy() + regionKeyOf(query);
+            List<EarthquakeQuery> group = queriesByOrder.get(groupKey);
+            if (group == null) {
+                group = new ArrayList<>();
+                queriesByOrder.put(groupKey, group);
+            }
+            group.add(query);
+        }
+        return queriesByOrder.values();
+    }
+
+    /**
+     * Syncs the query of the group with the lowest minimum magnitude and answers the others
+     * from its events where they can be, returning false if something couldn't be synced
+     */
+    boolean prefetchGroup(List<EarthquakeQuery> group) {
+        Collections.sort(group, (EarthquakeQuery a, EarthquakeQuery b) ->
+                Double.compare(parseMagnitude(a.getMinMagnitude()), parseMagnitude(b.getMinMagnitude())));
+
+        // The lowest minimum magnitude, asking for as many events as the largest query
+        EarthquakeQuery widest = group.get(0);
+        int limit = 0;
+        for (EarthquakeQuery query : group) {
+            limit = Math.max(limit, query.getLimit());
+        }
+        EarthquakeQuery source = widest.withLimit(limit);
+
+        EarthquakeResult result = mSync.syncIfStale(source, mSync.getCached(source), FRESH_MILLIS);
+        if (!result.isSuccess()) {
+            Log.w(LOG_TAG, "Couldn't prefetch " + source.toUrl() + ": " + result.getError());
+            return false;
+        }
+
+        EarthquakeCache.Entry synced = mSync.getCached(source);
+        long fetchedAt = synced != null ? synced.getFetchedAt() : System.currentTimeMillis();
+        // The sync refetches a page that deletions shortened, so a short one is the end of the results
+        EarthquakeQueryEngine queryEngine = new EarthquakeQueryEngine(result.getEvents(), source,
+                result.getEvents().size() < limit);
+        boolean success = true;
+        int requests = 1;
+        for (EarthquakeQuery query : group) {
+            if (query.toUrl().equals(source.toUrl())) {
+                continue;
+            }
+            if (queryEngine.covers(query)) {
+                mSync.seed(query, queryEngine.query(query), fetchedAt);
+            } else if (!Thread.currentThread().isInterrupted()) {
+                // Too few strong events were loaded to stand in for this one
+                success &= mSync.syncIfStale(query, mSync.getCached(query), FRESH_MILLIS).isSuccess();
+                requests++;
+            }
+        }
+        Log.i(LOG_TAG, "Prefetched " + group.size() + " queries in " + requests + " requests");
+        return success;
+    }
+
+    /**
+     * Polls the summary feed of the earthquakes strong enough to notify about, if the user
+     * wants notifications
+     */
+    private boolean notifyNewEarthquakes() {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        double threshold = parseMagnitude(preferences.getString(
+                mContext.getString(R.string.settings_notify_magnitude_key),
+                mContext.getString(R.string.settings_notify_magnitude_default)));
+        if (threshold <= 0 || Double.isInfinite(threshold)) {
+            return true;
+        }
+        try {
+            EarthquakeChanges changes = new EarthquakeLiveFeed(EarthquakeCache.getInstance(mContext),
+                    LIVE_FEED_CONSUMER).poll(threshold);
+            new EarthquakeNotifier(mContext).notifyNewEarthquakes(changes.getAdded());
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't poll for new earthquakes", e);
+            return false;
+        }
+    }
+
+    /**
+     * The queries used recently, forgetting the old ones along the way
+     */
+    private List<EarthquakeQuery> loadActiveQueries() {
+        List<Map.Entry<String, ?>> entries = new ArrayList<>(mActiveQueries.getAll().entrySet());
+        // Most recently used first
+        Collections.sort(entries, (Map.Entry<String, ?> a, Map.Entry<String, ?> b) ->
+                Long.compare((Long) b.getValue(), (Long) a.getValue()));
+
+        long oldest = System.currentTimeMillis() - ACTIVE_QUERY_MAX_AGE_MILLIS;
+        List<EarthquakeQuery> queries = new ArrayList<>();
+        SharedPreferences.Editor editor = mActiveQueries.edit();
+        for (Map.Entry<String, ?> entry : entries) {
+            EarthquakeQuery query = queryOf(entry.getKey());
+            if (query == null || (Long) entry.getValue() < oldest || queries.size() >= MAX_ACTIVE_QUERIES) {
+                editor.remove(entry.getKey());
+            } else {
+                queries.add(query);
+            }
+        }
+        editor.apply();
+        return queries;
+    }
+
+    private static SharedPreferences getActiveQueries(Context context) {
+        return context.getSharedPreferences(ACTIVE_QUERIES_NAME, Context.MODE_PRIVATE);
+    }
+
+    static String keyOf(EarthquakeQuery query) {
+        return query.getMinMagnitude() + KEY_SEPARATOR + query.getOrderBy() + KEY_SEPARATOR + query.getLimit()
+                + regionKeyOf(query);
+    }
+
+    /**
+     * The region part of the key, empty for the whole world so older keys stay valid
+     */
+    private static String regionKeyOf(EarthquakeQuery query) {
+        if (!query.hasRegion()) {
+            return "";
+        }
+        return KEY_SEPARATOR + query.getLatitude() + KEY_SEPARATOR + query.getLongitude()
+                + KEY_SEPARATOR + query.getMaxRadiusKm();
+    }
+
+    /**
+     * The query of a key, or null if it is malformed. Keys without a region are those of the
+     * whole world, as written before regions existed.
+     */
+    static EarthquakeQuery queryOf(String key) {
+        String[] parts = key.split("\\|");
+        if (parts.length != 3 && parts.length != 6) {
+            return null;
+        }
+        try {
+            EarthquakeQuery query = new EarthquakeQuery(parts[0], parts[1], Integer.parseInt(parts[2]));
+            if (parts.length == 6) {
+                query = query.inRegion(Double.parseDouble(parts[3]), Double.parseDouble(parts[4]),
+                        Double.parseDouble(parts[5]));
+            }
+            return query;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseMinutes(String minutes) {
+        try {
+            return Long.parseLong(minutes);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double parseMagnitude(String magnitude) {
+        try {
+            return Double.parseDouble(magnitude);
+        } catch (NumberFormatException | NullPointerException e) {
+            // Sorted last so a malformed minimum never becomes the source of a group
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+}
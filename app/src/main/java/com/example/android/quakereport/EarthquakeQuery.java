@@ -0,0 +1,184 @@
+package com.example.android.quakereport;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The parameters of a USGS FDSN earthquake query, as picked in the settings, optionally
+ * restricted to a circular region.
+ */
+public class EarthquakeQuery {
+    private static final String QUERY_PATH = "/fdsnws/event/1/query";
+
+    private final String mMinMagnitude;
+    private final String mOrderBy;
+    private final int mLimit;
+    private final int mOffset;
+    // Center and radius of the region, NaN when the query covers the whole world
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mMaxRadiusKm;
+
+    /**
+     * @param minMagnitude the minimum magnitude, as stored in the preferences
+     * @param orderBy      either "magnitude" or "time"
+     * @param limit        the maximum number of events to return
+     */
+    public EarthquakeQuery(String minMagnitude, String orderBy, int limit) {
+        this(minMagnitude, orderBy, limit, 1);
+    }
+
+    /**
+     * @param offset the 1-based position of the first event to return, for paging
+     */
+    public EarthquakeQuery(String minMagnitude, String orderBy, int limit, int offset) {
+        this(minMagnitude, orderBy, limit, offset, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    private EarthquakeQuery(String minMagnitude, String orderBy, int limit, int offset,
+                            double latitude, double longitude, double maxRadiusKm) {
+        mMinMagnitude = minMagnitude;
+        mOrderBy = orderBy;
+        mLimit = limit;
+        mOffset = offset;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mMaxRadiusKm = maxRadiusKm;
+    }
+
+    public String getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public String getOrderBy() {
+        return mOrderBy;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public boolean isFirstPage() {
+        return mOffset <= 1;
+    }
+
+    public boolean hasRegion() {
+        return !Double.isNaN(mMaxRadiusKm);
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getMaxRadiusKm() {
+        return mMaxRadiusKm;
+    }
+
+    /**
+     * Whether both queries cover the same region, or both the whole world
+     */
+    public boolean hasSameRegion(EarthquakeQuery other) {
+        return Double.compare(mLatitude, other.mLatitude) == 0
+                && Double.compare(mLongitude, other.mLongitude) == 0
+                && Double.compare(mMaxRadiusKm, other.mMaxRadiusKm) == 0;
+    }
+
+    /**
+     * The same query restricted to the events within the radius of the point
+     */
+    public EarthquakeQuery inRegion(double latitude, double longitude, double maxRadiusKm) {
+        return new EarthquakeQuery(mMinMagnitude, mOrderBy, mLimit, mOffset, latitude, longitude, maxRadiusKm);
+    }
+
+    /**
+     * The first page of the same query, asking for a different number of events
+     */
+    public EarthquakeQuery withLimit(int limit) {
+        return new EarthquakeQuery(mMinMagnitude, mOrderBy, limit, 1, mLatitude, mLongitude, mMaxRadiusKm);
+    }
+
+    /**
+     * The query for the page of events right after this one
+     */
+    public EarthquakeQuery nextPage() {
+        return new EarthquakeQuery(mMinMagnitude, mOrderBy, mLimit, mOffset + mLimit,
+                mLatitude, mLongitude, mMaxRadiusKm);
+    }
+
+    /**
+     * The full query URL, also used as the cache key for this query
+     */
+    public String toUrl() {
+        return buildUpon().toString();
+    }
+
+    /**
+     * The URL of the events matching this query that were added, changed or deleted after
+     * the given time
+     */
+    public String toDeltaUrl(long updatedAfter) {
+        SimpleDateFormat isoFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        isoFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        StringBuilder url = buildUpon();
+        appendQueryParameter(url, "updatedafter", isoFormatter.format(new Date(updatedAfter)));
+        // Deleted events come back with a "deleted" status instead of silently disappearing
+        appendQueryParameter(url, "includedeleted", "true");
+        return url.toString();
+    }
+
+    /**
+     * Orders events the same way USGS does for this query
+     */
+    public Comparator<EarthquakeEvent> getComparator() {
+        if ("time".equals(mOrderBy)) {
+            return (EarthquakeEvent a, EarthquakeEvent b) -> Long.compare(b.getDate(), a.getDate());
+        }
+        return (EarthquakeEvent a, EarthquakeEvent b) -> Double.compare(b.getMagnitude(), a.getMagnitude());
+    }
+
+    private StringBuilder buildUpon() {
+        // Built by hand rather than with Uri.Builder so queries, and everything keyed by their
+        // URL, work in plain JVM unit tests. The parameters are encoded the same way.
+        StringBuilder url = new StringBuilder(160).append(QueryUtils.getBaseUrl()).append(QUERY_PATH);
+
+        appendQueryParameter(url, "format", "geojson");
+        appendQueryParameter(url, "limit", String.valueOf(mLimit));
+        appendQueryParameter(url, "minmag", mMinMagnitude);
+        appendQueryParameter(url, "orderby", mOrderBy);
+        if (hasRegion()) {
+            appendQueryParameter(url, "latitude", String.valueOf(mLatitude));
+            appendQueryParameter(url, "longitude", String.valueOf(mLongitude));
+            appendQueryParameter(url, "maxradiuskm", String.valueOf(mMaxRadiusKm));
+        }
+        // Left out of the first page so its URL, and cache key, stays the same as without paging
+        if (!isFirstPage()) {
+            appendQueryParameter(url, "offset", String.valueOf(mOffset));
+        }
+        return url;
+    }
+
+    private static void appendQueryParameter(StringBuilder url, String name, String value) {
+        url.append(url.indexOf("?") < 0 ? '?' : '&').append(name).append('=');
+        try {
+            // Spaces as %20 like Uri.encode(), none of the parameters has the other characters
+            // the two encode differently
+            url.append(URLEncoder.encode(value, "UTF-8").replace("+", "%20"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
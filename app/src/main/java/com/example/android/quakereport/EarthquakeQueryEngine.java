@@ -0,0 +1,200 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Answers earthquake queries from events that are already loaded, so changing the minimum
+ * magnitude or the order doesn't need a USGS round trip when the loaded events are enough.
+ *
+ * <p>The events are indexed once by descending magnitude and by descending time, and the
+ * lowercased places are sorted for prefix search. The engine is immutable once built.
+ */
+public class EarthquakeQueryEngine {
+    private final EarthquakeEvent[] mEvents;
+    private final EarthquakeQuery mSourceQuery;
+    private final double mSourceMinMagnitude;
+    private final boolean mComplete;
+
+    // Positions in mEvents
+    private final Integer[] mByMagnitude;
+    private final Integer[] mByTime;
+    private final Integer[] mByPlace;
+    private final String[] mLowerCasePlaces;
+
+    /**
+     * @param events      the events returned by USGS for the source query
+     * @param sourceQuery the query the events were loaded with
+     * @param complete    whether USGS has no other events matching the source query, because a
+     *                    page came back short. Fewer events than asked for doesn't tell on its
+     *                    own, duplicates between pages and deleted events may have been dropped.
+     */
+    public EarthquakeQueryEngine(List<EarthquakeEvent> events, EarthquakeQuery sourceQuery, boolean complete) {
+        mEvents = events.toArray(new EarthquakeEvent[0]);
+        mSourceQuery = sourceQuery;
+        mSourceMinMagnitude = parseMagnitude(sourceQuery.getMinMagnitude());
+        mComplete = complete;
+
+        mLowerCasePlaces = new String[mEvents.length];
+        for (int i = 0; i < mEvents.length; i++) {
+            mLowerCasePlaces[i] = mEvents[i].getPlace().toLowerCase(Locale.US);
+        }
+
+        mByMagnitude = positions();
+        Arrays.sort(mByMagnitude, (Integer a, Integer b) ->
+                Double.compare(magnitudeOf(mEvents[b]), magnitudeOf(mEvents[a])));
+        mByTime = positions();
+        Arrays.sort(mByTime, (Integer a, Integer b) ->
+                Long.compare(mEvents[b].getDate(), mEvents[a].getDate()));
+        mByPlace = positions();
+        Arrays.sort(mByPlace, (Integer a, Integer b) ->
+                mLowerCasePlaces[a].compareTo(mLowerCasePlaces[b]));
+    }
+
+    public int size() {
+        return mEvents.length;
+    }
+
+    /**
+     * Whether the loaded events are enough to answer the query exactly as USGS would
+     */
+    public boolean covers(EarthquakeQuery query) {
+        double minMagnitude = parseMagnitude(query.getMinMagnitude());
+        if (Double.isNaN(minMagnitude) || Double.isNaN(mSourceMinMagnitude)
+                || minMagnitude < mSourceMinMagnitude || !query.isFirstPage()
+                || !query.hasSameRegion(mSourceQuery)) {
+            return false;
+        }
+        if (mComplete) {
+            // Every event at or above the source magnitude is loaded
+            return true;
+        }
+        if (!query.getOrderBy().equals(mSourceQuery.getOrderBy())) {
+            return false;
+        }
+
+        int matches = countAtLeast(minMagnitude);
+        if (matches >= query.getLimit()) {
+            // The loaded events are the strongest (or latest) ones, so the first matches are
+            // the first results USGS would return
+            return true;
+        }
+        // When ordered by magnitude, a loaded event below the new minimum means every event
+        // above it is loaded too
+        return "magnitude".equals(query.getOrderBy()) && matches < mEvents.length;
+    }
+
+    /**
+     * Returns the events matching the query, in the query's order and within its limit.
+     * Only exact if {@link #covers(EarthquakeQuery)} is true.
+     */
+    public List<EarthquakeEvent> query(EarthquakeQuery query) {
+        double minMagnitude = parseMagnitude(query.getMinMagnitude());
+        int limit = query.getLimit();
+        List<EarthquakeEvent> results = new ArrayList<>(Math.min(limit, mEvents.length));
+
+        if ("time".equals(query.getOrderBy())) {
+            for (int i = 0; i < mByTime.length && results.size() < limit; i++) {
+                EarthquakeEvent event = mEvents[mByTime[i]];
+                if (event.getMagnitude() >= minMagnitude) {
+                    results.add(event);
+                }
+            }
+        } else {
+            // The matches are a prefix of the magnitude index
+            int matches = Math.min(countAtLeast(minMagnitude), limit);
+            for (int i = 0; i < matches; i++) {
+                results.add(mEvents[mByMagnitude[i]]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the events whose place contains the text, ignoring case. Places starting with
+     * the text come first, found through the sorted place index, then the other matches.
+     */
+    public List<EarthquakeEvent> searchPlace(String text) {
+        String lowerCaseText = text.trim().toLowerCase(Locale.US);
+        List<EarthquakeEvent> results = new ArrayList<>();
+        if (lowerCaseText.isEmpty()) {
+            results.addAll(Arrays.asList(mEvents));
+            return results;
+        }
+
+        // Prefix matches are a contiguous range of the place index
+        int first = lowerBound(lowerCaseText);
+        int end = first;
+        while (end < mByPlace.length && mLowerCasePlaces[mByPlace[end]].startsWith(lowerCaseText)) {
+            results.add(mEvents[mByPlace[end]]);
+            end++;
+        }
+
+        for (int i = 0; i < mByPlace.length; i++) {
+            if ((i < first || i >= end) && mLowerCasePlaces[mByPlace[i]].contains(lowerCaseText)) {
+                results.add(mEvents[mByPlace[i]]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Counts the events with a magnitude at or above the given one, by binary search
+     */
+    private int countAtLeast(double minMagnitude) {
+        int low = 0;
+        int high = mByMagnitude.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (magnitudeOf(mEvents[mByMagnitude[middle]]) >= minMagnitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The first position of the place index whose place isn't before the text
+     */
+    private int lowerBound(String lowerCaseText) {
+        int low = 0;
+        int high = mByPlace.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mLowerCasePlaces[mByPlace[middle]].compareTo(lowerCaseText) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private Integer[] positions() {
+        Integer[] positions = new Integer[mEvents.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * Sorts events without a magnitude last, where no minimum magnitude matches them
+     */
+    private static double magnitudeOf(EarthquakeEvent event) {
+        double magnitude = event.getMagnitude();
+        return Double.isNaN(magnitude) ? Double.NEGATIVE_INFINITY : magnitude;
+    }
+
+    private static double parseMagnitude(String magnitude) {
+        try {
+            return Double.parseDouble(magnitude);
+        } catch (NumberFormatException | NullPointerException e) {
+            return Double.NaN;
+        }
+    }
+}
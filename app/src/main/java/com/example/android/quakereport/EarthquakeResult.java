@@ -0,0 +1,61 @@
+package com.example.android.quakereport;
+
+import java.util.List;
+
+/**
+ * The outcome of loading a query: the synced events, or why they couldn't be synced along with
+ * the cached events still worth showing.
+ */
+public class EarthquakeResult {
+    /**
+     * Why a load failed
+     */
+    public enum Error {
+        /** USGS couldn't be reached, or the connection dropped */
+        NETWORK,
+        /** USGS answered with a server error, or asked us to slow down */
+        SERVER,
+        /** USGS rejected the query, or the response couldn't be used */
+        REQUEST,
+        /** The request wasn't attempted because USGS has been failing, or too many are queued */
+        UNAVAILABLE
+    }
+
+    private final List<EarthquakeEvent> mEvents;
+    private final Error mError;
+
+    private EarthquakeResult(List<EarthquakeEvent> events, Error error) {
+        mEvents = events;
+        mError = error;
+    }
+
+    public static EarthquakeResult success(List<EarthquakeEvent> events) {
+        return new EarthquakeResult(events, null);
+    }
+
+    /**
+     * @param error        why the load failed
+     * @param cachedEvents the last synced events of the query, or null if there are none
+     */
+    public static EarthquakeResult failure(Error error, List<EarthquakeEvent> cachedEvents) {
+        return new EarthquakeResult(cachedEvents, error);
+    }
+
+    public boolean isSuccess() {
+        return mError == null;
+    }
+
+    /**
+     * The synced events, or the cached ones if the load failed, which may be null
+     */
+    public List<EarthquakeEvent> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * Why the load failed, null if it succeeded
+     */
+    public Error getError() {
+        return mError;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.quakereport;
+
+/**
+ * The fully formatted content of one row of the list, built by {@link EarthquakeFormatter} on
+ * a background thread so binding a row is only a handful of setText calls. Immutable, so it
+ * can be handed from the loading thread to the main thread as is.
+ */
+public final class EarthquakeRow {
+    /**
+     * Magnitudes of 10 and up share the last bucket
+     */
+    public static final int MAGNITUDE_BUCKETS = 11;
+
+    /**
+     * The bucket of the magnitude: the magnitude rounded down, anything out of range in the
+     * last bucket
+     */
+    public static int magnitudeBucketOf(double magnitude) {
+        int bucket = (int) Math.floor(magnitude);
+        if (bucket < 0 || bucket >= MAGNITUDE_BUCKETS - 1) {
+            return MAGNITUDE_BUCKETS - 1;
+        }
+        return bucket;
+    }
+
+    private final String mMagnitudeText;
+    private final int mMagnitudeBucket;
+    private final String mLocationOffset;
+    private final String mPrimaryLocation;
+    private final String mDateText;
+    private final String mTimeText;
+
+    EarthquakeRow(String magnitudeText, int magnitudeBucket, String locationOffset,
+                  String primaryLocation, String dateText, String timeText) {
+        mMagnitudeText = magnitudeText;
+        mMagnitudeBucket = magnitudeBucket;
+        mLocationOffset = locationOffset;
+        mPrimaryLocation = primaryLocation;
+        mDateText = dateText;
+        mTimeText = timeText;
+    }
+
+    public String getMagnitudeText() {
+        return mMagnitudeText;
+    }
+
+    /**
+     * The whole magnitude, 0 to 9, or 10 for anything stronger. Picks the color of the
+     * magnitude circle.
+     */
+    public int getMagnitudeBucket() {
+        return mMagnitudeBucket;
+    }
+
+    public String getLocationOffset() {
+        return mLocationOffset;
+    }
+
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    public String getDateText() {
+        return mDateText;
+    }
+
+    public String getTimeText() {
+        return mTimeText;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The rows the list showed when the app was last left, so the next launch can draw them in its
+ * first frame instead of a spinner.
+ *
+ * <p>Only the top of the list is kept, with each row already formatted, and the file is
+ * memory-mapped on read: restoring takes well under a millisecond and is cheap enough for the
+ * main thread. The rows are dropped if the locale or time zone changed since, their text would
+ * be formatted differently now.
+ */
+public class EarthquakeSnapshot {
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EarthquakeSnapshot.class.getSimpleName();
+
+    // Bumped whenever the layout of the file changes, older files are then ignored
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String FILE_NAME = "snapshot";
+
+    // More than a screen fills, the rest of the list comes with the first load
+    private static final int MAX_ROWS = 40;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private EarthquakeSnapshot() {
+    }
+
+    /**
+     * Returns the saved rows, or null if there are none or they are out of date. Each event
+     * comes with its {@link EarthquakeRow}.
+     */
+    public static List<EarthquakeEvent> restore(Context context) {
+        File file = fileFor(context);
+        if (!file.exists()) {
+            return null;
+        }
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FORMAT_VERSION
+                    || !Locale.getDefault().toString().equals(readString(buffer))
+                    || !TimeZone.getDefault().getID().equals(readString(buffer))) {
+                return null;
+            }
+
+            int count = buffer.getInt();
+            List<EarthquakeEvent> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readString(buffer);
+                double magnitude = buffer.getDouble();
+                String place = readString(buffer);
+                long time = buffer.getLong();
+                long updated = buffer.getLong();
+                String url = readString(buffer);
+                EarthquakeEvent event = new EarthquakeEvent(id, magnitude, place, time, updated, url);
+                event.setLocation(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+                event.setRow(new EarthquakeRow(readString(buffer), buffer.getInt(), readString(buffer),
+                        readString(buffer), readString(buffer), readString(buffer)));
+                events.add(event);
+            }
+            return events;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Problem reading the snapshot, dropping it", e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Saves the top of the list, replacing the previous snapshot. Does disk I/O and formats
+     * the rows not bound yet, so it must not run on the main thread.
+     */
+    public static void save(Context context, List<EarthquakeEvent> events) {
+        File file = fileFor(context);
+        if (events == null || events.isEmpty()) {
+            file.delete();
+            return;
+        }
+
+        List<EarthquakeEvent> rows = events.subList(0, Math.min(events.size(), MAX_ROWS));
+        EarthquakeFormatter.get().prepare(rows);
+
+        // Write to a temporary file first so a crash never leaves a half written snapshot behind
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, Locale.getDefault().toString());
+            writeString(out, TimeZone.getDefault().getID());
+
+            out.writeInt(rows.size());
+            for (EarthquakeEvent event : rows) {
+                EarthquakeRow row = event.getRow();
+                writeString(out, event.getId());
+                out.writeDouble(event.getMagnitude());
+                writeString(out, event.getPlace());
+                out.writeLong(event.getDate());
+                out.writeLong(event.getUpdated());
+                writeString(out, event.getURL());
+                out.writeDouble(event.getLatitude());
+                out.writeDouble(event.getLongitude());
+                out.writeDouble(event.getDepth());
+                writeString(out, row.getMagnitudeText());
+                out.writeInt(row.getMagnitudeBucket());
+                writeString(out, row.getLocationOffset());
+                writeString(out, row.getPrimaryLocation());
+                writeString(out, row.getDateText());
+                writeString(out, row.getTimeText());
+            }
+            out.close();
+            out = null;
+
+            if (!temporaryFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Unable to commit the snapshot");
+                temporaryFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the snapshot", e);
+            temporaryFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static File fileFor(Context context) {
+        return new File(context.getApplicationContext().getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Reads a string stored as its UTF-8 length and bytes, a length of -1 standing for null
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing the snapshot file", e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Grid index over the epicenters of a set of earthquakes, answering bounding box, radius and
+ * nearest neighbour queries by only looking at the grid cells that can hold matches.
+ *
+ * <p>The grid is stored as two flat arrays, like a compressed sparse row matrix: the events of
+ * cell {@code c} are {@code mCellEvents[mCellStarts[c] .. mCellStarts[c + 1]]}. The index is
+ * immutable once built, events without coordinates are left out.
+ */
+public class EarthquakeSpatialIndex {
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    // Half the circumference, no two points on Earth are further apart
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private static final double DEFAULT_CELL_DEGREES = 2;
+
+    private final EarthquakeEvent[] mEvents;
+    private final double mCellDegrees;
+    private final int mRows;
+    private final int mColumns;
+    private final int[] mCellStarts;
+    private final int[] mCellEvents;
+
+    public EarthquakeSpatialIndex(List<EarthquakeEvent> events) {
+        this(events, DEFAULT_CELL_DEGREES);
+    }
+
+    /**
+     * @param events      the earthquakes to index
+     * @param cellDegrees the size of the grid cells, smaller cells suit denser data sets
+     */
+    public EarthquakeSpatialIndex(List<EarthquakeEvent> events, double cellDegrees) {
+        mCellDegrees = cellDegrees;
+        mRows = (int) Math.ceil(180 / cellDegrees);
+        mColumns = (int) Math.ceil(360 / cellDegrees);
+
+        List<EarthquakeEvent> located = new ArrayList<>(events.size());
+        for (EarthquakeEvent event : events) {
+            if (!Double.isNaN(event.getLatitude()) && !Double.isNaN(event.getLongitude())) {
+                located.add(event);
+            }
+        }
+        mEvents = located.toArray(new EarthquakeEvent[0]);
+
+        // Count the events per cell, turn the counts into start offsets, then fill the cells
+        int[] cells = new int[mEvents.length];
+        mCellStarts = new int[mRows * mColumns + 1];
+        for (int i = 0; i < mEvents.length; i++) {
+            cells[i] = cellOf(mEvents[i].getLatitude(), mEvents[i].getLongitude());
+            mCellStarts[cells[i] + 1]++;
+        }
+        for (int c = 0; c < mRows * mColumns; c++) {
+            mCellStarts[c + 1] += mCellStarts[c];
+        }
+        int[] fill = Arrays.copyOf(mCellStarts, mRows * mColumns);
+        mCellEvents = new int[mEvents.length];
+        for (int i = 0; i < mEvents.length; i++) {
+            mCellEvents[fill[cells[i]]++] = i;
+        }
+    }
+
+    /**
+     * The number of indexed earthquakes, those with coordinates
+     */
+    public int size() {
+        return mEvents.length;
+    }
+
+    /**
+     * Returns the earthquakes inside the box. A west longitude greater than the east one means
+     * the box crosses the antimeridian.
+     */
+    public List<EarthquakeEvent> withinBoundingBox(double south, double west, double north, double east) {
+        List<EarthquakeEvent> results = new ArrayList<>();
+        int firstRow = rowOf(south);
+        int lastRow = rowOf(north);
+        boolean crossesAntimeridian = west > east;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            if (crossesAntimeridian) {
+                collectBox(row, columnOf(west), mColumns - 1, south, west, north, east, results);
+                collectBox(row, 0, columnOf(east), south, west, north, east, results);
+            } else {
+                collectBox(row, columnOf(west), columnOf(east), south, west, north, east, results);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the earthquakes within the distance of the point, nearest first
+     */
+    public List<EarthquakeEvent> withinRadius(double latitude, double longitude, double radiusKm) {
+        List<EarthquakeEvent> results = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        collectRadius(latitude, longitude, radiusKm, results, distances);
+        sortByDistance(results, distances);
+        return results;
+    }
+
+    /**
+     * Returns the count earthquakes nearest to the point, nearest first
+     */
+    public List<EarthquakeEvent> nearest(double latitude, double longitude, int count) {
+        if (count <= 0 || mEvents.length == 0) {
+            return new ArrayList<>();
+        }
+
+        // Start with the radius that would hold count events if they were spread evenly over
+        // the globe, and double it until enough events fall inside
+        double radiusKm = Math.max(KM_PER_DEGREE * mCellDegrees,
+                MAX_DISTANCE_KM * Math.sqrt((double) count / mEvents.length));
+        while (true) {
+            List<EarthquakeEvent> results = new ArrayList<>();
+            List<Double> distances = new ArrayList<>();
+            collectRadius(latitude, longitude, radiusKm, results, distances);
+            if (results.size() >= count || radiusKm >= MAX_DISTANCE_KM) {
+                sortByDistance(results, distances);
+                return results.size() > count ? new ArrayList<>(results.subList(0, count)) : results;
+            }
+            radiusKm = Math.min(radiusKm * 2, MAX_DISTANCE_KM);
+        }
+    }
+
+    /**
+     * Great-circle distance between two points, in kilometers
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double deltaLatitude = Math.toRadians(latitude2 - latitude1);
+        double deltaLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(deltaLatitude / 2) * Math.sin(deltaLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(deltaLongitude / 2) * Math.sin(deltaLongitude / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void collectBox(int row, int firstColumn, int lastColumn, double south, double west,
+                            double north, double east, List<EarthquakeEvent> results) {
+        boolean crossesAntimeridian = west > east;
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            int cell = row * mColumns + column;
+            for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++) {
+                EarthquakeEvent event = mEvents[mCellEvents[i]];
+                double latitude = event.getLatitude();
+                double longitude = event.getLongitude();
+                boolean inLongitude = crossesAntimeridian
+                        ? longitude >= west || longitude <= east
+                        : longitude >= west && longitude <= east;
+                if (latitude >= south && latitude <= north && inLongitude) {
+                    results.add(event);
+                }
+            }
+        }
+    }
+
+    private void collectRadius(double latitude, double longitude, double radiusKm,
+                               List<EarthquakeEvent> results, List<Double> distances) {
+        double radiusDegrees = radiusKm / KM_PER_DEGREE;
+        double south = Math.max(-90, latitude - radiusDegrees);
+        double north = Math.min(90, latitude + radiusDegrees);
+
+        // Widest longitude difference reached by the circle, unless it covers a pole, in which
+        // case it spans every longitude
+        double radiusRadians = Math.toRadians(radiusDegrees);
+        double sinSpan = Math.sin(Math.min(radiusRadians, Math.PI / 2)) / Math.cos(Math.toRadians(latitude));
+        boolean allLongitudes = latitude + radiusDegrees >= 90 || latitude - radiusDegrees <= -90 || sinSpan >= 1;
+        int columnSpan = allLongitudes ? mColumns
+                : (int) Math.ceil(Math.toDegrees(Math.asin(sinSpan)) / mCellDegrees) + 1;
+
+        int firstRow = rowOf(south);
+        int lastRow = rowOf(north);
+        int firstOffset = -columnSpan;
+        int lastOffset = columnSpan;
+        if (columnSpan * 2 + 1 >= mColumns) {
+            // Visit each column once when the span wraps around the globe
+            firstOffset = 0;
+            lastOffset = mColumns - 1;
+        }
+        int centerColumn = columnOf(longitude);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int offset = firstOffset; offset <= lastOffset; offset++) {
+                int column = Math.floorMod(centerColumn + offset, mColumns);
+                int cell = row * mColumns + column;
+                for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++) {
+                    EarthquakeEvent event = mEvents[mCellEvents[i]];
+                    double distance = distanceKm(latitude, longitude, event.getLatitude(), event.getLongitude());
+                    if (distance <= radiusKm) {
+                        results.add(event);
+                        distances.add(distance);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void sortByDistance(List<EarthquakeEvent> events, List<Double> distances) {
+        Integer[] order = new Integer[events.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (Integer a, Integer b) -> Double.compare(distances.get(a), distances.get(b)));
+
+        List<EarthquakeEvent> sorted = new ArrayList<>(order.length);
+        for (Integer position : order) {
+            sorted.add(events.get(position));
+        }
+        events.clear();
+        events.addAll(sorted);
+    }
+
+    private int cellOf(double latitude, double longitude) {
+        return rowOf(latitude) * mColumns + columnOf(longitude);
+    }
+
+    private int rowOf(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / mCellDegrees);
+        return Math.max(0, Math.min(mRows - 1, row));
+    }
+
+    private int columnOf(double longitude) {
+        // Normalize to [-180, 180) so longitudes past the antimeridian land in the right cell
+        double normalized = ((longitude + 180) % 360 + 360) % 360;
+        int column = (int) Math.floor(normalized / mCellDegrees);
+        return Math.max(0, Math.min(mColumns - 1, column));
+    }
+}
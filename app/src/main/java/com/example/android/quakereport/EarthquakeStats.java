@@ -0,0 +1,316 @@
+package com.example.android.quakereport;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rollups of the loaded earthquakes, kept up to date as events are added, updated or removed
+ * instead of being recomputed from the whole list.
+ *
+ * <ul>
+ * <li>The count per magnitude band, the magnitude rounded down, with the microquakes of
+ * negative magnitude in band 0 and anything from 10 up in the last band.</li>
+ * <li>The count per hour over the last {@link #HOURS} hours and per day over the last
+ * {@link #DAYS} days, in ring buffers of counters. Days are UTC days.</li>
+ * <li>The strongest magnitude per region, the region being the end of the place, such as
+ * "Alaska" in "12 km SSW of Anchorage, Alaska". Each region counts its events per tenth of
+ * magnitude, so the maximum survives its event being removed.</li>
+ * </ul>
+ *
+ * <p>Changing an event only touches the counters of its old and new versions, and every
+ * query takes time in the number of buckets, not of events. Not thread-safe, meant to be
+ * confined to the main thread.
+ */
+public class EarthquakeStats {
+    public static final int HOURS = 48;
+    public static final int DAYS = 30;
+
+    // Magnitudes 0 to 10 in tenths, anything stronger in the last step
+    private static final int MAGNITUDE_STEPS = 101;
+
+    private static final String LOCATION_SEPARATOR = " of ";
+    private static final String REGION_SEPARATOR = ", ";
+
+    // The version of each event counted in, by id
+    private final Map<String, EarthquakeEvent> mEvents = new HashMap<>();
+
+    private final long[] mBandCounts = new long[EarthquakeRow.MAGNITUDE_BUCKETS];
+    private final TimeBuckets mHours = new TimeBuckets(TimeUnit.HOURS.toMillis(1), HOURS);
+    private final TimeBuckets mDays = new TimeBuckets(TimeUnit.DAYS.toMillis(1), DAYS);
+    // Per region, the number of events per tenth of magnitude
+    private final Map<String, int[]> mRegionMagnitudes = new HashMap<>();
+
+    /**
+     * Makes the statistics cover exactly the events, only counting again the ones that changed
+     * since the last call. Deleted events are left out.
+     */
+    public void sync(List<EarthquakeEvent> events) {
+        Set<String> ids = new HashSet<>(events.size() * 2);
+        for (EarthquakeEvent event : events) {
+            if (event.getId() != null && !event.isDeleted()) {
+                ids.add(event.getId());
+            }
+            put(event);
+        }
+
+        Iterator<Map.Entry<String, EarthquakeEvent>> iterator = mEvents.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, EarthquakeEvent> entry = iterator.next();
+            if (!ids.contains(entry.getKey())) {
+                count(entry.getValue(), -1);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Counts the event in, replacing its previous version. A deleted event is removed.
+     */
+    public void put(EarthquakeEvent event) {
+        String id = event.getId();
+        if (id == null) {
+            return;
+        }
+        if (event.isDeleted()) {
+            remove(id);
+            return;
+        }
+        EarthquakeEvent previous = mEvents.put(id, event);
+        if (previous != null) {
+            if (isSameVersion(previous, event)) {
+                return;
+            }
+            count(previous, -1);
+        }
+        count(event, 1);
+    }
+
+    public void remove(String id) {
+        EarthquakeEvent previous = mEvents.remove(id);
+        if (previous != null) {
+            count(previous, -1);
+        }
+    }
+
+    /**
+     * The number of events counted in
+     */
+    public int size() {
+        return mEvents.size();
+    }
+
+    /**
+     * The number of events in each magnitude band, indexed by band
+     */
+    public long[] getCountsPerBand() {
+        return mBandCounts.clone();
+    }
+
+    /**
+     * The number of events in each of the last {@link #HOURS} hours, the current hour first
+     */
+    public long[] getCountsPerHour(long now) {
+        return mHours.getCounts(now);
+    }
+
+    /**
+     * The number of events in each of the last {@link #DAYS} UTC days, today first
+     */
+    public long[] getCountsPerDay(long now) {
+        return mDays.getCounts(now);
+    }
+
+    /**
+     * The strongest magnitude in the region to a tenth, or NaN if it has no events
+     */
+    public double getMaxMagnitude(String region) {
+        int[] steps = mRegionMagnitudes.get(region);
+        if (steps == null) {
+            return Double.NaN;
+        }
+        for (int step = MAGNITUDE_STEPS - 1; step >= 0; step--) {
+            if (steps[step] > 0) {
+                return step / 10.0;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * The strongest magnitude of every region with events
+     */
+    public Map<String, Double> getMaxMagnitudes() {
+        Map<String, Double> maxMagnitudes = new HashMap<>();
+        for (String region : mRegionMagnitudes.keySet()) {
+            maxMagnitudes.put(region, getMaxMagnitude(region));
+        }
+        return maxMagnitudes;
+    }
+
+    /**
+     * Writes the rollups in plain text, for dumpsys
+     */
+    public void dump(String prefix, PrintWriter writer, long now) {
+        writer.println(prefix + "Earthquake stats (" + mEvents.size() + " events):");
+        StringBuilder bands = new StringBuilder();
+        for (int band = 0; band < mBandCounts.length; band++) {
+            bands.append(band == mBandCounts.length - 1 ? " 10+:" : " " + band + ":").append(mBandCounts[band]);
+        }
+        writer.println(prefix + "  per band:" + bands);
+        writer.println(prefix + "  per hour, latest first: " + join(getCountsPerHour(now)));
+        writer.println(prefix + "  per day, latest first: " + join(getCountsPerDay(now)));
+        for (Map.Entry<String, Double> entry : getMaxMagnitudes().entrySet()) {
+            writer.println(prefix + String.format(Locale.US, "  max in %s: %.1f", entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * The region of a USGS place: what follows the distance and the last comma, such as
+     * "Alaska", or "the Fiji Islands" in "south of the Fiji Islands"
+     */
+    static String regionOf(String place) {
+        String location = place;
+        int separatorIndex = location.indexOf(LOCATION_SEPARATOR);
+        if (separatorIndex >= 0) {
+            location = location.substring(separatorIndex + LOCATION_SEPARATOR.length());
+        }
+        int regionIndex = location.lastIndexOf(REGION_SEPARATOR);
+        if (regionIndex >= 0) {
+            location = location.substring(regionIndex + REGION_SEPARATOR.length());
+        }
+        return location.trim();
+    }
+
+    /**
+     * Adds the event to every rollup, or takes it out with a delta of -1
+     */
+    private void count(EarthquakeEvent event, int delta) {
+        double magnitude = event.getMagnitude();
+        mBandCounts[bandOf(magnitude)] += delta;
+        mHours.add(event.getDate(), delta);
+        mDays.add(event.getDate(), delta);
+
+        if (Double.isNaN(magnitude) || event.getPlace() == null) {
+            return;
+        }
+        String region = regionOf(event.getPlace());
+        int[] steps = mRegionMagnitudes.get(region);
+        if (steps == null) {
+            steps = new int[MAGNITUDE_STEPS];
+            mRegionMagnitudes.put(region, steps);
+        }
+        int step = (int) Math.max(0, Math.min(MAGNITUDE_STEPS - 1, Math.floor(magnitude * 10 + 1e-9)));
+        steps[step] += delta;
+        if (delta < 0 && isEmpty(steps)) {
+            mRegionMagnitudes.remove(region);
+        }
+    }
+
+    /**
+     * The band of the magnitude. Unlike the row colors, negative magnitudes go with the
+     * weakest band, not with the out of range ones.
+     */
+    static int bandOf(double magnitude) {
+        if (Double.isNaN(magnitude) || magnitude < 0) {
+            return 0;
+        }
+        return (int) Math.min(Math.floor(magnitude), EarthquakeRow.MAGNITUDE_BUCKETS - 1);
+    }
+
+    private static boolean isSameVersion(EarthquakeEvent a, EarthquakeEvent b) {
+        if (a == b) {
+            return true;
+        }
+        // Same test as the list's diff, USGS bumps the updated time on any change
+        return a.getUpdated() == b.getUpdated()
+                && Double.compare(a.getMagnitude(), b.getMagnitude()) == 0
+                && a.getDate() == b.getDate()
+                && a.getPlace().equals(b.getPlace());
+    }
+
+    private static boolean isEmpty(int[] counts) {
+        for (int count : counts) {
+            if (count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String join(long[] counts) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(counts[i]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Counters for the latest fixed-length periods in a ring buffer. Moving to a new period
+     * recycles the slot of the oldest one, and counts for periods that fell out of the window
+     * are ignored, so taking an event out always undoes exactly what adding it did.
+     */
+    private static class TimeBuckets {
+        private final long mPeriodMillis;
+        private final long[] mCounts;
+        // Index since the epoch of the latest period in the buffer, -1 while empty
+        private long mLatest = -1;
+
+        TimeBuckets(long periodMillis, int periods) {
+            mPeriodMillis = periodMillis;
+            mCounts = new long[periods];
+        }
+
+        void add(long time, int delta) {
+            long period = periodOf(time);
+            advanceTo(period);
+            if (period > mLatest - mCounts.length) {
+                mCounts[slotOf(period)] += delta;
+            }
+        }
+
+        /**
+         * The counts of the latest periods up to the one holding the time, latest first
+         */
+        long[] getCounts(long now) {
+            advanceTo(periodOf(now));
+            long[] counts = new long[mCounts.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = mLatest - i < 0 ? 0 : mCounts[slotOf(mLatest - i)];
+            }
+            return counts;
+        }
+
+        private void advanceTo(long period) {
+            if (period <= mLatest) {
+                return;
+            }
+            long first = Math.max(mLatest + 1, period - mCounts.length + 1);
+            for (long p = first; p <= period; p++) {
+                mCounts[slotOf(p)] = 0;
+            }
+            mLatest = period;
+        }
+
+        /**
+         * The index since the epoch of the period holding the time, rounding down before 1970 too
+         */
+        private long periodOf(long time) {
+            return Math.floorDiv(time, mPeriodMillis);
+        }
+
+        private int slotOf(long period) {
+            return (int) Math.floorMod(period, (long) mCounts.length);
+        }
+    }
+}
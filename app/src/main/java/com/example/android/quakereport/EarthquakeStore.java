@@ -0,0 +1,300 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact columnar storage for large sets of earthquakes.
+ *
+ * <p>A {@link List} of {@link EarthquakeEvent} costs an object header, several references and
+ * two or three Strings per event. This store keeps every numeric field in a primitive array
+ * instead, dictionary-encodes the places (which repeat a lot across a catalog) and only keeps
+ * the URLs that can't be derived from the event id. Events are read back through a
+ * {@link Row}, a flyweight that is moved from index to index without allocating. The memory
+ * benchmark of debug builds compares it with a list of events.
+ *
+ * <p>The store isn't thread-safe, it must be confined to one thread or externally synchronized.
+ */
+public class EarthquakeStore {
+    // USGS event pages follow this pattern, URLs that match it aren't stored
+    private static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private int mSize;
+
+    // Magnitudes stay doubles so they compare with thresholds exactly as the events do (2.6f is
+    // less than 2.6). Coordinates don't need more precision than a float holds, about a meter.
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    private long[] mUpdated;
+    private float[] mLatitudes;
+    private float[] mLongitudes;
+    private float[] mDepths;
+    private String[] mIds;
+    private int[] mPlaceCodes;
+    // Only set for the URLs that aren't the event page of the id
+    private String[] mUrls;
+
+    // Place dictionary, codes index into mPlaces
+    private final Map<String, Integer> mPlaceCodesByPlace = new HashMap<>();
+    private final List<String> mPlaces = new ArrayList<>();
+
+    public EarthquakeStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of events to allocate room for up front
+     */
+    public EarthquakeStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mUpdated = new long[capacity];
+        mLatitudes = new float[capacity];
+        mLongitudes = new float[capacity];
+        mDepths = new float[capacity];
+        mIds = new String[capacity];
+        mPlaceCodes = new int[capacity];
+        mUrls = new String[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Appends the event, returning its index
+     */
+    public int add(EarthquakeEvent event) {
+        return add(event.getId(), event.getMagnitude(), event.getPlace(), event.getDate(),
+                event.getUpdated(), event.getURL(), event.getLatitude(), event.getLongitude(),
+                event.getDepth());
+    }
+
+    /**
+     * Appends an event from its raw fields, returning its index. Lets bulk loaders fill the
+     * store without creating an {@link EarthquakeEvent} per row.
+     */
+    public int add(String id, double magnitude, String place, long time, long updated, String url,
+                   double latitude, double longitude, double depth) {
+        ensureCapacity(mSize + 1);
+        int index = mSize;
+        mIds[index] = id;
+        mMagnitudes[index] = magnitude;
+        mPlaceCodes[index] = encodePlace(place);
+        mTimes[index] = time;
+        mUpdated[index] = updated;
+        mUrls[index] = isEventPageUrl(id, url) ? null : url;
+        mLatitudes[index] = (float) latitude;
+        mLongitudes[index] = (float) longitude;
+        mDepths[index] = (float) depth;
+        mSize++;
+        return index;
+    }
+
+    public void addAll(List<EarthquakeEvent> events) {
+        ensureCapacity(mSize + events.size());
+        for (EarthquakeEvent event : events) {
+            add(event);
+        }
+    }
+
+    /**
+     * Appends every event of the other store, copying the columns in bulk. Places are coded
+     * again against this store's dictionary, once per distinct place.
+     */
+    public void addAll(EarthquakeStore other) {
+        ensureCapacity(mSize + other.mSize);
+        System.arraycopy(other.mMagnitudes, 0, mMagnitudes, mSize, other.mSize);
+        System.arraycopy(other.mTimes, 0, mTimes, mSize, other.mSize);
+        System.arraycopy(other.mUpdated, 0, mUpdated, mSize, other.mSize);
+        System.arraycopy(other.mLatitudes, 0, mLatitudes, mSize, other.mSize);
+        System.arraycopy(other.mLongitudes, 0, mLongitudes, mSize, other.mSize);
+        System.arraycopy(other.mDepths, 0, mDepths, mSize, other.mSize);
+        System.arraycopy(other.mIds, 0, mIds, mSize, other.mSize);
+        System.arraycopy(other.mUrls, 0, mUrls, mSize, other.mSize);
+
+        int[] codes = new int[other.mPlaces.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = encodePlace(other.mPlaces.get(i));
+        }
+        for (int i = 0; i < other.mSize; i++) {
+            mPlaceCodes[mSize + i] = codes[other.mPlaceCodes[i]];
+        }
+        mSize += other.mSize;
+    }
+
+    /**
+     * Removes every event but keeps the allocated arrays and the place dictionary
+     */
+    public void clear() {
+        Arrays.fill(mIds, 0, mSize, null);
+        Arrays.fill(mUrls, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Releases the room allocated past the current size
+     */
+    public void trimToSize() {
+        resize(mSize);
+    }
+
+    public String getId(int index) {
+        return mIds[index];
+    }
+
+    public double getMagnitude(int index) {
+        return mMagnitudes[index];
+    }
+
+    public String getPlace(int index) {
+        return mPlaces.get(mPlaceCodes[index]);
+    }
+
+    /**
+     * The dictionary code of the place, equal codes mean equal places
+     */
+    public int getPlaceCode(int index) {
+        return mPlaceCodes[index];
+    }
+
+    public long getDate(int index) {
+        return mTimes[index];
+    }
+
+    public long getUpdated(int index) {
+        return mUpdated[index];
+    }
+
+    public String getURL(int index) {
+        String url = mUrls[index];
+        return url != null ? url : EVENT_PAGE_URL + mIds[index];
+    }
+
+    public double getLatitude(int index) {
+        return mLatitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return mLongitudes[index];
+    }
+
+    public double getDepth(int index) {
+        return mDepths[index];
+    }
+
+    /**
+     * Creates a standalone {@link EarthquakeEvent} for the event at the index
+     */
+    public EarthquakeEvent toEvent(int index) {
+        EarthquakeEvent event = new EarthquakeEvent(getId(index), getMagnitude(index),
+                getPlace(index), getDate(index), getUpdated(index), getURL(index));
+        event.setLocation(getLatitude(index), getLongitude(index), getDepth(index));
+        return event;
+    }
+
+    /**
+     * Returns a new flyweight positioned on the first event
+     */
+    public Row newRow() {
+        return new Row();
+    }
+
+    /**
+     * A reusable view of one event of the store, moved around with {@link #moveTo(int)}
+     */
+    public final class Row {
+        private int mIndex;
+
+        private Row() {
+        }
+
+        public Row moveTo(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+            }
+            mIndex = index;
+            return this;
+        }
+
+        public int getIndex() {
+            return mIndex;
+        }
+
+        public String getId() {
+            return EarthquakeStore.this.getId(mIndex);
+        }
+
+        public double getMagnitude() {
+            return EarthquakeStore.this.getMagnitude(mIndex);
+        }
+
+        public String getPlace() {
+            return EarthquakeStore.this.getPlace(mIndex);
+        }
+
+        public long getDate() {
+            return EarthquakeStore.this.getDate(mIndex);
+        }
+
+        public long getUpdated() {
+            return EarthquakeStore.this.getUpdated(mIndex);
+        }
+
+        public String getURL() {
+            return EarthquakeStore.this.getURL(mIndex);
+        }
+
+        public double getLatitude() {
+            return EarthquakeStore.this.getLatitude(mIndex);
+        }
+
+        public double getLongitude() {
+            return EarthquakeStore.this.getLongitude(mIndex);
+        }
+
+        public double getDepth() {
+            return EarthquakeStore.this.getDepth(mIndex);
+        }
+    }
+
+    private int encodePlace(String place) {
+        Integer code = mPlaceCodesByPlace.get(place);
+        if (code == null) {
+            code = mPlaces.size();
+            mPlaces.add(place);
+            mPlaceCodesByPlace.put(place, code);
+        }
+        return code;
+    }
+
+    private static boolean isEventPageUrl(String id, String url) {
+        return id != null && url != null && url.length() == EVENT_PAGE_URL.length() + id.length()
+                && url.startsWith(EVENT_PAGE_URL) && url.endsWith(id);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mTimes.length) {
+            // Grow by half like ArrayList does
+            resize(Math.max(capacity, mTimes.length + (mTimes.length >> 1)));
+        }
+    }
+
+    private void resize(int capacity) {
+        mMagnitudes = Arrays.copyOf(mMagnitudes, capacity);
+        mTimes = Arrays.copyOf(mTimes, capacity);
+        mUpdated = Arrays.copyOf(mUpdated, capacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+        mDepths = Arrays.copyOf(mDepths, capacity);
+        mIds = Arrays.copyOf(mIds, capacity);
+        mPlaceCodes = Arrays.copyOf(mPlaceCodes, capacity);
+        mUrls = Arrays.copyOf(mUrls, capacity);
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the cached events of a query up to date by only downloading what USGS added, changed
+ * or deleted since the newest update we have seen, and merging it in by event id.
+ */
+public class EarthquakeSync {
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EarthquakeSync.class.getSimpleName();
+
+    // Changes are paged through this many delta pages at most, a busier feed refetches the page
+    private static final int MAX_DELTA_PAGES = 5;
+
+    private final EarthquakeCache mCache;
+    private final EarthquakeFetcher mFetcher;
+
+    public EarthquakeSync(EarthquakeCache cache) {
+        this(cache, new EarthquakeFetcher());
+    }
+
+    EarthquakeSync(EarthquakeCache cache, EarthquakeFetcher fetcher) {
+        mCache = cache;
+        mFetcher = fetcher;
+    }
+
+    /**
+     * Returns the events cached for the query, or null if it was never synced
+     */
+    public EarthquakeCache.Entry getCached(EarthquakeQuery query) {
+        return mCache.get(query.toUrl());
+    }
+
+    /**
+     * Brings the cached events of the query up to date with USGS. Like a response of USGS, the
+     * synced events are fewer than the limit of the query only when there are no others.
+     *
+     * @param query  the query to sync
+     * @param cached the current cache entry of the query, or null
+     * @return the up to date events, or the error along with the cached events if USGS
+     * couldn't be synced with
+     */
+    public EarthquakeResult sync(EarthquakeQuery query, EarthquakeCache.Entry cached) {
+        try {
+            return EarthquakeResult.success(syncOrThrow(query, cached).getEvents());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem syncing " + query.toUrl(), e);
+            return EarthquakeResult.failure(EarthquakeFetcher.errorOf(e),
+                    cached == null ? null : cached.getEvents());
+        }
+    }
+
+    /**
+     * Like {@link #sync(EarthquakeQuery, EarthquakeCache.Entry)}, but serves events synced less
+     * than the given time ago without asking USGS. Only for background work, what the user is
+     * shown always revalidates with USGS.
+     */
+    public EarthquakeResult syncIfStale(EarthquakeQuery query, EarthquakeCache.Entry cached, long maxAgeMillis) {
+        if (cached != null && System.currentTimeMillis() - cached.getFetchedAt() < maxAgeMillis) {
+            return EarthquakeResult.success(cached.getEvents());
+        }
+        return sync(query, cached);
+    }
+
+    /**
+     * Caches events for the query that were derived from the synced events of another query.
+     * They have no validators of their own, so the next sync fetches their changes as a delta.
+     *
+     * @param fetchedAt when the events they were derived from were fetched
+     */
+    public void seed(EarthquakeQuery query, List<EarthquakeEvent> events, long fetchedAt) {
+        mCache.put(query.toUrl(), new EarthquakeCache.Entry(events, null, null, fetchedAt));
+    }
+
+    private EarthquakeCache.Entry syncOrThrow(EarthquakeQuery query, EarthquakeCache.Entry cached)
+            throws IOException {
+        if (cached == null || cached.getEvents().isEmpty() || !query.isFirstPage()) {
+            // Nothing to build on, or a later page which shifts as soon as anything before it
+            // changes, so revalidate the whole page
+            return fetchPage(query, cached);
+        }
+
+        // The validators are those of the last delta, which asked for this same URL unless
+        // something changed since, so an idle feed costs a 304
+        long newestUpdate = getNewestUpdate(cached.getEvents());
+        EarthquakeCache.Entry delta = mFetcher.fetch(query.toDeltaUrl(newestUpdate), cached);
+
+        List<EarthquakeEvent> events = cached.getEvents();
+        if (delta.getEvents() != cached.getEvents()) {
+            // A full delta page may hide more changes past its limit, which would be lost for
+            // good once the newest update moves past them
+            List<EarthquakeEvent> changes = delta.getEvents();
+            List<EarthquakeEvent> page = changes;
+            EarthquakeQuery deltaQuery = query;
+            for (int pages = 1; page.size() >= query.getLimit(); pages++) {
+                if (pages == MAX_DELTA_PAGES) {
+                    return fetchPage(query, null);
+                }
+                deltaQuery = deltaQuery.nextPage();
+                page = mFetcher.fetch(deltaQuery.toDeltaUrl(newestUpdate), null).getEvents();
+                changes = new ArrayList<>(changes);
+                changes.addAll(page);
+            }
+
+            events = merge(cached.getEvents(), changes, query);
+            if (events.size() < query.getLimit() && cached.getEvents().size() >= query.getLimit()) {
+                // Deletions left a gap at the end of a full page that only USGS can fill, a
+                // short page would read as the end of the results
+                return fetchPage(query, null);
+            }
+        }
+        EarthquakeCache.Entry synced = new EarthquakeCache.Entry(events, delta.getETag(),
+                delta.getLastModified(), delta.getFetchedAt());
+        mCache.put(query.toUrl(), synced);
+        return synced;
+    }
+
+    /**
+     * Fetches the whole page of the query, revalidating the cached response if there is one
+     */
+    private EarthquakeCache.Entry fetchPage(EarthquakeQuery query, EarthquakeCache.Entry cached)
+            throws IOException {
+        EarthquakeCache.Entry response = mFetcher.fetch(query.toUrl(), cached);
+        mCache.put(query.toUrl(), response);
+        return response;
+    }
+
+    /**
+     * Applies the changed events on top of the current ones, keyed by event id, then restores
+     * the query's ordering and limit
+     */
+    static List<EarthquakeEvent> merge(List<EarthquakeEvent> current, List<EarthquakeEvent> changes,
+                                       EarthquakeQuery query) {
+        if (changes.isEmpty()) {
+            return current;
+        }
+        long diffStart = Metrics.start();
+
+        Map<String, EarthquakeEvent> eventsById = new LinkedHashMap<>();
+        for (EarthquakeEvent event : current) {
+            eventsById.put(event.getId(), event);
+        }
+        for (EarthquakeEvent change : changes) {
+            if (change.isDeleted()) {
+                eventsById.remove(change.getId());
+            } else {
+                eventsById.put(change.getId(), change);
+            }
+        }
+
+        List<EarthquakeEvent> merged = new ArrayList<>(eventsById.values());
+        Collections.sort(merged, query.getComparator());
+        if (merged.size() > query.getLimit()) {
+            merged = new ArrayList<>(merged.subList(0, query.getLimit()));
+        }
+        Metrics.stop(Metrics.Stage.DIFF, diffStart);
+        return merged;
+    }
+
+    private static long getNewestUpdate(List<EarthquakeEvent> events) {
+        long newestUpdate = 0;
+        for (EarthquakeEvent event : events) {
+            newestUpdate = Math.max(newestUpdate, event.getUpdated());
+        }
+        return newestUpdate;
+    }
+}
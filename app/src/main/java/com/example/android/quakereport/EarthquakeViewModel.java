@@ -7,24 +7,152 @@ import android.arch.lifecycle.MutableLiveData;
 import android.arch.lifecycle.ViewModel;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class EarthquakeViewModel extends AndroidViewModel {
-    private static final String QUERY_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EarthquakeViewModel.class.getSimpleName();
+
+    // Paging stops once this many earthquakes are held in memory
+    private static final int MAX_RETAINED_EARTHQUAKES = 1000;
+    // USGS rejects queries asking for more events than this
+    private static final int MAX_QUERY_LIMIT = 20000;
+
+    // Watched regions beyond this many are ignored, so they can't flood the loading pool
+    private static final int MAX_WATCHED_REGIONS = 8;
+
+    // The summary feeds are regenerated every minute
+    private static final long LIVE_POLL_INTERVAL_MILLIS = 60 * 1000;
+    // The live feed keeps the list's state apart from that of the notifications
+    private static final String LIVE_FEED_CONSUMER = "list";
 
 
     private MutableLiveData<List<EarthquakeEvent>> earthquakes;
+    // Why the latest load failed, null once a load succeeds
+    private final MutableLiveData<EarthquakeResult.Error> mLoadError = new MutableLiveData<>();
+    // The changes the live feed found in its latest poll
+    private final MutableLiveData<EarthquakeChanges> mLiveChanges = new MutableLiveData<>();
+
+    private final EarthquakeLoader mLoader;
+    private final EarthquakeLoader mPageLoader;
+    // Loads the watched regions, when there are any, instead of the first page
+    private final EarthquakeFanOut mFanOut;
+    private final SharedPreferences mSharedPreferences;
+
+    // Polls the summary feed on its own thread while live updates are on
+    private final EarthquakeLiveFeed mLiveFeed;
+    private final ExecutorService mLiveFeedExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mPollLiveFeed = this::pollLiveFeed;
+    private boolean mLiveUpdates;
+
+    // The first page is synced on its own, the following pages are appended after it. Null
+    // while watched regions are shown, which have neither pages nor live updates.
+    private EarthquakeQuery mFirstPageQuery;
+    private List<EarthquakeEvent> mFirstPage;
+    private final List<EarthquakeEvent> mNextPages = new ArrayList<>();
+    private EarthquakeQuery mNextPageQuery;
+    private boolean mLoadingNextPage;
+    // Whether a page came back short from USGS, so every event matching the first page query
+    // is loaded. Counting the loaded events can't tell once duplicates and deletions are dropped.
+    private boolean mExhausted;
+
+    // Everything loaded so far, and the engine answering queries over it, built on demand
+    private List<EarthquakeEvent> mLoadedEarthquakes;
+    private EarthquakeQueryEngine mQueryEngine;
+    private EarthquakeSpatialIndex mSpatialIndex;
+    // Rollups of the loaded earthquakes, updated along with them
+    private final EarthquakeStats mStats = new EarthquakeStats();
+    private final EarthquakeClusterer mClusterer = new EarthquakeClusterer();
+    private String mPlaceFilter = "";
+    // Latitude, longitude and radius in kilometers of the area to show, null to show everywhere
+    private double[] mNearFilter;
+
+    // Reloads when the query settings change, kept in a field since preferences only hold weak references to listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener = (SharedPreferences sharedPreferences, String key) -> {
+        if (earthquakes != null && isQueryKey(key)) {
+            loadEarthquakes();
+        }
+    };
+
+    private final EarthquakeLoader.Listener mFirstPageListener = new EarthquakeLoader.Listener() {
+        @Override
+        public void onCachedEvents(List<EarthquakeEvent> events) {
+            onFirstPageLoaded(events);
+        }
+
+        @Override
+        public void onResult(EarthquakeResult result) {
+            mLoadError.setValue(result.getError());
+            // An unchanged feed hands back the very list already on screen, and so does a failed
+            // sync of a cached query, no need to rebind it
+            if (result.getEvents() != mFirstPage) {
+                onFirstPageLoaded(result.getEvents());
+            }
+        }
+    };
+
+    private final EarthquakeLoader.Listener mNextPageListener = new EarthquakeLoader.Listener() {
+        @Override
+        public void onCachedEvents(List<EarthquakeEvent> events) {
+            // Wait for the synced page, appending twice would shift the list under the user
+        }
+
+        @Override
+        public void onResult(EarthquakeResult result) {
+            mLoadError.setValue(result.getError());
+            onNextPageLoaded(result.isSuccess() ? result.getEvents() : null);
+        }
+    };
+
+    private final EarthquakeFanOut.Listener mFanOutListener = new EarthquakeFanOut.Listener() {
+        @Override
+        public void onEvents(List<EarthquakeEvent> events) {
+            mFirstPage = events;
+            publishEarthquakes();
+        }
+
+        @Override
+        public void onComplete(EarthquakeResult.Error error) {
+            mLoadError.setValue(error);
+            if (mFirstPage == null) {
+                // No region had anything to show, not even from the cache
+                mStats.sync(Collections.<EarthquakeEvent>emptyList());
+                mClusterer.sync(Collections.<EarthquakeEvent>emptyList());
+                earthquakes.setValue(null);
+            }
+        }
+    };
 
     public EarthquakeViewModel(@NonNull Application application) {
         super(application);
+        EarthquakeSync sync = new EarthquakeSync(EarthquakeCache.getInstance(application));
+        mLoader = new EarthquakeLoader(sync);
+        mPageLoader = new EarthquakeLoader(sync);
+        mFanOut = new EarthquakeFanOut(sync);
+        mLiveFeed = new EarthquakeLiveFeed(EarthquakeCache.getInstance(application), LIVE_FEED_CONSUMER);
+
+        // Getting a shared preferences instance
+        mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(application.getApplicationContext());
+        mSharedPreferences.registerOnSharedPreferenceChangeListener(mPreferenceListener);
     }
 
     public LiveData<List<EarthquakeEvent>> getEarthquakes() {
@@ -35,45 +163,466 @@ public class EarthquakeViewModel extends AndroidViewModel {
         return earthquakes;
     }
 
+    /**
+     * Whether earthquakes were loaded already, which {@link #getEarthquakes()} then hands out
+     * right away
+     */
+    public boolean hasEarthquakes() {
+        return earthquakes != null && earthquakes.getValue() != null;
+    }
+
+    /**
+     * Counts and maxima of the loaded earthquakes, before the place and distance filters.
+     * Only to be read on the main thread.
+     */
+    public EarthquakeStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Map clusters of the loaded earthquakes, before the place and distance filters, synced
+     * with each list published. Only to be read on the main thread.
+     */
+    public EarthquakeClusterer getClusterer() {
+        return mClusterer;
+    }
+
+    /**
+     * The loaded earthquakes, before the place and distance filters, or null before the first
+     * load. Only to be read on the main thread.
+     */
+    public List<EarthquakeEvent> getLoadedEarthquakes() {
+        return mLoadedEarthquakes;
+    }
+
+    /**
+     * The loaded earthquake with the id, or null
+     */
+    public EarthquakeEvent findEarthquake(String id) {
+        if (mLoadedEarthquakes != null) {
+            for (EarthquakeEvent event : mLoadedEarthquakes) {
+                if (id.equals(event.getId())) {
+                    return event;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Why the latest load from USGS failed, or null if it succeeded. The earthquakes shown
+     * after a failure are the last ones that were synced.
+     */
+    public LiveData<EarthquakeResult.Error> getLoadError() {
+        return mLoadError;
+    }
+
+    /**
+     * The earthquakes the live feed found added, updated or removed, only the changes of each
+     * poll. They are merged into {@link #getEarthquakes()} as well.
+     */
+    public LiveData<EarthquakeChanges> getLiveChanges() {
+        return mLiveChanges;
+    }
+
+    /**
+     * Starts or stops following the USGS summary feed for changes to the first page, meant to
+     * be on while the earthquakes are on screen
+     */
+    public void setLiveUpdates(boolean enabled) {
+        if (enabled == mLiveUpdates) {
+            return;
+        }
+        mLiveUpdates = enabled;
+        mMainHandler.removeCallbacks(mPollLiveFeed);
+        if (enabled) {
+            mMainHandler.postDelayed(mPollLiveFeed, LIVE_POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Syncs the first page again, even when the loaded earthquakes could answer its query as
+     * they do after a settings change. The cached response is revalidated, so an unchanged
+     * feed costs a 304.
+     */
+    public void refresh() {
+        if (earthquakes == null) {
+            return;
+        }
+        if (mFirstPageQuery == null) {
+            // Watched regions, or nothing loaded yet
+            loadEarthquakes();
+            return;
+        }
+        mLoader.load(mFirstPageQuery, mFirstPageListener);
+    }
+
+    /**
+     * Fetches the page after the loaded earthquakes in the background, unless it is already
+     * loading, the results are exhausted or the memory ceiling is reached
+     */
+    public void loadMoreEarthquakes() {
+        if (mNextPageQuery == null || mLoadingNextPage) {
+            return;
+        }
+        if (mFirstPage.size() + mNextPages.size() >= MAX_RETAINED_EARTHQUAKES) {
+            return;
+        }
+        mLoadingNextPage = true;
+        mPageLoader.load(mNextPageQuery, mNextPageListener);
+    }
+
+    /**
+     * Only shows the loaded earthquakes whose place contains the text, an empty text shows all
+     */
+    public void setPlaceFilter(String text) {
+        mPlaceFilter = text == null ? "" : text.trim();
+        if (mLoadedEarthquakes != null) {
+            earthquakes.setValue(applyFilters());
+        }
+    }
+
+    /**
+     * Only shows the loaded earthquakes within the radius of the point
+     */
+    public void setNearFilter(double latitude, double longitude, double radiusKm) {
+        mNearFilter = new double[]{latitude, longitude, radiusKm};
+        if (mLoadedEarthquakes != null) {
+            earthquakes.setValue(applyFilters());
+        }
+    }
+
+    public void clearNearFilter() {
+        mNearFilter = null;
+        if (mLoadedEarthquakes != null) {
+            earthquakes.setValue(applyFilters());
+        }
+    }
+
+    public boolean hasNearFilter() {
+        return mNearFilter != null;
+    }
+
+    @Override
+    protected void onCleared() {
+        mSharedPreferences.unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
+        // Nobody is left to show the results
+        mLoader.cancel();
+        mPageLoader.cancel();
+        mFanOut.cancel();
+        setLiveUpdates(false);
+        mLiveFeedExecutor.shutdownNow();
+    }
+
     private void loadEarthquakes() {
-        EarthquakesAsyncTask earthquakesAsyncTask = new EarthquakesAsyncTask();
+        EarthquakeQuery query = new EarthquakeQuery(getMinMagnitude(), getOrderBy(), getPageSize());
+        List<EarthquakeQuery> regionQueries = getWatchedRegionQueries(query);
 
-        // Getting a shared preferences instance
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this.getApplication().getApplicationContext());
+        // Answer from the loaded earthquakes when they hold everything USGS would return,
+        // which the merged events of watched regions never do
+        EarthquakeQueryEngine queryEngine = mFirstPageQuery != null ? getQueryEngine() : null;
+        boolean answeredLocally = regionQueries.isEmpty() && queryEngine != null && queryEngine.covers(query);
+        List<EarthquakeEvent> localEarthquakes = answeredLocally ? queryEngine.query(query) : null;
 
-        // Getting the minimum magnitude from shared preferences
-        String minMagnitude = sharedPreferences.getString(getApplication().getString(R.string.settings_min_magnitude_key),
-                getApplication().getString(R.string.settings_min_magnitude_default));
+        // Pages loaded for the previous settings don't belong to the new results
+        mPageLoader.cancel();
+        mNextPages.clear();
+        mNextPageQuery = null;
+        mLoadingNextPage = false;
+        mExhausted = false;
 
-        // Getting the order_by parameter value from shared preferences
-        String orderBy = sharedPreferences.getString(getApplication().getString(R.string.settings_order_by_key),
-                getApplication().getString(R.string.settings_order_by_default));
+        if (!regionQueries.isEmpty()) {
+            loadWatchedRegions(regionQueries);
+            return;
+        }
+        mFanOut.cancel();
+        mFirstPageQuery = query;
+        // Keep what the user looks at warm in the background
+        EarthquakePrefetcher.recordActiveQuery(getApplication(), query);
+
+        if (answeredLocally) {
+            mLoader.cancel();
+            mLoadError.setValue(null);
+            onFirstPageLoaded(localEarthquakes);
+        } else {
+            mLoader.load(mFirstPageQuery, mFirstPageListener);
+        }
+    }
+
+    /**
+     * Loads every watched region at once, showing the merged earthquakes as the regions come in
+     */
+    private void loadWatchedRegions(List<EarthquakeQuery> queries) {
+        mLoader.cancel();
+        mFirstPageQuery = null;
+        mFirstPage = null;
+        mLoadedEarthquakes = null;
+        mQueryEngine = null;
+        mSpatialIndex = null;
+        for (EarthquakeQuery query : queries) {
+            EarthquakePrefetcher.recordActiveQuery(getApplication(), query);
+        }
+        mFanOut.load(queries, mFanOutListener);
+    }
 
-        // Getting the base URI and preparing it for query formatting
-        Uri baseUri = Uri.parse(QUERY_URL);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
+    /**
+     * Polls the live feed in the background and schedules the next poll once it is done, so
+     * a slow poll never overlaps the next one
+     */
+    private void pollLiveFeed() {
+        EarthquakeQuery query = mFirstPageQuery;
+        if (query == null) {
+            mMainHandler.postDelayed(mPollLiveFeed, LIVE_POLL_INTERVAL_MILLIS);
+            return;
+        }
+        double minMagnitude;
+        try {
+            minMagnitude = Double.parseDouble(query.getMinMagnitude());
+        } catch (NumberFormatException | NullPointerException e) {
+            minMagnitude = 0;
+        }
+        double feedMinMagnitude = minMagnitude;
 
-        uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("limit", "20");
-        uriBuilder.appendQueryParameter("minmag", minMagnitude);
-        uriBuilder.appendQueryParameter("orderby", orderBy);
+        mLiveFeedExecutor.execute(() -> {
+            EarthquakeChanges changes;
+            try {
+                changes = mLiveFeed.poll(feedMinMagnitude);
+                EarthquakeFormatter.get().prepare(changes.getAdded());
+                EarthquakeFormatter.get().prepare(changes.getUpdated());
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem polling the live feed", e);
+                changes = EarthquakeChanges.none();
+            }
+            EarthquakeChanges polled = changes;
+            mMainHandler.post(() -> {
+                if (!mLiveUpdates) {
+                    return;
+                }
+                // Changes for other settings don't belong to the earthquakes shown now
+                if (query == mFirstPageQuery) {
+                    onLiveChanges(polled);
+                }
+                mMainHandler.postDelayed(mPollLiveFeed, LIVE_POLL_INTERVAL_MILLIS);
+            });
+        });
+    }
 
+    private void onLiveChanges(EarthquakeChanges changes) {
+        if (changes.isEmpty() || mFirstPage == null) {
+            return;
+        }
+        mLiveChanges.setValue(changes);
+        List<EarthquakeEvent> previousFirstPage = mFirstPage;
+        List<EarthquakeEvent> changed = changes.toEvents();
+        mFirstPage = EarthquakeSync.merge(mFirstPage, changed, mFirstPageQuery);
+        publishChanges(previousFirstPage, changed);
+    }
 
-        earthquakesAsyncTask.execute(uriBuilder.toString());
+    private void onFirstPageLoaded(List<EarthquakeEvent> events) {
+        mFirstPage = events;
+        if (events == null) {
+            mNextPageQuery = null;
+            mLoadedEarthquakes = null;
+            mQueryEngine = null;
+            mStats.sync(Collections.<EarthquakeEvent>emptyList());
+            mClusterer.sync(Collections.<EarthquakeEvent>emptyList());
+            earthquakes.setValue(null);
+            return;
+        }
+        // Once the user paged further, a refreshed first page doesn't change where paging resumes.
+        // Answers from the loaded earthquakes are exactly what USGS would return, short ones too.
+        if (mNextPages.isEmpty() && !mLoadingNextPage) {
+            mExhausted = events.size() < mFirstPageQuery.getLimit();
+            mNextPageQuery = mExhausted ? null : mFirstPageQuery.nextPage();
+        }
+        publishEarthquakes();
     }
 
-    private class EarthquakesAsyncTask extends AsyncTask<String, Void, List<EarthquakeEvent>> {
-        @Override
-        protected List<EarthquakeEvent> doInBackground(String... strings) {
-            if (strings.length < 1 || strings[0].isEmpty()){
-                return null;
+    private void onNextPageLoaded(List<EarthquakeEvent> events) {
+        mLoadingNextPage = false;
+        if (events == null) {
+            // Leave mNextPageQuery as it is so scrolling retries the same page
+            return;
+        }
+        mNextPages.addAll(events);
+        // A short page means USGS has nothing more for this query
+        mExhausted = events.size() < mNextPageQuery.getLimit();
+        mNextPageQuery = mExhausted ? null : mNextPageQuery.nextPage();
+        publishChanges(Collections.<EarthquakeEvent>emptyList(), events);
+    }
+
+    /**
+     * Publishes the earthquakes after a full reload, recounting the rollups against all of them
+     */
+    private void publishEarthquakes() {
+        collectLoadedEarthquakes();
+        mStats.sync(mLoadedEarthquakes);
+        mClusterer.sync(mLoadedEarthquakes);
+        earthquakes.setValue(applyFilters());
+    }
+
+    /**
+     * Publishes the earthquakes after some of them changed, only counting and clustering those
+     * again
+     *
+     * @param previous events that were loaded before and may have been replaced or dropped
+     * @param changed  events that may have been added
+     */
+    private void publishChanges(List<EarthquakeEvent> previous, List<EarthquakeEvent> changed) {
+        Map<String, EarthquakeEvent> loaded = collectLoadedEarthquakes();
+        for (EarthquakeEvent event : previous) {
+            EarthquakeEvent current = loaded.get(event.getId());
+            if (current == null) {
+                mStats.remove(event.getId());
+                mClusterer.remove(event.getId());
+            } else if (current != event) {
+                mStats.put(current);
+                mClusterer.put(current);
+            }
+        }
+        for (EarthquakeEvent event : changed) {
+            // Left out when the page limit cut it or another page already holds it
+            if (loaded.get(event.getId()) == event) {
+                mStats.put(event);
+                mClusterer.put(event);
             }
-            return QueryUtils.fetchEarthquakeEvents(strings[0]);
         }
+        earthquakes.setValue(applyFilters());
+    }
 
-        @Override
-        protected void onPostExecute(List<EarthquakeEvent> earthquakeEvents) {
-            earthquakes.setValue(earthquakeEvents);
+    /**
+     * Joins the first page and the next ones, dropping events that moved between pages since
+     * they were fetched, and returns the loaded earthquakes by id
+     */
+    private Map<String, EarthquakeEvent> collectLoadedEarthquakes() {
+        List<EarthquakeEvent> all = new ArrayList<>(mFirstPage.size() + mNextPages.size());
+        Map<String, EarthquakeEvent> loaded = new HashMap<>();
+        for (EarthquakeEvent event : mFirstPage) {
+            if (!loaded.containsKey(event.getId())) {
+                loaded.put(event.getId(), event);
+                all.add(event);
+            }
+        }
+        for (EarthquakeEvent event : mNextPages) {
+            if (!loaded.containsKey(event.getId())) {
+                loaded.put(event.getId(), event);
+                all.add(event);
+            }
+        }
+        mLoadedEarthquakes = all;
+        mQueryEngine = null;
+        mSpatialIndex = null;
+        return loaded;
+    }
+
+    private List<EarthquakeEvent> applyFilters() {
+        List<EarthquakeEvent> filtered = mLoadedEarthquakes;
+        if (!mPlaceFilter.isEmpty()) {
+            filtered = getQueryEngine().searchPlace(mPlaceFilter);
+        }
+        if (mNearFilter != null) {
+            if (mSpatialIndex == null) {
+                mSpatialIndex = new EarthquakeSpatialIndex(mLoadedEarthquakes);
+            }
+            Set<EarthquakeEvent> nearby = new HashSet<>(
+                    mSpatialIndex.withinRadius(mNearFilter[0], mNearFilter[1], mNearFilter[2]));
+            // Keep the order of the query rather than the distance order of the index
+            List<EarthquakeEvent> nearbyFiltered = new ArrayList<>(nearby.size());
+            for (EarthquakeEvent event : filtered) {
+                if (nearby.contains(event)) {
+                    nearbyFiltered.add(event);
+                }
+            }
+            filtered = nearbyFiltered;
+        }
+        return filtered;
+    }
+
+    /**
+     * Returns the engine over the loaded earthquakes, or null if nothing is loaded
+     */
+    private EarthquakeQueryEngine getQueryEngine() {
+        if (mQueryEngine == null && mLoadedEarthquakes != null) {
+            // The loaded earthquakes are the results of the first page query stretched over
+            // every page requested so far. Those of watched regions are only searched, no
+            // magnitude stands for all of them.
+            EarthquakeQuery sourceQuery = mFirstPageQuery != null
+                    ? mFirstPageQuery
+                    : new EarthquakeQuery(null, getOrderBy(), getPageSize());
+            mQueryEngine = new EarthquakeQueryEngine(mLoadedEarthquakes, sourceQuery,
+                    mFirstPageQuery != null && mExhausted);
+        }
+        return mQueryEngine;
+    }
+
+    private boolean isQueryKey(String key) {
+        return getApplication().getString(R.string.settings_min_magnitude_key).equals(key)
+                || getApplication().getString(R.string.settings_order_by_key).equals(key)
+                || getApplication().getString(R.string.settings_page_size_key).equals(key)
+                || getApplication().getString(R.string.settings_watched_regions_key).equals(key);
+    }
+
+    /**
+     * The query of each watched region, one per line of the setting as
+     * "latitude, longitude, radius in km" and an optional minimum magnitude overriding the
+     * one of the base query. Empty if no region is watched.
+     */
+    private List<EarthquakeQuery> getWatchedRegionQueries(EarthquakeQuery baseQuery) {
+        String regions = mSharedPreferences.getString(
+                getApplication().getString(R.string.settings_watched_regions_key), "");
+        List<EarthquakeQuery> queries = new ArrayList<>();
+        for (String line : regions.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            if (parts.length != 3 && parts.length != 4) {
+                Log.e(LOG_TAG, "Invalid watched region " + line);
+                continue;
+            }
+            try {
+                EarthquakeQuery query = baseQuery;
+                if (parts.length == 4) {
+                    String minMagnitude = parts[3].trim();
+                    // Rejects the line if the magnitude isn't a number
+                    Double.parseDouble(minMagnitude);
+                    query = new EarthquakeQuery(minMagnitude, baseQuery.getOrderBy(), baseQuery.getLimit());
+                }
+                queries.add(query.inRegion(Double.parseDouble(parts[0].trim()),
+                        Double.parseDouble(parts[1].trim()), Double.parseDouble(parts[2].trim())));
+            } catch (NumberFormatException e) {
+                Log.e(LOG_TAG, "Invalid watched region " + line);
+            }
+            if (queries.size() == MAX_WATCHED_REGIONS) {
+                break;
+            }
+        }
+        return queries;
+    }
+
+    private String getMinMagnitude() {
+        // Getting the minimum magnitude from shared preferences
+        return mSharedPreferences.getString(getApplication().getString(R.string.settings_min_magnitude_key),
+                getApplication().getString(R.string.settings_min_magnitude_default));
+    }
+
+    private String getOrderBy() {
+        // Getting the order_by parameter value from shared preferences
+        return mSharedPreferences.getString(getApplication().getString(R.string.settings_order_by_key),
+                getApplication().getString(R.string.settings_order_by_default));
+    }
+
+    private int getPageSize() {
+        String defaultPageSize = getApplication().getString(R.string.settings_page_size_default);
+        String pageSize = mSharedPreferences.getString(getApplication().getString(R.string.settings_page_size_key),
+                defaultPageSize);
+        try {
+            // A single page is never worth more than paging would ever hold
+            return Math.max(1, Math.min(Math.min(MAX_RETAINED_EARTHQUAKES, MAX_QUERY_LIMIT),
+                    Integer.parseInt(pageSize)));
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Invalid page size " + pageSize);
+            return Integer.parseInt(defaultPageSize);
         }
     }
 }
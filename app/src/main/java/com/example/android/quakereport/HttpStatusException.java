@@ -0,0 +1,29 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers a request with a status the app can't use
+ */
+public class HttpStatusException extends IOException {
+    private final int mResponseCode;
+    private final long mRetryAfterMillis;
+
+    /**
+     * @param responseCode     the HTTP status code
+     * @param retryAfterMillis how long the server asked to wait before retrying, or -1
+     */
+    public HttpStatusException(int responseCode, long retryAfterMillis) {
+        super("Error response code: " + responseCode);
+        mResponseCode = responseCode;
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+}
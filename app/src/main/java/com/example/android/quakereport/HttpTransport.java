@@ -0,0 +1,37 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Performs the HTTP requests of {@link QueryUtils}, so the way connections are made can be
+ * swapped, for example for a fake serving canned responses.
+ */
+public interface HttpTransport {
+    /**
+     * Sends a GET request with the given headers and returns once the status line and headers
+     * have arrived. The caller must close the response.
+     */
+    Response get(URL url, Map<String, String> headers) throws IOException;
+
+    /**
+     * A response whose body is read as a stream. Closing it lets the transport reuse the
+     * connection for the next request.
+     */
+    interface Response extends Closeable {
+        int getCode() throws IOException;
+
+        /**
+         * Returns the value of the header, or null if the response doesn't have it
+         */
+        String getHeader(String name);
+
+        /**
+         * The raw body, still compressed if the server applied a Content-Encoding
+         */
+        InputStream getBody() throws IOException;
+    }
+}
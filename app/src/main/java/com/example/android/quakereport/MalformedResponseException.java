@@ -0,0 +1,12 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a response parses but doesn't have the shape of a USGS GeoJSON response
+ */
+public class MalformedResponseException extends IOException {
+    public MalformedResponseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.android.quakereport;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lightweight timers and counters for the hot paths: fetching, parsing, diffing and binding,
+ * and for startup.
+ *
+ * <p>Stages are timed with {@link #start()} and {@link #stop(Stage, long)} into histograms with
+ * one bucket per power of two microseconds, so recording is a few atomic increments and never
+ * allocates. When disabled, {@link #start()} returns 0 without reading the clock and every
+ * other call returns right away. Enabled by default in debug builds, the numbers can be read
+ * with {@code adb shell dumpsys activity com.example.android.quakereport}. Release builds
+ * record them once {@code metrics on} is appended to that command, see
+ * {@link EarthquakeActivity#dump}.
+ */
+public final class Metrics {
+    /**
+     * The timed stages of loading and showing earthquakes
+     */
+    public enum Stage {
+        /** DNS lookup, TCP and TLS handshakes, skipped by reused connections */
+        CONNECT,
+        /** From sending the request to receiving the status line */
+        FIRST_BYTE,
+        /** Time spent waiting for the body while parsing it */
+        DOWNLOAD,
+        /** Time spent parsing the body, without the waits for it */
+        PARSE,
+        /** Merging changes into loaded events */
+        DIFF,
+        /** Binding one row of the list */
+        BIND,
+        /** From launching the list to its first frame showing earthquakes */
+        FIRST_FRAME,
+        /** Drawing the clusters in view on the map */
+        MAP_DRAW
+    }
+
+    public enum Counter {
+        REQUESTS,
+        NOT_MODIFIED,
+        BYTES_ON_WIRE,
+        BYTES_DECODED,
+        EVENTS_PARSED,
+        CACHE_HITS,
+        CACHE_MISSES
+    }
+
+    private static volatile boolean sEnabled = BuildConfig.DEBUG;
+
+    private static final Histogram[] sHistograms = new Histogram[Stage.values().length];
+    private static final AtomicLongArray sCounters = new AtomicLongArray(Counter.values().length);
+
+    static {
+        for (int i = 0; i < sHistograms.length; i++) {
+            sHistograms[i] = new Histogram();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Starts timing a stage, returning the start time to hand to {@link #stop(Stage, long)}
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since {@link #start()} for the stage
+     */
+    public static void stop(Stage stage, long startNanos) {
+        if (startNanos != 0) {
+            record(stage, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records a duration measured by the caller
+     */
+    public static void record(Stage stage, long nanos) {
+        if (sEnabled) {
+            sHistograms[stage.ordinal()].record(nanos);
+        }
+    }
+
+    public static void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    public static void add(Counter counter, long delta) {
+        if (sEnabled) {
+            sCounters.addAndGet(counter.ordinal(), delta);
+        }
+    }
+
+    public static void reset() {
+        for (Histogram histogram : sHistograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < sCounters.length(); i++) {
+            sCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * The mean time of the stage in milliseconds, 0 if it was never recorded
+     */
+    public static double getMeanMillis(Stage stage) {
+        Histogram histogram = sHistograms[stage.ordinal()];
+        long count = histogram.getCount();
+        return count == 0 ? 0 : toMillis(histogram.getSum()) / count;
+    }
+
+    /**
+     * The time of the stage in milliseconds that the fraction of its recordings took at most,
+     * rounded up to its histogram bucket
+     */
+    public static double getPercentileMillis(Stage stage, double percentile) {
+        return toMillis(sHistograms[stage.ordinal()].getPercentile(percentile));
+    }
+
+    /**
+     * Writes every stage and counter in a plain text table
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Metrics" + (sEnabled ? "" : " (disabled)") + ":");
+        writer.println(prefix + String.format(Locale.US, "  %-12s %8s %10s %10s %10s %10s",
+                "stage", "count", "mean ms", "p50 ms", "p95 ms", "max ms"));
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = sHistograms[stage.ordinal()];
+            long count = histogram.getCount();
+            writer.println(prefix + String.format(Locale.US, "  %-12s %8d %10.2f %10.2f %10.2f %10.2f",
+                    stage.name().toLowerCase(Locale.US), count, getMeanMillis(stage),
+                    toMillis(histogram.getPercentile(0.5)), toMillis(histogram.getPercentile(0.95)),
+                    toMillis(histogram.getMax())));
+        }
+        for (Counter counter : Counter.values()) {
+            writer.println(prefix + String.format(Locale.US, "  %-16s %d",
+                    counter.name().toLowerCase(Locale.US), sCounters.get(counter.ordinal())));
+        }
+        long hits = sCounters.get(Counter.CACHE_HITS.ordinal());
+        long lookups = hits + sCounters.get(Counter.CACHE_MISSES.ordinal());
+        writer.println(prefix + String.format(Locale.US, "  %-16s %.1f%%", "cache_hit_ratio",
+                lookups == 0 ? 0 : 100.0 * hits / lookups));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Counts durations in buckets of powers of two microseconds, bucket {@code b} holding the
+     * durations under {@code 2^b} microseconds. Percentiles are reported as the upper bound of
+     * their bucket, at most twice the true value.
+     */
+    private static class Histogram {
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(nanos);
+            long max;
+            while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos)) {
+                // Lost a race with another thread, try again with its value
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getSum() {
+            return mSum.get();
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        long getPercentile(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank) {
+                    return Math.min((1L << bucket) * 1000, mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+    }
+}
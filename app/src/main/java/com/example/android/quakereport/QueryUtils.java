@@ -1,13 +1,10 @@
 package com.example.android.quakereport;
 
-import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -16,7 +13,12 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -27,6 +29,14 @@ public final class QueryUtils {
      */
     public static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int DECODE_BUFFER_SIZE = 8192;
+
+    private static volatile HttpTransport sTransport =
+            new UrlConnectionTransport(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+    private static volatile String sBaseUrl = BuildConfig.USGS_BASE_URL;
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -35,77 +45,211 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /**
+     * Replaces the transport every request goes through, for example with one using other
+     * timeouts or a fake serving canned responses
+     */
+    public static void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
+
+    /**
+     * Replaces the scheme, host and port the USGS APIs are requested from, for example with
+     * a simulator. Defaults to {@link BuildConfig#USGS_BASE_URL}.
+     */
+    public static void setBaseUrl(String baseUrl) {
+        sBaseUrl = baseUrl;
+    }
+
+    /**
+     * The base URL the USGS API paths are appended to, without a trailing slash
+     */
+    public static String getBaseUrl() {
+        return sBaseUrl;
+    }
+
     /**
      * Query the USGS dataset and return a list {@link EarthquakeEvent} objects
      */
     public static List<EarthquakeEvent> fetchEarthquakeEvents(String requestUrl){
-/*        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }*/
+        try {
+            return fetchEarthquakeEvents(requestUrl, null).getEvents();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem retrieving the Earthquakes JSOn response", e);
+            return null;
+        }
+    }
 
+    /**
+     * Query the USGS dataset, revalidating a previously cached response if there is one.
+     *
+     * @param requestUrl the query URL
+     * @param cached     the cached response for this URL, or null
+     * @return the fresh response, or the cached one if the server answered 304 Not Modified
+     * @throws HttpStatusException if the server answered with another status
+     * @throws IOException         if the URL is invalid or the request failed
+     */
+    public static EarthquakeCache.Entry fetchEarthquakeEvents(String requestUrl, EarthquakeCache.Entry cached)
+            throws IOException {
         // Create URL object
         URL url = createURL(requestUrl);
+        if (url == null) {
+            throw new MalformedURLException("Invalid URL " + requestUrl);
+        }
 
-        // Perform an HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform an HTTP request to the URL and parse the JSON response as it arrives
+        return makeHTTPRequest(url, cached);
+    }
+
+    /**
+     * Return a list of {@link EarthquakeEvent} objects built up by streaming through the
+     * GeoJSON response token by token. Only the id, the coordinates and the properties we use are
+     * materialized, everything else (metadata, the remaining properties) is skipped without
+     * being allocated.
+     *
+     * @throws MalformedResponseException if the response isn't shaped like USGS GeoJSON
+     */
+    static List<EarthquakeEvent> extractEarthquakes(InputStream inputStream) throws IOException {
+        // Create an empty ArrayList that we can start adding earthquakes to
+        List<EarthquakeEvent> earthquakes = new ArrayList<>();
 
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
         try {
-            jsonResponse = makeHTTPRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error closing the input stream", e);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("features".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        EarthquakeEvent currentEarthquake = readFeature(reader);
+                        if (currentEarthquake != null) {
+                            earthquakes.add(currentEarthquake);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // The response doesn't have the shape we expect. Fail rather than return what was
+            // parsed so far, which would be cached as if it were the whole answer.
+            throw new MalformedResponseException("Problem parsing the earthquake JSON results", e);
         }
 
-        // Extract the earthquake events array
-        List<EarthquakeEvent> earthquakes = extractEarthquakes(jsonResponse);
-
+        // Return the list of earthquakes
         return earthquakes;
     }
+
     /**
-     * Return a list of {@link EarthquakeEvent} objects that has been built up from
-     * parsing a JSON response.
+     * Reads a single GeoJSON feature, returning null if it has no properties object.
      */
-    private static ArrayList<EarthquakeEvent> extractEarthquakes(String response) {
-
-        if (TextUtils.isEmpty(response)) {
+    private static EarthquakeEvent readFeature(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
             return null;
         }
-        // Create an empty ArrayList that we can start adding earthquakes to
-        ArrayList<EarthquakeEvent> earthquakes = new ArrayList<>();
 
-        // Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
-        try {
+        String id = null;
+        EarthquakeEvent earthquake = null;
+        double[] coordinates = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+            } else if ("properties".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                earthquake = readProperties(reader);
+            } else if ("geometry".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                coordinates = readCoordinates(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-            // TODO: Parse the response given by the SAMPLE_JSON_RESPONSE string and
-            // build up a list of Earthquake objects with the corresponding data.
-            JSONObject rootObject = new JSONObject(response);
-            JSONArray featuresArray = rootObject.optJSONArray("features");
+        if (earthquake != null) {
+            earthquake.mId = id;
+            if (coordinates != null) {
+                earthquake.setLocation(coordinates[1], coordinates[0], coordinates[2]);
+            }
+        }
+        return earthquake;
+    }
 
-            for (int i = 0; i < featuresArray.length(); i++) {
-                JSONObject earthquakeObject = featuresArray.optJSONObject(i);
-                JSONObject propertiesObject = earthquakeObject.optJSONObject("properties");
+    /**
+     * Reads the coordinates of a GeoJSON point geometry, which are ordered longitude, latitude
+     * and depth. Returns null if the geometry has no coordinates.
+     */
+    private static double[] readCoordinates(JsonReader reader) throws IOException {
+        double[] coordinates = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("coordinates".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                coordinates = new double[]{Double.NaN, Double.NaN, Double.NaN};
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (i < coordinates.length && reader.peek() == JsonToken.NUMBER) {
+                        coordinates[i] = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return coordinates;
+    }
 
-                double magnitude = propertiesObject.optDouble("mag");
-                String place = propertiesObject.optString("place");
-                long time = propertiesObject.optLong("time");
-                String url = propertiesObject.optString("url");
+    /**
+     * Reads the properties object of a feature, skipping the fields we don't use.
+     */
+    private static EarthquakeEvent readProperties(JsonReader reader) throws IOException {
+        double magnitude = Double.NaN;
+        String place = "";
+        long time = 0;
+        long updated = 0;
+        String url = "";
+        boolean deleted = false;
 
-                EarthquakeEvent currentEarthquake = new EarthquakeEvent(magnitude, place, time, url);
-                earthquakes.add(currentEarthquake);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "mag":
+                    magnitude = reader.nextDouble();
+                    break;
+                case "place":
+                    place = reader.nextString();
+                    break;
+                case "time":
+                    time = reader.nextLong();
+                    break;
+                case "updated":
+                    updated = reader.nextLong();
+                    break;
+                case "url":
+                    url = reader.nextString();
+                    break;
+                case "status":
+                    deleted = "deleted".equals(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
             }
-
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
         }
+        reader.endObject();
 
-        // Return the list of earthquakes
-        return earthquakes;
+        // The id lives next to the properties in the feature, readFeature fills it in
+        return new EarthquakeEvent(null, magnitude, place, time, updated, url, deleted);
     }
 
     private static URL createURL(String urlString) {
@@ -126,61 +270,116 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and get a String response back
+     * Make a conditional HTTP request to the given URL and parse the response stream into earthquakes
      */
-    private static String makeHTTPRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static EarthquakeCache.Entry makeHTTPRequest(URL url, EarthquakeCache.Entry cached) throws IOException {
+        EarthquakeCache.Entry response;
 
-        //Checking if the URL is null
-        if (url == null){
-            return jsonResponse;
+        Map<String, String> headers = new HashMap<>();
+        // GeoJSON shrinks about tenfold compressed. Transports hand back the raw body, so the
+        // stream is decoded below.
+        headers.put("Accept-Encoding", "gzip, deflate");
+        // Let the server answer with an empty 304 if our cached copy is still current
+        if (cached != null && cached.getETag() != null) {
+            headers.put("If-None-Match", cached.getETag());
+        }
+        if (cached != null && cached.getLastModified() != null) {
+            headers.put("If-Modified-Since", cached.getLastModified());
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        HttpTransport.Response httpResponse = null;
+        InputStream body = null;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(15000);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful, then read the input stream and parse the response
-            if (urlConnection.getResponseCode() == 200){
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            }else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+            httpResponse = sTransport.get(url, headers);
+
+            Metrics.increment(Metrics.Counter.REQUESTS);
+            int responseCode = httpResponse.getCode();
+            if (responseCode == HttpURLConnection.HTTP_OK){
+                // If the request was successful, then parse the input stream as it is read
+                CountingInputStream wireStream = new CountingInputStream(httpResponse.getBody());
+                body = decode(wireStream, httpResponse.getHeader("Content-Encoding"));
+                CountingInputStream decodedStream = new CountingInputStream(body);
+                long parseStart = Metrics.start();
+                List<EarthquakeEvent> earthquakes = extractEarthquakes(decodedStream);
+                if (parseStart != 0) {
+                    // Reading and parsing interleave, split them by the time spent waiting on the wire
+                    long totalNanos = System.nanoTime() - parseStart;
+                    Metrics.record(Metrics.Stage.DOWNLOAD, wireStream.getReadNanos());
+                    Metrics.record(Metrics.Stage.PARSE, totalNanos - wireStream.getReadNanos());
+                }
+                Metrics.add(Metrics.Counter.BYTES_ON_WIRE, wireStream.getCount());
+                Metrics.add(Metrics.Counter.BYTES_DECODED, decodedStream.getCount());
+                Metrics.add(Metrics.Counter.EVENTS_PARSED, earthquakes.size());
+                response = new EarthquakeCache.Entry(earthquakes, httpResponse.getHeader("ETag"),
+                        httpResponse.getHeader("Last-Modified"), System.currentTimeMillis());
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                Metrics.increment(Metrics.Counter.NOT_MODIFIED);
+                response = new EarthquakeCache.Entry(cached.getEvents(), cached.getETag(),
+                        cached.getLastModified(), System.currentTimeMillis());
+            } else {
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                throw new HttpStatusException(responseCode, parseRetryAfter(httpResponse.getHeader("Retry-After")));
             }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the Earthquakes JSOn response");
         } finally {
-            if (urlConnection != null){
-                urlConnection.disconnect();
-            }
-
-            if (inputStream != null) {
-                inputStream.close();
+            // Releases the native memory of the decoder now rather than whenever it is finalized
+            closeQuietly(body);
+            // Closing rather than disconnecting keeps the connection alive for the next request
+            if (httpResponse != null) {
+                httpResponse.close();
             }
         }
 
-        return jsonResponse;
+        return response;
     }
 
     /**
-     * Converts the {@link InputStream} object into a String which contains the JSON response coming from the server
+     * Parses a Retry-After header given in seconds, returning -1 if there is none. HTTP dates
+     * aren't supported and count as no header.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException{
-        StringBuilder responseString = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null){
-                responseString.append(line);
-                line = reader.readLine();
-            }
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Wraps the response stream in a streaming decoder matching its Content-Encoding, so it is
+     * decompressed chunk by chunk as the parser reads it. Closing the decoder ends its Inflater.
+     */
+    static InputStream decode(InputStream inputStream, String contentEncoding) throws IOException {
+        if ("gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(inputStream, DECODE_BUFFER_SIZE);
+        }
+        if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            // A stream given its own Inflater leaves it to the caller to end
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(inputStream, inflater, DECODE_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+        return inputStream;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing the response stream", e);
         }
-        return responseString.toString();
     }
 }
@@ -14,11 +14,20 @@ public class SettingsActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        EarthquakeActivity.markProcessWarm();
         setContentView(R.layout.activity_settings);
     }
 
     public static class EarthquakePreferenceFragment extends PreferenceFragmentCompat implements android.support.v7.preference.Preference.OnPreferenceChangeListener {
 
+        // Reschedules the prefetch job once its settings are saved
+        private final SharedPreferences.OnSharedPreferenceChangeListener mPrefetchListener = (SharedPreferences sharedPreferences, String key) -> {
+            if (getString(R.string.settings_prefetch_interval_key).equals(key)
+                    || getString(R.string.settings_prefetch_unmetered_key).equals(key)) {
+                EarthquakePrefetcher.schedule(getContext().getApplicationContext());
+            }
+        };
+
         @Override
         public void onCreatePreferences(Bundle bundle, String s) {
             setPreferencesFromResource(R.xml.settings_main, s);
@@ -28,6 +37,27 @@ public class SettingsActivity extends AppCompatActivity {
 
             android.support.v7.preference.Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             bindPreferenceSummaryToValue(orderBy);
+
+            android.support.v7.preference.Preference pageSize = findPreference(getString(R.string.settings_page_size_key));
+            bindPreferenceSummaryToValue(pageSize);
+
+            android.support.v7.preference.Preference prefetchInterval = findPreference(getString(R.string.settings_prefetch_interval_key));
+            bindPreferenceSummaryToValue(prefetchInterval);
+
+            android.support.v7.preference.Preference notifyMagnitude = findPreference(getString(R.string.settings_notify_magnitude_key));
+            bindPreferenceSummaryToValue(notifyMagnitude);
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            getPreferenceManager().getSharedPreferences().registerOnSharedPreferenceChangeListener(mPrefetchListener);
+        }
+
+        @Override
+        public void onPause() {
+            getPreferenceManager().getSharedPreferences().unregisterOnSharedPreferenceChangeListener(mPrefetchListener);
+            super.onPause();
         }
 
         private void bindPreferenceSummaryToValue(android.support.v7.preference.Preference preference) {
@@ -0,0 +1,120 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link HttpTransport} on top of {@link HttpURLConnection}.
+ *
+ * <p>The platform keeps a pool of keep-alive connections per host and hands a connection back
+ * to it once its response body has been read to the end and closed. Calling
+ * {@link HttpURLConnection#disconnect()} would close the socket instead, so every request would
+ * pay for a new TCP and TLS handshake. Responses are therefore drained and closed, and only
+ * disconnected when draining would cost more than reconnecting.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    // Past this much unread body it is cheaper to drop the connection than to download the rest
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    /**
+     * @param connectTimeoutMillis how long to wait for the connection to be established
+     * @param readTimeoutMillis    how long to wait for each read of the response
+     */
+    public UrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            connection.setRequestMethod("GET");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            // Resolves the host and shakes hands, unless a pooled connection is reused
+            long connectStart = Metrics.start();
+            connection.connect();
+            Metrics.stop(Metrics.Stage.CONNECT, connectStart);
+            // Sends the request and waits for the status line
+            long requestStart = Metrics.start();
+            connection.getResponseCode();
+            Metrics.stop(Metrics.Stage.FIRST_BYTE, requestStart);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        return new ConnectionResponse(connection);
+    }
+
+    private static class ConnectionResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private InputStream mBody;
+
+        ConnectionResponse(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int getCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                // Error responses carry their body in the error stream
+                mBody = getCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream() : mConnection.getInputStream();
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            try {
+                InputStream body = getBody();
+                if (body != null) {
+                    if (!drain(body)) {
+                        mConnection.disconnect();
+                    }
+                    body.close();
+                }
+            } catch (IOException e) {
+                // The connection is in an unknown state, don't let it be reused
+                mConnection.disconnect();
+            }
+        }
+
+        /**
+         * Reads what is left of the body so the connection can go back to the pool, returning
+         * false if too much was left
+         */
+        private static boolean drain(InputStream body) throws IOException {
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
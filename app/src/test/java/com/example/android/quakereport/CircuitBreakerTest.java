@@ -0,0 +1,63 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    @Test
+    public void onFailure_atTheThreshold_opensTheCircuit() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60 * 1000, 60 * 1000);
+
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void onSuccess_ofTheTrial_closesTheCircuit() {
+        CircuitBreaker breaker = halfOpen();
+        assertTrue(breaker.allowRequest());
+        assertFalse("Only one trial at a time", breaker.allowRequest());
+
+        breaker.onSuccess();
+
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void onAbandoned_ofTheTrial_freesTheSlotAndLeavesTheCircuitOpen() {
+        CircuitBreaker breaker = halfOpen();
+        assertTrue(breaker.allowRequest());
+
+        breaker.onAbandoned();
+
+        assertTrue(breaker.isOpen());
+        assertTrue("The next request should be the trial", breaker.allowRequest());
+    }
+
+    @Test
+    public void onAbandoned_whileClosed_countsNothing() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 60 * 1000, 60 * 1000);
+
+        breaker.onAbandoned();
+        breaker.onAbandoned();
+
+        assertFalse(breaker.isOpen());
+    }
+
+    /**
+     * A breaker whose circuit is open but ready to let a trial through
+     */
+    private static CircuitBreaker halfOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0, 0);
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+        return breaker;
+    }
+}
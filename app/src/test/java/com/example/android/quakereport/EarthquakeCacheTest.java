@@ -0,0 +1,170 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EarthquakeCacheTest {
+    private static final String URL_A = "https://earthquake.usgs.gov/fdsnws/event/1/query?minmag=6";
+    private static final String URL_B = "https://earthquake.usgs.gov/fdsnws/event/1/query?minmag=5";
+    private static final String URL_C = "https://earthquake.usgs.gov/fdsnws/event/1/query?minmag=4";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.newFolder("earthquakes");
+    }
+
+    @Test
+    public void get_returnsWhatWasPut() {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 1024 * 1024);
+        EarthquakeEvent event = new EarthquakeEvent("us1", 6.2, "10 km N of Lima, Peru", 1000, 2000,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/us1");
+        event.setLocation(-12.0, -77.0, 35.5);
+        cache.put(URL_A, new EarthquakeCache.Entry(Collections.singletonList(event), "\"v1\"",
+                "Mon, 02 Jan 2023 10:00:00 GMT", 3000));
+
+        EarthquakeCache.Entry entry = new EarthquakeCache(mDirectory, 1024 * 1024).get(URL_A);
+
+        assertNotNull(entry);
+        assertEquals("\"v1\"", entry.getETag());
+        assertEquals("Mon, 02 Jan 2023 10:00:00 GMT", entry.getLastModified());
+        assertEquals(3000, entry.getFetchedAt());
+        assertEquals(1, entry.getEvents().size());
+        EarthquakeEvent cached = entry.getEvents().get(0);
+        assertEquals("us1", cached.getId());
+        assertEquals(6.2, cached.getMagnitude(), 0);
+        assertEquals("10 km N of Lima, Peru", cached.getPlace());
+        assertEquals(1000, cached.getDate());
+        assertEquals(2000, cached.getUpdated());
+        assertEquals(event.getURL(), cached.getURL());
+        assertEquals(-12.0, cached.getLatitude(), 0);
+        assertEquals(-77.0, cached.getLongitude(), 0);
+        assertEquals(35.5, cached.getDepth(), 0);
+    }
+
+    @Test
+    public void get_withoutValidators_keepsThemNull() {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 1024 * 1024);
+        cache.put(URL_A, new EarthquakeCache.Entry(Collections.<EarthquakeEvent>emptyList(), null, null, 5));
+
+        EarthquakeCache.Entry entry = cache.get(URL_A);
+
+        assertNull(entry.getETag());
+        assertNull(entry.getLastModified());
+        assertEquals(0, entry.getEvents().size());
+    }
+
+    @Test
+    public void get_unknownUrl_returnsNull() {
+        assertNull(new EarthquakeCache(mDirectory, 1024 * 1024).get(URL_A));
+    }
+
+    @Test
+    public void get_corruptFile_dropsIt() throws IOException {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 1024 * 1024);
+        cache.put(URL_A, entryOf("us1"));
+        File file = mDirectory.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{0, 0, 0, 3, 0});
+        out.close();
+
+        assertNull(cache.get(URL_A));
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void put_overTheLimit_evictsTheLeastRecentlyUsed() throws IOException {
+        // Room for two entries but not three
+        File probe = mFolder.newFolder("probe");
+        new EarthquakeCache(probe, Long.MAX_VALUE).put(URL_A, entryOf("us1"));
+        long entryBytes = probe.listFiles()[0].length();
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, entryBytes * 5 / 2);
+
+        // Stamped an hour apart in the past so file times can't tie
+        long past = System.currentTimeMillis() - 10 * 60 * 60 * 1000;
+        Set<String> stamped = new HashSet<>();
+        cache.put(URL_A, entryOf("us1"));
+        stampNewFiles(stamped, past);
+        cache.put(URL_B, entryOf("us2"));
+        stampNewFiles(stamped, past + 60 * 60 * 1000);
+        // Reading A makes B the least recently used
+        assertNotNull(cache.get(URL_A));
+        cache.put(URL_C, entryOf("us3"));
+
+        assertNotNull(cache.get(URL_A));
+        assertNull(cache.get(URL_B));
+        assertNotNull(cache.get(URL_C));
+    }
+
+    @Test
+    public void getState_returnsTheEntryWithoutCountingALookup() {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 1024 * 1024);
+        cache.put("summary-state:list:4.5", entryOf("us1"));
+        boolean enabled = Metrics.isEnabled();
+        Metrics.setEnabled(true);
+        Metrics.reset();
+        try {
+            assertEquals("us1", cache.getState("summary-state:list:4.5").getEvents().get(0).getId());
+            assertNull(cache.getState("summary-state:list:2.5"));
+            assertEquals("0", counter("cache_hits"));
+            assertEquals("0", counter("cache_misses"));
+
+            cache.get(URL_A);
+            assertEquals("1", counter("cache_misses"));
+        } finally {
+            Metrics.reset();
+            Metrics.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * The value of a counter, as dumped
+     */
+    private static String counter(String name) {
+        StringWriter dump = new StringWriter();
+        Metrics.dump("", new PrintWriter(dump));
+        for (String line : dump.toString().split("\n")) {
+            String[] columns = line.trim().split("\\s+");
+            if (columns[0].equals(name)) {
+                return columns[1];
+            }
+        }
+        throw new AssertionError("No counter " + name);
+    }
+
+    private void stampNewFiles(Set<String> stamped, long time) {
+        List<File> files = Arrays.asList(mDirectory.listFiles());
+        for (File file : files) {
+            if (stamped.add(file.getName())) {
+                file.setLastModified(time);
+            }
+        }
+    }
+
+    private static EarthquakeCache.Entry entryOf(String id) {
+        EarthquakeEvent event = new EarthquakeEvent(id, 5.0, "Tonga", 1000, 1000,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id);
+        return new EarthquakeCache.Entry(Collections.singletonList(event), null, null, 1000);
+    }
+}
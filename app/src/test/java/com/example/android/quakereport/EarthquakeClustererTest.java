@@ -0,0 +1,232 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeClustererTest {
+    @Test
+    public void sync_emptyInput_hasNoClusters() {
+        EarthquakeClusterer clusterer = new EarthquakeClusterer();
+        clusterer.sync(Collections.<EarthquakeEvent>emptyList());
+
+        assertEquals(0, clusterer.size());
+        for (int zoom = 0; zoom <= EarthquakeClusterer.MAX_ZOOM; zoom++) {
+            assertEquals(0, clusterer.getClusterCount(zoom));
+            assertTrue(clustersOf(clusterer, zoom).isEmpty());
+        }
+    }
+
+    @Test
+    public void sync_emptyInput_removesEveryCluster() {
+        EarthquakeClusterer clusterer = new EarthquakeClusterer();
+        clusterer.sync(Arrays.asList(located("a", 10, 10, 5), located("b", -40, 100, 6)));
+        clusterer.sync(Collections.<EarthquakeEvent>emptyList());
+
+        assertEquals(0, clusterer.size());
+        for (int zoom = 0; zoom <= EarthquakeClusterer.MAX_ZOOM; zoom++) {
+            assertEquals(0, clusterer.getClusterCount(zoom));
+        }
+    }
+
+    @Test
+    public void getClusters_nearbyEvents_mergeAtLowZooms() {
+        EarthquakeClusterer clusterer = new EarthquakeClusterer();
+        clusterer.sync(Arrays.asList(located("a", 10, 10, 5), located("b", 10.5, 10.5, 6.5),
+                located("c", -40, 100, 4)));
+
+        // Cells of 22.5 and 0.7 degrees hold a and b together, cells of 0.35 degrees don't
+        assertEquals(2, clusterer.getClusterCount(0));
+        assertEquals(2, clusterer.getClusterCount(5));
+        assertEquals(3, clusterer.getClusterCount(6));
+        assertEquals(3, clusterer.getClusterCount(EarthquakeClusterer.MAX_ZOOM));
+
+        EarthquakeClusterer.Cluster merged = clusterAt(clusterer, 0, 10, 10);
+        assertEquals(2, merged.getCount());
+        assertEquals(10.25, merged.getLatitude(), 1e-9);
+        assertEquals(10.25, merged.getLongitude(), 1e-9);
+        assertEquals(6.5, merged.getMaxMagnitude(), 0);
+        assertNull(merged.getEventId());
+
+        EarthquakeClusterer.Cluster single = clusterAt(clusterer, 6, 10, 10);
+        assertEquals(1, single.getCount());
+        assertEquals("a", single.getEventId());
+    }
+
+    @Test
+    public void getClusters_zoomsPastTheDeepest_getItsClusters() {
+        EarthquakeClusterer clusterer = new EarthquakeClusterer();
+        clusterer.sync(Arrays.asList(located("a", 10, 10, 5), located("b", 10.001, 10.001, 5)));
+
+        assertEquals(clustersOf(clusterer, EarthquakeClusterer.MAX_ZOOM).size(),
+                clustersOf(clusterer, EarthquakeClusterer.MAX_ZOOM + 5).size());
+        assertEquals(1, clustersOf(clusterer, -1).size());
+    }
+
+    @Test
+    public void getClusters_acrossTheAntimeridian() {
+        EarthquakeClusterer clusterer = new EarthquakeClusterer();
+        clusterer.sync(Arrays.asList(located("east", 0, 179.9, 5), located("west", 0, -179.9, 5),
+                located("far", 0, 100, 5)));
+
+        // Cells never cross the antimeridian, so even the coarsest zoom keeps both sides apart
+        assertEquals(3, clusterer.getClusterCount(0));
+        EarthquakeClusterer.Cluster east = clusterAt(clusterer, 0, 0, 179.9);
+        assertEquals(1, east.getCount());
+        assertEquals(179.9, east.getLongitude(), 1e-9);
+        assertEquals(-179.9, clusterAt(clusterer, 0, 0, -179.9).getLongitude(), 1e-9);
+
+        List<EarthquakeClusterer.Cluster> clusters = new ArrayList<>();
+        clusterer.getClusters(EarthquakeClusterer.MAX_ZOOM, -10, 170, 10, -170, clusters);
+        assertEquals(Arrays.asList("east", "west"), eventIdsOf(clusters));
+        clusterer.getClusters(EarthquakeClusterer.MAX_ZOOM, -10, -170, 10, 170, clusters);
+        assertEquals(Arrays.asList("far"), eventIdsOf(clusters));
+    }
+
+    @Test
+    public void put_movedOrRemovedEvent_updatesItsClusters() {
+        EarthquakeClusterer clusterer = new EarthquakeClusterer();
+        clusterer.sync(Arrays.asList(located("a", 10, 10, 7), located("b", 10.5, 10.5, 5)));
+        EarthquakeClusterer.Cluster cluster = clusterAt(clusterer, 0, 10, 10);
+        assertEquals("2", cluster.getLabel());
+        // Drawn every frame without making a new string each time
+        assertSame(cluster.getLabel(), cluster.getLabel());
+
+        clusterer.put(located("c", 11, 11, 4));
+        assertEquals("3", cluster.getLabel());
+
+        clusterer.remove("a");
+        assertEquals(2, cluster.getCount());
+        assertEquals(5, cluster.getMaxMagnitude(), 0);
+        assertEquals("2", cluster.getLabel());
+
+        clusterer.put(located("b", -40, 100, 5));
+        assertEquals(1, cluster.getCount());
+        assertEquals(11, cluster.getLatitude(), 1e-9);
+        assertEquals(2, clusterer.getClusterCount(0));
+    }
+
+    /**
+     * At every zoom, the clusters must be the events grouped by cell, however the events got
+     * there
+     */
+    @Test
+    public void getClusters_matchesGroupingByCell() {
+        Random random = new Random(42);
+        EarthquakeClusterer clusterer = new EarthquakeClusterer();
+        Map<String, EarthquakeEvent> events = new HashMap<>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                String id = "us" + random.nextInt(1000);
+                if (random.nextInt(5) == 0) {
+                    clusterer.remove(id);
+                    events.remove(id);
+                } else {
+                    // Around a few spots, so clusters at the deeper zooms hold several events
+                    double latitude = Math.max(-90, Math.min(90, -60 + 30 * random.nextInt(5) + random.nextGaussian()));
+                    double longitude = -180 + 360 * random.nextDouble();
+                    EarthquakeEvent event = located(id, latitude, longitude, random.nextInt(90) / 10.0);
+                    clusterer.put(event);
+                    events.put(id, event);
+                }
+            }
+
+            assertEquals(events.size(), clusterer.size());
+            for (int zoom = 0; zoom <= EarthquakeClusterer.MAX_ZOOM; zoom++) {
+                assertSameClusters(groupByCell(events.values(), zoom), clustersOf(clusterer, zoom));
+            }
+        }
+    }
+
+    private static void assertSameClusters(Map<String, List<EarthquakeEvent>> expected,
+                                           List<EarthquakeClusterer.Cluster> clusters) {
+        assertEquals(expected.size(), clusters.size());
+        for (EarthquakeClusterer.Cluster cluster : clusters) {
+            List<EarthquakeEvent> members = expected.get(cellOf(cluster.getZoom(), cluster.getLatitude(),
+                    cluster.getLongitude()));
+            double latitude = 0;
+            double longitude = 0;
+            double maxMagnitude = 0;
+            for (EarthquakeEvent event : members) {
+                latitude += event.getLatitude();
+                longitude += event.getLongitude();
+                maxMagnitude = Math.max(maxMagnitude, event.getMagnitude());
+            }
+            assertEquals(members.size(), cluster.getCount());
+            assertEquals(latitude / members.size(), cluster.getLatitude(), 1e-6);
+            assertEquals(longitude / members.size(), cluster.getLongitude(), 1e-6);
+            assertEquals(maxMagnitude, cluster.getMaxMagnitude(), 0);
+            assertEquals(Integer.toString(members.size()), cluster.getLabel());
+        }
+    }
+
+    private static Map<String, List<EarthquakeEvent>> groupByCell(Iterable<EarthquakeEvent> events, int zoom) {
+        Map<String, List<EarthquakeEvent>> cells = new HashMap<>();
+        for (EarthquakeEvent event : events) {
+            String cell = cellOf(zoom, event.getLatitude(), event.getLongitude());
+            List<EarthquakeEvent> members = cells.get(cell);
+            if (members == null) {
+                members = new ArrayList<>();
+                cells.put(cell, members);
+            }
+            members.add(event);
+        }
+        return cells;
+    }
+
+    /**
+     * The cell of the zoom level holding the point, rows counted from the north pole. The
+     * centroid of a cluster is always inside its cell.
+     */
+    private static String cellOf(int zoom, double latitude, double longitude) {
+        double cellDegrees = EarthquakeClusterer.cellDegreesAt(zoom);
+        int rows = (int) Math.round(180 / cellDegrees);
+        int columns = (int) Math.round(360 / cellDegrees);
+        int row = Math.min(rows - 1, (int) Math.floor((90 - latitude) / cellDegrees));
+        int column = Math.min(columns - 1, (int) Math.floor((longitude + 180) / cellDegrees));
+        return row + "," + column;
+    }
+
+    private static EarthquakeClusterer.Cluster clusterAt(EarthquakeClusterer clusterer, int zoom,
+                                                         double latitude, double longitude) {
+        String cell = cellOf(zoom, latitude, longitude);
+        for (EarthquakeClusterer.Cluster cluster : clustersOf(clusterer, zoom)) {
+            if (cell.equals(cellOf(zoom, cluster.getLatitude(), cluster.getLongitude()))) {
+                return cluster;
+            }
+        }
+        throw new AssertionError("No cluster at " + latitude + ", " + longitude);
+    }
+
+    private static List<EarthquakeClusterer.Cluster> clustersOf(EarthquakeClusterer clusterer, int zoom) {
+        List<EarthquakeClusterer.Cluster> clusters = new ArrayList<>();
+        clusterer.getClusters(zoom, -90, -180, 90, 180, clusters);
+        return clusters;
+    }
+
+    private static List<String> eventIdsOf(List<EarthquakeClusterer.Cluster> clusters) {
+        List<String> ids = new ArrayList<>();
+        for (EarthquakeClusterer.Cluster cluster : clusters) {
+            ids.add(cluster.getEventId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static EarthquakeEvent located(String id, double latitude, double longitude, double magnitude) {
+        EarthquakeEvent event = new EarthquakeEvent(id, magnitude, "Somewhere", 100, 100, "");
+        event.setLocation(latitude, longitude, 10);
+        return event;
+    }
+}
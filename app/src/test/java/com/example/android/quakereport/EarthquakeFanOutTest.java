@@ -0,0 +1,82 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.example.android.quakereport.EarthquakeSyncTest.idsOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeFanOutTest {
+    private static final Comparator<EarthquakeEvent> BY_TIME = new EarthquakeQuery("6", "time", 20).getComparator();
+
+    @Test
+    public void merge_interleavesTheListsByTheQueryOrder() {
+        List<EarthquakeEvent> japan = Arrays.asList(event("j1", 500), event("j2", 300), event("j3", 100));
+        List<EarthquakeEvent> chile = Arrays.asList(event("c1", 400), event("c2", 200));
+
+        List<EarthquakeEvent> merged = EarthquakeFanOut.merge(Arrays.asList(japan, chile), BY_TIME);
+
+        assertEquals(Arrays.asList("j1", "c1", "j2", "c2", "j3"), idsOf(merged));
+    }
+
+    @Test
+    public void merge_overlappingRegions_keepsEachEventOnce() {
+        // An event inside both watched regions comes back from both queries
+        EarthquakeEvent shared = event("shared", 300);
+        List<EarthquakeEvent> first = Arrays.asList(event("a", 400), shared);
+        List<EarthquakeEvent> second = Arrays.asList(event("shared", 300), event("b", 200));
+
+        assertEquals(Arrays.asList("a", "shared", "b"),
+                idsOf(EarthquakeFanOut.merge(Arrays.asList(first, second), BY_TIME)));
+    }
+
+    @Test
+    public void merge_emptyLists_areSkipped() {
+        List<EarthquakeEvent> events = Arrays.asList(event("a", 200), event("b", 100));
+
+        assertTrue(EarthquakeFanOut.merge(Collections.<List<EarthquakeEvent>>emptyList(), BY_TIME).isEmpty());
+        assertEquals(Arrays.asList("a", "b"), idsOf(EarthquakeFanOut.merge(
+                Arrays.asList(Collections.<EarthquakeEvent>emptyList(), events,
+                        Collections.<EarthquakeEvent>emptyList()), BY_TIME)));
+    }
+
+    @Test
+    public void merge_matchesSortingEverythingTogether() {
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            List<List<EarthquakeEvent>> lists = new ArrayList<>();
+            for (int i = random.nextInt(8); i > 0; i--) {
+                List<EarthquakeEvent> list = new ArrayList<>();
+                for (int j = random.nextInt(30); j > 0; j--) {
+                    // Ids are tied to times, so overlapping events are equal
+                    int time = random.nextInt(1000);
+                    list.add(event("us" + time, time));
+                }
+                Collections.sort(list, BY_TIME);
+                lists.add(list);
+            }
+
+            List<EarthquakeEvent> all = new ArrayList<>();
+            for (List<EarthquakeEvent> list : lists) {
+                all.addAll(list);
+            }
+            Collections.sort(all, BY_TIME);
+            Set<String> expected = new LinkedHashSet<>(idsOf(all));
+
+            assertEquals(new ArrayList<>(expected), idsOf(EarthquakeFanOut.merge(lists, BY_TIME)));
+        }
+    }
+
+    private static EarthquakeEvent event(String id, long time) {
+        return new EarthquakeEvent(id, 6.0, "Somewhere", time, time, "");
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the fetcher against a stand-in transport. The circuit breaker is shared by every fetcher,
+ * so every test leaves it closed.
+ */
+public class EarthquakeFetcherTest {
+    private static final String URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+
+    @After
+    public void tearDown() {
+        // Clear the flag of the interrupted thread tests
+        Thread.interrupted();
+    }
+
+    @Test
+    public void fetch_interrupted_isNotRetriedNorCountedAgainstUsgs() throws IOException {
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) -> {
+            throw new InterruptedIOException("Cancelled");
+        });
+
+        // More cancellations than it takes failures to open the circuit
+        for (int i = 0; i < 5; i++) {
+            try {
+                new EarthquakeFetcher().fetch(URL, null);
+                fail("Expected the cancellation to be rethrown");
+            } catch (InterruptedIOException e) {
+                // Expected
+            }
+        }
+        assertEquals(5, transport.getRequestCount());
+
+        // Still closed, so this one goes out
+        TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_OK));
+        new EarthquakeFetcher().fetch(URL, null);
+    }
+
+    @Test
+    public void fetch_onAnInterruptedThread_sendsNothing() throws IOException {
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_OK));
+        Thread.currentThread().interrupt();
+
+        try {
+            new EarthquakeFetcher().fetch(URL, null);
+            fail("Expected the cancellation to be thrown");
+        } catch (InterruptedIOException e) {
+            // Expected
+        }
+        assertEquals(0, transport.getRequestCount());
+    }
+
+    @Test
+    public void fetch_failingEveryAttempt_countsAsOneFailure() throws IOException {
+        Map<String, String> retryNow = Collections.singletonMap("Retry-After", "0");
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_UNAVAILABLE, retryNow, ""));
+
+        try {
+            new EarthquakeFetcher().fetch(URL, null);
+            fail("Expected the status to be thrown");
+        } catch (HttpStatusException e) {
+            assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, e.getResponseCode());
+        }
+        assertEquals(3, transport.getRequestCount());
+
+        // As many failed attempts as it takes to open the circuit, but a single failed fetch
+        TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_OK));
+        new EarthquakeFetcher().fetch(URL, null);
+    }
+
+    @Test
+    public void fetch_clientError_isNotRetried() throws IOException {
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_BAD_REQUEST));
+
+        try {
+            new EarthquakeFetcher().fetch(URL, null);
+            fail("Expected the status to be thrown");
+        } catch (HttpStatusException e) {
+            assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, e.getResponseCode());
+        }
+        assertEquals(1, transport.getRequestCount());
+        assertEquals(EarthquakeResult.Error.REQUEST, EarthquakeFetcher.errorOf(
+                new HttpStatusException(HttpURLConnection.HTTP_BAD_REQUEST, -1)));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class EarthquakeFormatterTest {
+    // 2024-01-15 08:30:12 UTC
+    private static final long TIME = 1705307412345L;
+
+    @Test
+    public void format_splitsTheOffsetFromThePlace() throws InterruptedException {
+        EarthquakeRow row = formatInUtc(event(6.25, "10 km SSW of Anchorage, Alaska"));
+
+        assertEquals("10 km SSW of", row.getLocationOffset());
+        assertEquals("Anchorage, Alaska", row.getPrimaryLocation());
+        assertEquals("6.2", row.getMagnitudeText());
+        assertEquals(6, row.getMagnitudeBucket());
+        assertEquals("Jan 15, 2024", row.getDateText());
+        assertEquals("08:30 AM", row.getTimeText());
+    }
+
+    @Test
+    public void format_placeWithoutOffset_isNearThePlace() throws InterruptedException {
+        EarthquakeRow row = formatInUtc(event(7, "Fiji region"));
+
+        assertEquals("Near the", row.getLocationOffset());
+        assertEquals("Fiji region", row.getPrimaryLocation());
+        assertEquals("7", row.getMagnitudeText());
+    }
+
+    @Test
+    public void prepare_keepsTheRowsAlreadyFormatted() {
+        EarthquakeEvent formatted = event(5, "Tonga");
+        EarthquakeRow row = new EarthquakeRow("5", 5, "Near the", "Tonga", "Jan 1, 2024", "00:00 AM");
+        formatted.setRow(row);
+        EarthquakeEvent unformatted = event(4.5, "5 km N of Lima, Peru");
+        List<EarthquakeEvent> events = Arrays.asList(formatted, unformatted);
+
+        EarthquakeFormatter.get().prepare(events);
+
+        assertSame(row, formatted.getRow());
+        assertNotNull(unformatted.getRow());
+        assertEquals("Lima, Peru", unformatted.getRow().getPrimaryLocation());
+    }
+
+    /**
+     * Formats on a new thread, whose formatter picks up the US locale and UTC as its defaults
+     */
+    private static EarthquakeRow formatInUtc(EarthquakeEvent event) throws InterruptedException {
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        Locale.setDefault(Locale.US);
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        try {
+            EarthquakeRow[] row = new EarthquakeRow[1];
+            Thread thread = new Thread(() -> row[0] = EarthquakeFormatter.get().format(event));
+            thread.start();
+            thread.join();
+            return row[0];
+        } finally {
+            Locale.setDefault(locale);
+            TimeZone.setDefault(timeZone);
+        }
+    }
+
+    private static EarthquakeEvent event(double magnitude, String place) {
+        return new EarthquakeEvent("us1", magnitude, place, TIME, TIME, "");
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.android.quakereport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Imports small catalogs in chunks of every size, so each record boundary falls at the start,
+ * inside and at the end of a chunk
+ */
+public class EarthquakeImporterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // A byte order mark, a header with columns that aren't read, a quoted place with a comma
+    // and a doubled quote, a CRLF line, a deleted event, a malformed time and no final newline
+    private static final String CSV = "\uFEFFtime,latitude,longitude,depth,mag,magType,id,updated,place,type,status\n"
+            + "2024-01-15T08:30:12.345Z,61.2,-149.9,35.5,5.1,mww,us1,2024-01-15T09:00:00.000Z,Anchorage,earthquake,reviewed\n"
+            + "2024-01-14T23:59:59.999Z,-12.05,-77.04,10,6.25,mww,us2,2024-01-15T00:00:00Z,\"5 km N of \"\"Lima\"\", Peru\",earthquake,reviewed\r\n"
+            + "1969-12-31T23:59:59.000Z,0,179.99,0,-0.4,ml,us3,1970-01-01T00:00:00.000Z,Fiji,earthquake,automatic\n"
+            + "2024-01-13T00:00:00.000Z,1,1,1,4,mb,us4,2024-01-13T01:00:00.000Z,Gone,earthquake,deleted\n"
+            + "yesterday,1,1,1,4,mb,us5,2024-01-13T01:00:00.000Z,Broken,earthquake,reviewed\n"
+            + "\n"
+            + "2024-01-12T00:00:00.000Z,-33.4,-70.6,100.25,7,mww,us6,2024-01-12T00:00:00.000Z,\"Santiago, Chile\",earthquake,reviewed";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void importFile_csv_sameEventsForEveryChunkSize() throws IOException {
+        File file = write(CSV);
+        for (int chunkBytes = 1; chunkBytes <= file.length(); chunkBytes++) {
+            EarthquakeStore store = new EarthquakeStore();
+            int imported = importFile(file, store, chunkBytes);
+
+            String message = "chunks of " + chunkBytes + " bytes";
+            assertEquals(message, 4, imported);
+            assertEquals(message, Arrays.asList("us1", "us2", "us3", "us6"), idsOf(store));
+            assertEquals(message, "5 km N of \"Lima\", Peru", store.getPlace(1));
+            assertEquals(message, "Santiago, Chile", store.getPlace(3));
+        }
+    }
+
+    @Test
+    public void importFile_csv_parsesTheColumns() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        importFile(write(CSV), store, 64);
+
+        EarthquakeEvent first = store.toEvent(0);
+        assertEquals(5.1, first.getMagnitude(), 0);
+        assertEquals(1705307412345L, first.getDate());
+        assertEquals(1705309200000L, first.getUpdated());
+        assertEquals(61.2, first.getLatitude(), 1e-4);
+        assertEquals(-149.9, first.getLongitude(), 1e-4);
+        assertEquals(35.5, first.getDepth(), 1e-4);
+        assertEquals(6.25, store.getMagnitude(1), 0);
+        assertEquals(-1000, store.getDate(2));
+        assertEquals(-0.4, store.getMagnitude(2), 0);
+    }
+
+    @Test
+    public void importFile_reportsProgressUpToTheWholeFile() throws IOException {
+        File file = write(CSV);
+        List<long[]> progress = new ArrayList<>();
+        try (FileChannel channel = channelOf(file)) {
+            new EarthquakeImporter(new EarthquakeStore(), 2, 100).importFile(channel,
+                    (long bytesRead, long totalBytes, int eventCount) ->
+                            progress.add(new long[]{bytesRead, totalBytes, eventCount}));
+        }
+
+        long[] last = progress.get(progress.size() - 1);
+        assertEquals(file.length(), last[0]);
+        assertEquals(file.length(), last[1]);
+        assertEquals(4, last[2]);
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i)[0] > progress.get(i - 1)[0]);
+            assertTrue(progress.get(i)[2] >= progress.get(i - 1)[2]);
+        }
+    }
+
+    /**
+     * The GeoJSON events themselves are parsed by android.util.JsonReader, which isn't there
+     * on the JVM, so this checks what each chunk hands to it
+     */
+    @Test
+    public void geoJsonFeaturesOf_everyFeatureInExactlyOneChunk() throws IOException {
+        String end = "],\"bbox\":[-180,-90,0,180,90,700]}";
+        String geoJson = "{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":3},\"features\":["
+                + feature("us1", "Anchorage, Alaska") + "," + feature("us2", "5 km N of Lima, Peru") + ",\n"
+                + feature("us3", "Fiji") + end;
+        byte[] bytes = geoJson.getBytes(UTF_8);
+        ByteBuffer window = ByteBuffer.wrap(bytes);
+
+        for (int chunkBytes = 1; chunkBytes <= bytes.length; chunkBytes++) {
+            List<String> ids = new ArrayList<>();
+            for (int start = 0; start < bytes.length; start += chunkBytes) {
+                int chunkEnd = Math.min(bytes.length, start + chunkBytes);
+                InputStream features = EarthquakeImporter.geoJsonFeaturesOf(window, start, chunkEnd, true);
+                if (features == null) {
+                    continue;
+                }
+                String collection = read(features);
+                assertTrue(collection, collection.startsWith("{\"features\":[{\"type\":\"Feature\","));
+                // Closed after its last feature, or by the end of the file
+                assertTrue(collection, collection.endsWith("}]}") || collection.endsWith("}" + end));
+                Matcher matcher = Pattern.compile("\"id\":\"(\\w+)\"").matcher(collection);
+                while (matcher.find()) {
+                    ids.add(matcher.group(1));
+                }
+            }
+            assertEquals("chunks of " + chunkBytes + " bytes", Arrays.asList("us1", "us2", "us3"), ids);
+        }
+    }
+
+    @Test
+    public void geoJsonFeaturesOf_unfinishedFeature_fails() {
+        ByteBuffer window = ByteBuffer.wrap(("{\"features\":[" + feature("us1", "Fiji")).getBytes(UTF_8));
+
+        try {
+            EarthquakeImporter.geoJsonFeaturesOf(window, 0, 20, false);
+            fail("A feature running past the window must not be cut");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void geoJsonFeaturesOf_noFeatureStarting_isNull() throws IOException {
+        ByteBuffer window = ByteBuffer.wrap(("{\"features\":[" + feature("us1", "Fiji") + "]}").getBytes(UTF_8));
+
+        assertNull(EarthquakeImporter.geoJsonFeaturesOf(window, 14, window.limit(), true));
+    }
+
+    private File write(String text) throws IOException {
+        File file = mFolder.newFile();
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(text.getBytes(UTF_8));
+        }
+        return file;
+    }
+
+    private static int importFile(File file, EarthquakeStore store, int chunkBytes) throws IOException {
+        try (FileChannel channel = channelOf(file)) {
+            return new EarthquakeImporter(store, 3, chunkBytes).importFile(channel,
+                    (long bytesRead, long totalBytes, int eventCount) -> {
+                    });
+        }
+    }
+
+    private static FileChannel channelOf(File file) throws IOException {
+        return new FileInputStream(file).getChannel();
+    }
+
+    private static List<String> idsOf(EarthquakeStore store) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            ids.add(store.getId(i));
+        }
+        return ids;
+    }
+
+    private static String feature(String id, String place) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":5.1,\"place\":\"" + place
+                + "\",\"time\":1705307412345,\"updated\":1705309200000,\"status\":\"reviewed\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[-149.9,61.2,35.5]},\"id\":\"" + id + "\"}";
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return new String(output.toByteArray(), UTF_8);
+    }
+}
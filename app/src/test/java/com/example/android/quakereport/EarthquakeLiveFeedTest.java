@@ -0,0 +1,221 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.android.quakereport.EarthquakeSyncTest.idsOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeLiveFeedTest {
+    private static final long NOW = 1700000000000L;
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    // Two consecutive polls of the hour feed, as recorded a minute apart: us2 got revised, us4 is
+    // new, us5 is new but too weak, us3 left the window and us6 was deleted
+    private static final List<EarthquakeEvent> FIRST_POLL = Arrays.asList(
+            event("us1", 5.1, NOW - 10 * MINUTE, NOW - 9 * MINUTE),
+            event("us2", 4.6, NOW - 20 * MINUTE, NOW - 19 * MINUTE),
+            event("us3", 4.8, NOW - 59 * MINUTE, NOW - 58 * MINUTE),
+            event("us6", 4.7, NOW - 30 * MINUTE, NOW - 29 * MINUTE));
+    private static final List<EarthquakeEvent> SECOND_POLL = Arrays.asList(
+            event("us4", 6.0, NOW - MINUTE, NOW - MINUTE),
+            event("us5", 2.7, NOW - MINUTE, NOW - MINUTE),
+            event("us1", 5.1, NOW - 10 * MINUTE, NOW - 9 * MINUTE),
+            event("us2", 4.9, NOW - 20 * MINUTE, NOW - 2 * MINUTE));
+    // Where the hour of each poll starts, with the slack of a lagging feed
+    private static final long FIRST_WINDOW_START = NOW - 56 * MINUTE;
+    private static final long WINDOW_START = NOW - 55 * MINUTE;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private EarthquakeCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = new EarthquakeCache(mFolder.newFolder(), 1024 * 1024);
+    }
+
+    @Test
+    public void diff_reportsAddedUpdatedAndRemovedEvents() {
+        EarthquakeChanges changes = EarthquakeLiveFeed.diff(FIRST_POLL, SECOND_POLL, FIRST_WINDOW_START,
+                WINDOW_START, 4.5);
+
+        assertEquals(Arrays.asList("us4"), idsOf(changes.getAdded()));
+        assertEquals(Arrays.asList("us2"), idsOf(changes.getUpdated()));
+        // us3 only fell out of the hour, us6 is gone from inside it
+        assertEquals(Arrays.asList("us6"), changes.getRemovedIds());
+    }
+
+    @Test
+    public void diff_sameFeed_hasNoChanges() {
+        EarthquakeChanges changes = EarthquakeLiveFeed.diff(SECOND_POLL, SECOND_POLL, FIRST_WINDOW_START,
+                WINDOW_START, 2.5);
+
+        assertTrue(changes.getAdded().isEmpty());
+        assertTrue(changes.getUpdated().isEmpty());
+        assertTrue(changes.getRemovedIds().isEmpty());
+    }
+
+    @Test
+    public void diff_belowTheMagnitude_leavesEventsOut() {
+        EarthquakeChanges changes = EarthquakeLiveFeed.diff(Collections.<EarthquakeEvent>emptyList(),
+                SECOND_POLL, FIRST_WINDOW_START, WINDOW_START, 5.0);
+
+        assertEquals(Arrays.asList("us4", "us1"), idsOf(changes.getAdded()));
+    }
+
+    @Test
+    public void diff_dayFeedAfterAnHourFeed_onlyAddsEventsNewToTheHour() {
+        // The next poll came 65 minutes later, so it took the day feed, with events of the
+        // whole day the hour feed never had
+        long now = NOW + 65 * MINUTE;
+        List<EarthquakeEvent> dayFeed = new ArrayList<>(Arrays.asList(
+                event("us7", 6.2, now - 3 * MINUTE, now - 3 * MINUTE),
+                event("us8", 6.8, NOW - 58 * MINUTE, NOW - 50 * MINUTE),
+                event("us9", 7.0, now - 20 * HOUR, now - 19 * HOUR)));
+        dayFeed.addAll(SECOND_POLL);
+
+        EarthquakeChanges changes = EarthquakeLiveFeed.diff(SECOND_POLL, dayFeed, WINDOW_START,
+                now - 24 * HOUR + 5 * MINUTE, 6.0);
+
+        // us8 happened at the very edge of the hour, us9 long before it
+        assertEquals(Arrays.asList("us7"), idsOf(changes.getAdded()));
+        assertTrue(changes.getRemovedIds().isEmpty());
+    }
+
+    @Test
+    public void poll_dayFeedAfterAnHourFeed_doesNotReportOlderEvents() throws IOException {
+        FeedFetcher fetcher = new FeedFetcher();
+        EarthquakeLiveFeed feed = new EarthquakeLiveFeed(mCache, "notifications", fetcher);
+        fetcher.mEvents = Collections.singletonList(event("us1", 6.1, now() - 10 * MINUTE, now() - 10 * MINUTE));
+        feed.poll(6.0);
+        ageState("notifications", 6.0, 65 * MINUTE);
+
+        fetcher.mEvents = Arrays.asList(event("us2", 6.5, now() - MINUTE, now() - MINUTE),
+                event("us1", 6.1, now() - 10 * MINUTE, now() - 10 * MINUTE),
+                event("us3", 7.2, now() - 12 * HOUR, now() - 12 * HOUR));
+        EarthquakeChanges changes = feed.poll(6.0);
+
+        assertTrue(fetcher.mUrls.get(1).endsWith("/summary/4.5_day.geojson"));
+        assertEquals(Arrays.asList("us2"), idsOf(changes.getAdded()));
+    }
+
+    @Test
+    public void poll_picksTheTierAndTheShortestFeedCoveringTheGap() throws IOException {
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_OK));
+        EarthquakeLiveFeed feed = new EarthquakeLiveFeed(mCache, "list");
+
+        feed.poll(6.0);
+        feed.poll(6.0);
+        ageState("list", 6.0, 2 * HOUR);
+        feed.poll(6.0);
+        ageState("list", 6.0, 3 * 24 * HOUR);
+        feed.poll(6.0);
+        ageState("list", 6.0, 30 * 24 * HOUR);
+        feed.poll(6.0);
+        feed.poll(2.5);
+        feed.poll(1.0);
+        feed.poll(0);
+        ageState("list", 0, 3 * 24 * HOUR);
+        feed.poll(0);
+
+        List<String> feeds = new ArrayList<>();
+        for (String url : transport.getUrls()) {
+            feeds.add(url.substring(url.lastIndexOf('/') + 1));
+        }
+        // The week of every magnitude is never polled, the day is the longest
+        assertEquals(Arrays.asList("4.5_hour.geojson", "4.5_hour.geojson", "4.5_day.geojson",
+                "4.5_week.geojson", "4.5_week.geojson", "2.5_hour.geojson", "1.0_hour.geojson",
+                "all_hour.geojson", "all_day.geojson"), feeds);
+        assertTrue(transport.getUrls().get(0).startsWith(QueryUtils.getBaseUrl()
+                + "/earthquakes/feed/v1.0/summary/"));
+    }
+
+    @Test
+    public void poll_unchangedFeed_isRevalidatedAndReportsNothing() throws IOException {
+        Map<String, String> validators = new HashMap<>();
+        validators.put("ETag", "\"v1\"");
+        validators.put("Last-Modified", "Tue, 14 Nov 2023 22:13:20 GMT");
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                headers.containsKey("If-None-Match") ? TestTransport.response(HttpURLConnection.HTTP_NOT_MODIFIED)
+                        : TestTransport.response(HttpURLConnection.HTTP_OK, validators, "{}"));
+        EarthquakeLiveFeed feed = new EarthquakeLiveFeed(mCache, "list");
+
+        feed.poll(4.5);
+        EarthquakeChanges changes = feed.poll(4.5);
+
+        assertEquals(2, transport.getRequestCount());
+        assertNull(transport.getHeaders(0).get("If-None-Match"));
+        assertEquals("\"v1\"", transport.getHeaders(1).get("If-None-Match"));
+        assertEquals("Tue, 14 Nov 2023 22:13:20 GMT", transport.getHeaders(1).get("If-Modified-Since"));
+        assertTrue(changes.getAdded().isEmpty());
+        assertTrue(changes.getRemovedIds().isEmpty());
+    }
+
+    @Test
+    public void poll_eachConsumerSeesEveryChange() throws IOException {
+        FeedFetcher fetcher = new FeedFetcher();
+        EarthquakeLiveFeed list = new EarthquakeLiveFeed(mCache, "list", fetcher);
+        EarthquakeLiveFeed notifications = new EarthquakeLiveFeed(mCache, "notifications", fetcher);
+        fetcher.mEvents = Collections.singletonList(event("us1", 5.1, now(), now()));
+        list.poll(4.5);
+        notifications.poll(4.5);
+
+        fetcher.mEvents = Arrays.asList(event("us2", 6.0, now(), now()), event("us1", 5.1, now(), now()));
+        EarthquakeChanges listChanges = list.poll(4.5);
+        EarthquakeChanges notificationChanges = notifications.poll(4.5);
+
+        assertEquals(Arrays.asList("us2"), idsOf(listChanges.getAdded()));
+        // The list seeing us2 first doesn't hide it from the notifications
+        assertEquals(Arrays.asList("us2"), idsOf(notificationChanges.getAdded()));
+    }
+
+    /**
+     * Moves the consumer's last poll the given time into the past
+     */
+    private void ageState(String consumer, double minMagnitude, long millis) {
+        String key = EarthquakeLiveFeed.stateKeyOf(consumer, minMagnitude);
+        EarthquakeCache.Entry state = mCache.getState(key);
+        mCache.put(key, new EarthquakeCache.Entry(state.getEvents(), null, null, state.getFetchedAt() - millis));
+    }
+
+    /**
+     * Answers every summary feed with the current events. The feed bodies go through the
+     * Android JSON parser, which does nothing on the JVM, so tests of the events themselves
+     * hand them over parsed.
+     */
+    private static class FeedFetcher extends EarthquakeFetcher {
+        List<EarthquakeEvent> mEvents = new ArrayList<>();
+        final List<String> mUrls = new ArrayList<>();
+
+        @Override
+        public EarthquakeCache.Entry fetch(String url, EarthquakeCache.Entry cached) {
+            mUrls.add(url);
+            return new EarthquakeCache.Entry(mEvents, null, null, System.currentTimeMillis());
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static EarthquakeEvent event(String id, double magnitude, long time, long updated) {
+        return new EarthquakeEvent(id, magnitude, "Somewhere", time, updated, "");
+    }
+}
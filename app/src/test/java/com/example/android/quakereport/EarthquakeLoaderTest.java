@@ -0,0 +1,204 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs loads through the real loader, sync and fetcher against a transport that holds every
+ * request until the test lets it through. The test thread plays the main thread.
+ */
+public class EarthquakeLoaderTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final LinkedBlockingQueue<Runnable> mMainThread = new LinkedBlockingQueue<>();
+    private final CountDownLatch mGate = new CountDownLatch(1);
+    private final CountDownLatch mInterrupted = new CountDownLatch(1);
+    private EarthquakeCache mCache;
+    private EarthquakeSync mSync;
+    private TestTransport mTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = new EarthquakeCache(mFolder.newFolder(), 1024 * 1024);
+        mSync = new EarthquakeSync(mCache);
+        mTransport = TestTransport.install((String url, Map<String, String> headers) -> {
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                mInterrupted.countDown();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the response");
+            }
+            return TestTransport.response(HttpURLConnection.HTTP_OK, Collections.<String, String>emptyMap(),
+                    "{\"type\":\"FeatureCollection\",\"features\":[]}");
+        });
+    }
+
+    @After
+    public void tearDown() {
+        // Never leave a pool thread waiting
+        mGate.countDown();
+    }
+
+    @Test
+    public void load_sameUrlInFlight_sharesOneRequest() {
+        EarthquakeQuery query = new EarthquakeQuery("6.1", "time", 20);
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+
+        newLoader().load(query, first);
+        newLoader().load(query, second);
+        mGate.countDown();
+        pumpUntil(() -> first.mResults.size() == 1 && second.mResults.size() == 1);
+
+        assertEquals(1, mTransport.getRequestCount());
+        assertTrue(first.mResults.get(0).isSuccess());
+        assertTrue(second.mResults.get(0).isSuccess());
+    }
+
+    @Test
+    public void load_rapidReloads_collapseIntoOnePendingLoad() {
+        EarthquakeLoader loader = newLoader();
+        RecordingListener running = new RecordingListener();
+        loader.load(new EarthquakeQuery("6.2", "time", 20), running);
+        waitUntil(() -> mTransport.getRequestCount() == 1);
+
+        List<RecordingListener> superseded = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            RecordingListener listener = new RecordingListener();
+            superseded.add(listener);
+            loader.load(new EarthquakeQuery("6." + (30 + i), "time", 20), listener);
+        }
+        RecordingListener latest = new RecordingListener();
+        EarthquakeQuery latestQuery = new EarthquakeQuery("6.5", "time", 20);
+        loader.load(latestQuery, latest);
+        mGate.countDown();
+        pumpUntil(() -> latest.mResults.size() == 1);
+        pumpPending();
+
+        // The running request and the latest query, none of those in between
+        assertEquals(2, mTransport.getRequestCount());
+        assertEquals(latestQuery.toUrl(), mTransport.getUrls().get(1));
+        assertEquals(0, running.mResults.size());
+        for (RecordingListener listener : superseded) {
+            assertEquals(0, listener.mResults.size());
+        }
+    }
+
+    @Test
+    public void cancel_interruptsTheRunningRequest() throws InterruptedException {
+        EarthquakeLoader loader = newLoader();
+        RecordingListener cancelled = new RecordingListener();
+        loader.load(new EarthquakeQuery("6.6", "time", 20), cancelled);
+        waitUntil(() -> mTransport.getRequestCount() == 1);
+
+        loader.cancel();
+
+        assertTrue("The request wasn't interrupted", mInterrupted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        // The loader runs the next load once the cancelled one has wound down
+        RecordingListener next = new RecordingListener();
+        loader.load(new EarthquakeQuery("6.7", "time", 20), next);
+        mGate.countDown();
+        pumpUntil(() -> next.mResults.size() == 1);
+        assertEquals(0, cancelled.mResults.size());
+        assertEquals(0, cancelled.mCachedEvents.size());
+    }
+
+    @Test
+    public void load_cachedQuery_deliversTheCachedEventsBeforeTheResult() {
+        EarthquakeQuery query = new EarthquakeQuery("6.8", "magnitude", 20, 21);
+        EarthquakeEvent event = new EarthquakeEvent("us1", 7.0, "Tonga", 100, 100, "");
+        mCache.put(query.toUrl(), new EarthquakeCache.Entry(Collections.singletonList(event), null, null, 1000));
+        RecordingListener listener = new RecordingListener();
+
+        newLoader().load(query, listener);
+        mGate.countDown();
+        pumpUntil(() -> listener.mResults.size() == 1);
+
+        assertEquals(Arrays.asList("cached", "result"), listener.mCalls);
+        assertEquals("us1", listener.mCachedEvents.get(0).get(0).getId());
+    }
+
+    private EarthquakeLoader newLoader() {
+        return new EarthquakeLoader(mSync, mMainThread::add);
+    }
+
+    /**
+     * Runs the main thread tasks as they come until the condition holds
+     */
+    private void pumpUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out");
+            }
+            try {
+                Runnable task = mMainThread.poll(10, TimeUnit.MILLISECONDS);
+                if (task != null) {
+                    task.run();
+                }
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * Runs what is left on the main thread, giving late deliveries a moment to arrive
+     */
+    private void pumpPending() {
+        long deadline = System.currentTimeMillis() + 200;
+        pumpUntil(() -> System.currentTimeMillis() > deadline);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out");
+            }
+            Thread.yield();
+        }
+    }
+
+    private static class RecordingListener implements EarthquakeLoader.Listener {
+        final List<List<EarthquakeEvent>> mCachedEvents = new ArrayList<>();
+        final List<EarthquakeResult> mResults = new ArrayList<>();
+        final List<String> mCalls = new ArrayList<>();
+
+        @Override
+        public void onCachedEvents(List<EarthquakeEvent> events) {
+            mCachedEvents.add(events);
+            mCalls.add("cached");
+        }
+
+        @Override
+        public void onResult(EarthquakeResult result) {
+            mResults.add(result);
+            mCalls.add("result");
+        }
+    }
+}
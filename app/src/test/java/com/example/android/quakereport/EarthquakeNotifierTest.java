@@ -0,0 +1,25 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.quakereport.EarthquakeSyncTest.idsOf;
+import static org.junit.Assert.assertEquals;
+
+public class EarthquakeNotifierTest {
+    @Test
+    public void strongestOf_takesTheStrongestWhateverTheirOrder() {
+        // Newest first, as the feeds list them
+        List<EarthquakeEvent> earthquakes = Arrays.asList(event("a", 4.6), event("b", 5.2), event("c", 4.5),
+                event("d", 7.0), event("e", 6.1));
+
+        assertEquals(Arrays.asList("d", "e", "b"), idsOf(EarthquakeNotifier.strongestOf(earthquakes)));
+        assertEquals(Arrays.asList("b", "a"), idsOf(EarthquakeNotifier.strongestOf(earthquakes.subList(0, 2))));
+    }
+
+    private static EarthquakeEvent event(String id, double magnitude) {
+        return new EarthquakeEvent(id, magnitude, "Somewhere", 100, 100, "");
+    }
+}
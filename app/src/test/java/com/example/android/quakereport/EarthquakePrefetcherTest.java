@@ -0,0 +1,110 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.android.quakereport.EarthquakeSyncTest.event;
+import static com.example.android.quakereport.EarthquakeSyncTest.idsOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakePrefetcherTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private EarthquakeCache mCache;
+    private EarthquakePrefetcher mPrefetcher;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = new EarthquakeCache(mFolder.newFolder(), 1024 * 1024);
+        // Only prefetch() reads the context and the active queries
+        mPrefetcher = new EarthquakePrefetcher(null, new EarthquakeSync(mCache), null);
+    }
+
+    @Test
+    public void groupsOf_groupsByOrderAndRegion() {
+        EarthquakeQuery latest = new EarthquakeQuery("4.5", "time", 20);
+        EarthquakeQuery strongest = new EarthquakeQuery("4.5", "magnitude", 20);
+        EarthquakeQuery latestStrong = new EarthquakeQuery("6", "time", 50);
+        EarthquakeQuery nearLima = new EarthquakeQuery("4.5", "time", 20).inRegion(-12.05, -77.04, 500);
+        EarthquakeQuery nearAnchorage = new EarthquakeQuery("4.5", "time", 20).inRegion(61.2, -149.9, 500);
+        EarthquakeQuery strongNearLima = new EarthquakeQuery("6", "time", 20).inRegion(-12.05, -77.04, 500);
+
+        List<List<EarthquakeQuery>> groups = new ArrayList<>(EarthquakePrefetcher.groupsOf(Arrays.asList(
+                latest, strongest, nearLima, latestStrong, nearAnchorage, strongNearLima)));
+
+        assertEquals(Arrays.asList(Arrays.asList(latest, latestStrong), Arrays.asList(strongest),
+                Arrays.asList(nearLima, strongNearLima), Arrays.asList(nearAnchorage)), groups);
+    }
+
+    @Test
+    public void prefetchGroup_fetchesTheLowestMinimumWithTheLargestLimit() {
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_OK));
+
+        assertTrue(mPrefetcher.prefetchGroup(new ArrayList<>(Arrays.asList(new EarthquakeQuery("6", "time", 20),
+                new EarthquakeQuery("4.5", "time", 10), new EarthquakeQuery("5", "time", 50)))));
+
+        // No events came back, so the source alone answers every other query
+        assertEquals(Arrays.asList(new EarthquakeQuery("4.5", "time", 50).toUrl()), transport.getUrls());
+        assertEquals(0, mCache.get(new EarthquakeQuery("6", "time", 20).toUrl()).getEvents().size());
+    }
+
+    @Test
+    public void prefetchGroup_seedsCoveredQueriesAndSyncsTheOthers() {
+        EarthquakeQuery source = new EarthquakeQuery("4.5", "time", 2);
+        // As many events as asked for, so USGS may have more
+        long fetchedAt = System.currentTimeMillis();
+        mCache.put(source.toUrl(), new EarthquakeCache.Entry(Arrays.asList(event("us1", 5.0, 200, 200),
+                event("us2", 6.0, 100, 100)), null, null, fetchedAt));
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_OK));
+        EarthquakeQuery covered = new EarthquakeQuery("5.5", "time", 1);
+        EarthquakeQuery uncovered = new EarthquakeQuery("5.5", "time", 2);
+
+        assertTrue(mPrefetcher.prefetchGroup(new ArrayList<>(Arrays.asList(uncovered, covered, source))));
+
+        // The source is fresh, and one loaded match can't stand in for two
+        assertEquals(Arrays.asList(uncovered.toUrl()), transport.getUrls());
+        EarthquakeCache.Entry seeded = mCache.get(covered.toUrl());
+        assertEquals(Arrays.asList("us2"), idsOf(seeded.getEvents()));
+        assertEquals(fetchedAt, seeded.getFetchedAt());
+    }
+
+    @Test
+    public void queryOf_readsTheKeysOfKeyOf() {
+        EarthquakeQuery query = new EarthquakeQuery("4.5", "magnitude", 50);
+        EarthquakeQuery regional = new EarthquakeQuery("2.5", "time", 20).inRegion(-12.05, -77.04, 500);
+
+        assertEquals(query.toUrl(), EarthquakePrefetcher.queryOf(EarthquakePrefetcher.keyOf(query)).toUrl());
+        assertEquals(regional.toUrl(), EarthquakePrefetcher.queryOf(EarthquakePrefetcher.keyOf(regional)).toUrl());
+    }
+
+    @Test
+    public void queryOf_legacyKeyWithoutRegion_isTheWholeWorld() {
+        EarthquakeQuery query = EarthquakePrefetcher.queryOf("4.5|time|20");
+
+        assertEquals(new EarthquakeQuery("4.5", "time", 20).toUrl(), query.toUrl());
+        assertFalse(query.hasRegion());
+    }
+
+    @Test
+    public void queryOf_malformedKey_isNull() {
+        assertNull(EarthquakePrefetcher.queryOf("4.5|time"));
+        assertNull(EarthquakePrefetcher.queryOf("4.5|time|many"));
+        assertNull(EarthquakePrefetcher.queryOf("4.5|time|20|-12.05|-77.04"));
+        assertNull(EarthquakePrefetcher.queryOf("4.5|time|20|south|-77.04|500"));
+    }
+}
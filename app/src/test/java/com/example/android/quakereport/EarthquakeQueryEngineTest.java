@@ -0,0 +1,151 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.android.quakereport.EarthquakeSyncTest.idsOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeQueryEngineTest {
+    private static final String[] MAGNITUDES = {"2.5", "3", "4.5", "5", "5.5", "6", "7"};
+    private static final String[] ORDERS = {"time", "magnitude"};
+
+    @Test
+    public void query_returnsTheMatchesInTheQueryOrder() {
+        List<EarthquakeEvent> events = Arrays.asList(event("a", 5.0, 400, "Tonga"),
+                event("b", 7.1, 300, "Tonga"), event("c", 6.0, 200, "Tonga"), event("d", 6.5, 100, "Tonga"));
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(events, new EarthquakeQuery("4.5", "time", 20), true);
+
+        assertEquals(Arrays.asList("b", "d", "c"), idsOf(engine.query(new EarthquakeQuery("6", "magnitude", 20))));
+        assertEquals(Arrays.asList("b", "d"), idsOf(engine.query(new EarthquakeQuery("6", "magnitude", 2))));
+        assertEquals(Arrays.asList("b", "c", "d"), idsOf(engine.query(new EarthquakeQuery("6", "time", 20))));
+    }
+
+    @Test
+    public void covers_lowerMinimumThanLoaded_isFalse() {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(
+                Collections.singletonList(event("a", 6.0, 100, "Tonga")), new EarthquakeQuery("6", "time", 20), true);
+
+        assertTrue(engine.covers(new EarthquakeQuery("6.5", "magnitude", 20)));
+        assertFalse(engine.covers(new EarthquakeQuery("5", "time", 20)));
+        assertFalse(engine.covers(new EarthquakeQuery("6.5", "time", 20, 21)));
+        assertFalse(engine.covers(new EarthquakeQuery("6.5", "time", 20).inRegion(-12, -77, 500)));
+    }
+
+    @Test
+    public void covers_truncatedLoadInAnotherOrder_isFalse() {
+        List<EarthquakeEvent> events = Arrays.asList(event("a", 5.0, 200, "Tonga"), event("b", 6.0, 100, "Tonga"));
+        // Two asked for and two returned, so USGS may have more
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(events, new EarthquakeQuery("4.5", "time", 2), false);
+
+        assertFalse(engine.covers(new EarthquakeQuery("4.5", "magnitude", 2)));
+        assertTrue(engine.covers(new EarthquakeQuery("4.5", "time", 1)));
+        // Only one loaded match, and a later one could be missing
+        assertFalse(engine.covers(new EarthquakeQuery("5.5", "time", 2)));
+    }
+
+    @Test
+    public void covers_fewerEventsThanAskedForButNotComplete_isFalse() {
+        // Three asked for and three returned, then a deletion or a duplicate between pages
+        // dropped one, so USGS may well have more
+        List<EarthquakeEvent> events = Arrays.asList(event("a", 5.0, 300, "Tonga"), event("c", 6.0, 100, "Tonga"));
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(events, new EarthquakeQuery("4.5", "time", 3), false);
+
+        assertFalse(engine.covers(new EarthquakeQuery("4.5", "magnitude", 3)));
+        assertFalse(engine.covers(new EarthquakeQuery("5.5", "time", 3)));
+        assertTrue(engine.covers(new EarthquakeQuery("4.5", "time", 2)));
+
+        EarthquakeQueryEngine complete = new EarthquakeQueryEngine(events, new EarthquakeQuery("4.5", "time", 3), true);
+        assertTrue(complete.covers(new EarthquakeQuery("4.5", "magnitude", 3)));
+        assertTrue(complete.covers(new EarthquakeQuery("5.5", "time", 3)));
+    }
+
+    @Test
+    public void searchPlace_returnsPrefixMatchesFirst() {
+        List<EarthquakeEvent> events = Arrays.asList(event("a", 5.0, 300, "10 km N of Lima, Peru"),
+                event("b", 5.0, 200, "Lima, Peru"), event("c", 5.0, 100, "Tonga"));
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(events, new EarthquakeQuery("4.5", "time", 20), true);
+
+        assertEquals(Arrays.asList("b", "a"), idsOf(engine.searchPlace(" LIMA")));
+        assertEquals(3, engine.searchPlace("").size());
+        assertEquals(0, engine.searchPlace("fiji").size());
+    }
+
+    /**
+     * Whenever the engine claims to cover a query, it must return what USGS returns for it
+     */
+    @Test
+    public void query_whenCovered_matchesTheServer() {
+        Random random = new Random(42);
+        int covered = 0;
+        for (int catalogs = 0; catalogs < 50; catalogs++) {
+            List<EarthquakeEvent> catalog = catalog(random, random.nextInt(60));
+            for (String sourceMagnitude : MAGNITUDES) {
+                for (String sourceOrder : ORDERS) {
+                    EarthquakeQuery source = new EarthquakeQuery(sourceMagnitude, sourceOrder, 1 + random.nextInt(40));
+                    List<EarthquakeEvent> served = serve(catalog, source);
+                    EarthquakeQueryEngine engine = new EarthquakeQueryEngine(served, source,
+                            served.size() < source.getLimit());
+                    for (String magnitude : MAGNITUDES) {
+                        for (String order : ORDERS) {
+                            EarthquakeQuery query = new EarthquakeQuery(magnitude, order, 1 + random.nextInt(40));
+                            if (engine.covers(query)) {
+                                covered++;
+                                assertEquals(source.toUrl() + " answering " + query.toUrl(),
+                                        idsOf(serve(catalog, query)), idsOf(engine.query(query)));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        // Make sure the comparison isn't vacuous
+        assertTrue(covered > 1000);
+    }
+
+    /**
+     * Events with distinct magnitudes and times, so every order is fully determined
+     */
+    private static List<EarthquakeEvent> catalog(Random random, int size) {
+        List<Integer> magnitudes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            magnitudes.add(250 + i * 500 / Math.max(size, 1));
+        }
+        Collections.shuffle(magnitudes, random);
+        List<EarthquakeEvent> events = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            events.add(event("us" + i, magnitudes.get(i) / 100.0, 1000 - i, "Tonga"));
+        }
+        return events;
+    }
+
+    /**
+     * What USGS answers: the events at or above the minimum, in the query's order, within the limit
+     */
+    private static List<EarthquakeEvent> serve(List<EarthquakeEvent> catalog, EarthquakeQuery query) {
+        double minMagnitude = Double.parseDouble(query.getMinMagnitude());
+        List<EarthquakeEvent> results = new ArrayList<>();
+        for (EarthquakeEvent event : catalog) {
+            if (event.getMagnitude() >= minMagnitude) {
+                results.add(event);
+            }
+        }
+        Comparator<EarthquakeEvent> order = "magnitude".equals(query.getOrderBy())
+                ? (EarthquakeEvent a, EarthquakeEvent b) -> Double.compare(b.getMagnitude(), a.getMagnitude())
+                : (EarthquakeEvent a, EarthquakeEvent b) -> Long.compare(b.getDate(), a.getDate());
+        Collections.sort(results, order);
+        return new ArrayList<>(results.subList(0, Math.min(query.getLimit(), results.size())));
+    }
+
+    private static EarthquakeEvent event(String id, double magnitude, long time, String place) {
+        return new EarthquakeEvent(id, magnitude, place, time, time, "");
+    }
+}
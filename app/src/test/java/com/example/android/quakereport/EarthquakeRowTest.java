@@ -0,0 +1,23 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EarthquakeRowTest {
+    @Test
+    public void magnitudeBucketOf_roundsDown() {
+        assertEquals(0, EarthquakeRow.magnitudeBucketOf(0));
+        assertEquals(0, EarthquakeRow.magnitudeBucketOf(0.99));
+        assertEquals(4, EarthquakeRow.magnitudeBucketOf(4.5));
+        assertEquals(9, EarthquakeRow.magnitudeBucketOf(9.99));
+    }
+
+    @Test
+    public void magnitudeBucketOf_outOfRange_isTheLastBucket() {
+        int last = EarthquakeRow.MAGNITUDE_BUCKETS - 1;
+        assertEquals(last, EarthquakeRow.magnitudeBucketOf(10));
+        assertEquals(last, EarthquakeRow.magnitudeBucketOf(12.5));
+        assertEquals(last, EarthquakeRow.magnitudeBucketOf(-0.5));
+    }
+}
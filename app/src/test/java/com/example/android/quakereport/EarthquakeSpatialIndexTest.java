@@ -0,0 +1,136 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.android.quakereport.EarthquakeSyncTest.idsOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the index against a scan of every event, on seeded random events and queries
+ */
+public class EarthquakeSpatialIndexTest {
+    private static final int EVENT_COUNT = 2000;
+    private static final int QUERY_COUNT = 300;
+
+    private final Random mRandom = new Random(42);
+    private final List<EarthquakeEvent> mEvents = new ArrayList<>();
+
+    public EarthquakeSpatialIndexTest() {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            mEvents.add(located("us" + i, -90 + mRandom.nextDouble() * 180, -180 + mRandom.nextDouble() * 360));
+        }
+    }
+
+    @Test
+    public void size_leavesOutEventsWithoutCoordinates() {
+        List<EarthquakeEvent> events = new ArrayList<>(mEvents);
+        events.add(new EarthquakeEvent("unlocated", 5.0, "Somewhere", 100, 100, ""));
+
+        assertEquals(EVENT_COUNT, new EarthquakeSpatialIndex(events).size());
+    }
+
+    @Test
+    public void withinBoundingBox_matchesAScan() {
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(mEvents);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            double south = -90 + mRandom.nextDouble() * 170;
+            double north = Math.min(90, south + mRandom.nextDouble() * 40);
+            double west = -180 + mRandom.nextDouble() * 360;
+            // About a third of the boxes wrap around the antimeridian
+            double east = west + mRandom.nextDouble() * 120;
+            east = east >= 180 ? east - 360 : east;
+
+            List<String> expected = new ArrayList<>();
+            for (EarthquakeEvent event : mEvents) {
+                double longitude = event.getLongitude();
+                boolean inLongitude = west > east ? longitude >= west || longitude <= east
+                        : longitude >= west && longitude <= east;
+                if (event.getLatitude() >= south && event.getLatitude() <= north && inLongitude) {
+                    expected.add(event.getId());
+                }
+            }
+            List<String> actual = idsOf(index.withinBoundingBox(south, west, north, east));
+            Collections.sort(expected);
+            actual = new ArrayList<>(actual);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void withinRadius_matchesAScanNearestFirst() {
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(mEvents);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            double latitude = -90 + mRandom.nextDouble() * 180;
+            double longitude = -180 + mRandom.nextDouble() * 360;
+            double radiusKm = mRandom.nextDouble() * 3000;
+
+            List<EarthquakeEvent> expected = new ArrayList<>();
+            for (EarthquakeEvent event : byDistance(latitude, longitude)) {
+                if (distanceTo(event, latitude, longitude) <= radiusKm) {
+                    expected.add(event);
+                }
+            }
+            assertEquals(idsOf(expected), idsOf(index.withinRadius(latitude, longitude, radiusKm)));
+        }
+    }
+
+    @Test
+    public void withinRadius_acrossTheAntimeridianAndPole() {
+        List<EarthquakeEvent> events = Arrays.asList(located("east", 0, 179.9), located("west", 0, -179.9),
+                located("far", 0, 170), located("pole", 89.9, 0), located("otherSide", 89.9, 180));
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(events);
+
+        assertEquals(Arrays.asList("east", "west"), idsOf(index.withinRadius(0, 179.95, 100)));
+        List<String> polar = new ArrayList<>(idsOf(index.withinRadius(90, 0, 50)));
+        Collections.sort(polar);
+        assertEquals(Arrays.asList("otherSide", "pole"), polar);
+    }
+
+    @Test
+    public void nearest_matchesAScan() {
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(mEvents);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            double latitude = -90 + mRandom.nextDouble() * 180;
+            double longitude = -180 + mRandom.nextDouble() * 360;
+            int count = 1 + mRandom.nextInt(30);
+
+            List<EarthquakeEvent> expected = byDistance(latitude, longitude).subList(0, count);
+            assertEquals(idsOf(expected), idsOf(index.nearest(latitude, longitude, count)));
+        }
+    }
+
+    @Test
+    public void nearest_moreThanIndexed_returnsThemAll() {
+        List<EarthquakeEvent> events = Arrays.asList(located("a", 10, 10), located("b", -60, -120));
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(events);
+
+        assertEquals(Arrays.asList("a", "b"), idsOf(index.nearest(0, 0, 5)));
+        assertTrue(index.nearest(0, 0, 0).isEmpty());
+        assertTrue(new EarthquakeSpatialIndex(Collections.<EarthquakeEvent>emptyList()).nearest(0, 0, 5).isEmpty());
+    }
+
+    private List<EarthquakeEvent> byDistance(double latitude, double longitude) {
+        List<EarthquakeEvent> events = new ArrayList<>(mEvents);
+        Collections.sort(events, (EarthquakeEvent a, EarthquakeEvent b) ->
+                Double.compare(distanceTo(a, latitude, longitude), distanceTo(b, latitude, longitude)));
+        return events;
+    }
+
+    private static double distanceTo(EarthquakeEvent event, double latitude, double longitude) {
+        return EarthquakeSpatialIndex.distanceKm(latitude, longitude, event.getLatitude(), event.getLongitude());
+    }
+
+    private static EarthquakeEvent located(String id, double latitude, double longitude) {
+        EarthquakeEvent event = new EarthquakeEvent(id, 5.0, "Somewhere", 100, 100, "");
+        event.setLocation(latitude, longitude, 10);
+        return event;
+    }
+}
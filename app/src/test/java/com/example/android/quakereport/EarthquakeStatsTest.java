@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.quakereport.EarthquakeSyncTest.deleted;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeStatsTest {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    // Midnight UTC
+    private static final long NOW = 19700 * DAY;
+
+    @Test
+    public void bandOf_negativeMagnitudes_areTheWeakestBand() {
+        assertEquals(0, EarthquakeStats.bandOf(-0.5));
+        assertEquals(0, EarthquakeStats.bandOf(-2));
+        assertEquals(0, EarthquakeStats.bandOf(Double.NaN));
+        assertEquals(0, EarthquakeStats.bandOf(0.9));
+        assertEquals(4, EarthquakeStats.bandOf(4.99));
+        assertEquals(EarthquakeRow.MAGNITUDE_BUCKETS - 1, EarthquakeStats.bandOf(10));
+        assertEquals(EarthquakeRow.MAGNITUDE_BUCKETS - 1, EarthquakeStats.bandOf(12.5));
+    }
+
+    @Test
+    public void getCountsPerBand_countsEachEventOnce() {
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.sync(Arrays.asList(event("a", -1.2, "Nevada", NOW), event("b", 0.4, "Nevada", NOW),
+                event("c", 5.5, "Alaska", NOW), event("d", 10.1, "Chile", NOW)));
+
+        long[] expected = new long[EarthquakeRow.MAGNITUDE_BUCKETS];
+        expected[0] = 2;
+        expected[5] = 1;
+        expected[EarthquakeRow.MAGNITUDE_BUCKETS - 1] = 1;
+        assertArrayEquals(expected, stats.getCountsPerBand());
+        assertEquals(4, stats.size());
+    }
+
+    @Test
+    public void put_newVersion_movesTheEvent() {
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.put(event("a", 4.2, "Alaska", NOW - 2 * HOUR, 1));
+        stats.put(event("a", 6.1, "Alaska", NOW - 30 * 60 * 1000, 2));
+
+        assertEquals(1, stats.size());
+        assertEquals(1, stats.getCountsPerBand()[6]);
+        assertEquals(0, stats.getCountsPerBand()[4]);
+        long[] hours = stats.getCountsPerHour(NOW);
+        assertEquals(1, hours[1]);
+        assertEquals(0, hours[2]);
+        assertEquals(6.1, stats.getMaxMagnitude("Alaska"), 1e-9);
+    }
+
+    @Test
+    public void put_deletedEvent_removesIt() {
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.put(event("a", 4.2, "Alaska", NOW));
+        stats.put(deleted("a", 2));
+
+        assertEquals(0, stats.size());
+        assertArrayEquals(new long[EarthquakeRow.MAGNITUDE_BUCKETS], stats.getCountsPerBand());
+        assertTrue(Double.isNaN(stats.getMaxMagnitude("Alaska")));
+    }
+
+    @Test
+    public void getMaxMagnitude_survivesTheStrongestBeingRemoved() {
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.sync(Arrays.asList(event("a", 7.3, "12 km SSW of Anchorage, Alaska", NOW),
+                event("b", 5.0, "Kodiak Island, Alaska", NOW), event("c", 6.0, "Fiji", NOW)));
+        assertEquals(7.3, stats.getMaxMagnitude("Alaska"), 1e-9);
+
+        stats.remove("a");
+        assertEquals(5.0, stats.getMaxMagnitude("Alaska"), 1e-9);
+        stats.remove("b");
+        assertTrue(Double.isNaN(stats.getMaxMagnitude("Alaska")));
+        assertEquals(Collections.singleton("Fiji"), stats.getMaxMagnitudes().keySet());
+    }
+
+    @Test
+    public void getCountsPerDay_ringBufferDropsOldDays() {
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.put(event("today", 5, "Fiji", NOW + HOUR));
+        stats.put(event("yesterday", 5, "Fiji", NOW - HOUR));
+        stats.put(event("old", 5, "Fiji", NOW - EarthquakeStats.DAYS * DAY));
+
+        long[] days = stats.getCountsPerDay(NOW + HOUR);
+        assertEquals(EarthquakeStats.DAYS, days.length);
+        assertEquals(1, days[0]);
+        assertEquals(1, days[1]);
+        assertEquals(2, sum(days));
+
+        // A week later the first two are still in the window, at the same age
+        days = stats.getCountsPerDay(NOW + 7 * DAY);
+        assertEquals(1, days[7]);
+        assertEquals(1, days[8]);
+        assertEquals(2, sum(days));
+
+        // Taking out an event that already fell out of the window changes nothing
+        stats.remove("old");
+        assertEquals(2, sum(stats.getCountsPerDay(NOW + 7 * DAY)));
+    }
+
+    @Test
+    public void getCountsPerHour_eventsBefore1970_areOutOfTheWindow() {
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.put(event("a", 5, "Fiji", -1));
+        stats.put(event("b", 5, "Fiji", -DAY * 10000 - HOUR / 2));
+        stats.put(event("c", 5, "Fiji", NOW - HOUR / 2));
+
+        long[] hours = stats.getCountsPerHour(NOW);
+        assertEquals(1, hours[1]);
+        assertEquals(1, sum(hours));
+        assertEquals(1, sum(stats.getCountsPerDay(NOW)));
+        assertEquals(3, stats.size());
+    }
+
+    /**
+     * After any sequence of changes, the rollups must match counting the final events afresh
+     */
+    @Test
+    public void sync_matchesCountingFromScratch() {
+        Random random = new Random(42);
+        String[] regions = {"Alaska", "Chile", "Fiji", "Nevada"};
+        EarthquakeStats stats = new EarthquakeStats();
+        for (int round = 0; round < 200; round++) {
+            List<EarthquakeEvent> events = new ArrayList<>();
+            for (int i = random.nextInt(50); i > 0; i--) {
+                int id = random.nextInt(80);
+                events.add(event("us" + id, -1 + random.nextInt(120) / 10.0,
+                        "Near " + regions[random.nextInt(regions.length)],
+                        NOW - random.nextInt(40) * DAY / 2, random.nextInt(3)));
+            }
+            List<EarthquakeEvent> unique = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+            for (EarthquakeEvent event : events) {
+                if (!ids.contains(event.getId())) {
+                    ids.add(event.getId());
+                    unique.add(event);
+                }
+            }
+            stats.sync(unique);
+
+            EarthquakeStats fresh = new EarthquakeStats();
+            fresh.sync(unique);
+            assertEquals(fresh.size(), stats.size());
+            assertArrayEquals(fresh.getCountsPerBand(), stats.getCountsPerBand());
+            assertArrayEquals(fresh.getCountsPerDay(NOW), stats.getCountsPerDay(NOW));
+            assertArrayEquals(fresh.getCountsPerHour(NOW), stats.getCountsPerHour(NOW));
+            assertEquals(fresh.getMaxMagnitudes(), stats.getMaxMagnitudes());
+        }
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private static EarthquakeEvent event(String id, double magnitude, String place, long time) {
+        return event(id, magnitude, place, time, time);
+    }
+
+    private static EarthquakeEvent event(String id, double magnitude, String place, long time, long updated) {
+        return new EarthquakeEvent(id, magnitude, place, time, updated, "");
+    }
+}
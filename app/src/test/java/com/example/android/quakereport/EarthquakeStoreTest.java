@@ -0,0 +1,59 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeStoreTest {
+    @Test
+    public void getMagnitude_comparesWithThresholdsLikeTheEvent() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(new EarthquakeEvent("us1", 2.6, "Tonga", 100, 100, ""));
+
+        assertEquals(2.6, store.getMagnitude(0), 0);
+        assertTrue(store.getMagnitude(0) >= 2.6);
+    }
+
+    @Test
+    public void toEvent_returnsWhatWasAdded() {
+        EarthquakeStore store = new EarthquakeStore(1);
+        EarthquakeEvent event = new EarthquakeEvent("us1", 6.2, "10 km N of Lima, Peru", 1000, 2000,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/us1");
+        event.setLocation(-12.0, -77.0, 35.5);
+        EarthquakeEvent other = new EarthquakeEvent("us2", 5.1, "Tonga", 3000, 3000, "https://example.com/us2");
+        store.addAll(Arrays.asList(event, other));
+
+        EarthquakeEvent stored = store.toEvent(0);
+        assertEquals("us1", stored.getId());
+        assertEquals(6.2, stored.getMagnitude(), 0);
+        assertEquals("10 km N of Lima, Peru", stored.getPlace());
+        assertEquals(1000, stored.getDate());
+        assertEquals(2000, stored.getUpdated());
+        assertEquals(event.getURL(), stored.getURL());
+        assertEquals(-12.0, stored.getLatitude(), 1e-4);
+        assertEquals(-77.0, stored.getLongitude(), 1e-4);
+        assertEquals(35.5, stored.getDepth(), 1e-4);
+        // Not the event page of its id, so kept as it was
+        assertEquals("https://example.com/us2", store.getURL(1));
+    }
+
+    @Test
+    public void addAll_store_recodesThePlaces() {
+        EarthquakeStore first = new EarthquakeStore();
+        first.add(new EarthquakeEvent("us1", 5.0, "Tonga", 100, 100, ""));
+        EarthquakeStore second = new EarthquakeStore();
+        second.add(new EarthquakeEvent("us2", 5.0, "Fiji", 100, 100, ""));
+        second.add(new EarthquakeEvent("us3", 5.0, "Tonga", 100, 100, ""));
+
+        first.addAll(second);
+
+        assertEquals(3, first.size());
+        assertEquals("Fiji", first.getPlace(1));
+        assertEquals(first.getPlaceCode(0), first.getPlaceCode(2));
+        assertSame(first.getPlace(0), first.getPlace(2));
+    }
+}
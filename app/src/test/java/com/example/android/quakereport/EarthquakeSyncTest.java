@@ -0,0 +1,264 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeSyncTest {
+    // Long enough ago that no freshness rule answers from the cache
+    private static final long STALE_FETCHED_AT = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private EarthquakeCache mCache;
+    private EarthquakeSync mSync;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = new EarthquakeCache(mFolder.newFolder(), 1024 * 1024);
+        mSync = new EarthquakeSync(mCache);
+    }
+
+    @Test
+    public void sync_sendsTheValidatorsOfTheCachedResponse() {
+        EarthquakeQuery query = new EarthquakeQuery("6", "magnitude", 20, 21);
+        EarthquakeCache.Entry cached = cache(query, "\"v1\"", "Mon, 02 Jan 2023 10:00:00 GMT",
+                event("us1", 7.0, 100, 100));
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_NOT_MODIFIED));
+
+        mSync.sync(query, cached);
+
+        assertEquals(1, transport.getRequestCount());
+        assertEquals(query.toUrl(), transport.getUrls().get(0));
+        assertEquals("\"v1\"", transport.getHeaders(0).get("If-None-Match"));
+        assertEquals("Mon, 02 Jan 2023 10:00:00 GMT", transport.getHeaders(0).get("If-Modified-Since"));
+    }
+
+    @Test
+    public void sync_notModified_keepsTheCachedEventsAndRefreshesThem() {
+        EarthquakeQuery query = new EarthquakeQuery("6", "magnitude", 20, 21);
+        EarthquakeCache.Entry cached = cache(query, "\"v1\"", null, event("us1", 7.0, 100, 100),
+                event("us2", 6.5, 200, 200));
+        TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_NOT_MODIFIED));
+        long before = System.currentTimeMillis();
+
+        EarthquakeResult result = mSync.sync(query, cached);
+
+        assertTrue(result.isSuccess());
+        assertEquals(Arrays.asList("us1", "us2"), idsOf(result.getEvents()));
+        EarthquakeCache.Entry stored = mCache.get(query.toUrl());
+        assertEquals("\"v1\"", stored.getETag());
+        assertTrue(stored.getFetchedAt() >= before);
+    }
+
+    @Test
+    public void sync_idleFirstPage_costsOneNotModifiedDelta() {
+        EarthquakeQuery query = new EarthquakeQuery("6", "time", 20);
+        EarthquakeCache.Entry cached = cache(query, "\"delta\"", null, event("us1", 7.0, 100, 100));
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_NOT_MODIFIED));
+
+        EarthquakeResult result = mSync.sync(query, cached);
+
+        assertTrue(result.isSuccess());
+        assertSame(cached.getEvents().get(0), result.getEvents().get(0));
+        assertEquals(1, transport.getRequestCount());
+        assertTrue(transport.getUrls().get(0).contains("updatedafter="));
+        assertEquals("\"delta\"", transport.getHeaders(0).get("If-None-Match"));
+    }
+
+    @Test
+    public void sync_rejectedRequest_returnsTheCachedEventsWithTheError() {
+        EarthquakeQuery query = new EarthquakeQuery("6", "magnitude", 20, 21);
+        EarthquakeCache.Entry cached = cache(query, "\"v1\"", null, event("us1", 7.0, 100, 100));
+        // A client error, which neither retries nor counts against the circuit breaker
+        TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_BAD_REQUEST));
+
+        EarthquakeResult result = mSync.sync(query, cached);
+
+        assertFalse(result.isSuccess());
+        assertEquals(EarthquakeResult.Error.REQUEST, result.getError());
+        assertEquals(Arrays.asList("us1"), idsOf(result.getEvents()));
+        // The cached entry is left as it was
+        assertEquals(STALE_FETCHED_AT, mCache.get(query.toUrl()).getFetchedAt());
+    }
+
+    @Test
+    public void sync_justFetched_stillRevalidates() {
+        EarthquakeQuery query = new EarthquakeQuery("6", "magnitude", 20, 21);
+        mCache.put(query.toUrl(), new EarthquakeCache.Entry(Arrays.asList(event("us1", 7.0, 100, 100)),
+                "\"v1\"", null, System.currentTimeMillis()));
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_NOT_MODIFIED));
+
+        mSync.sync(query, mCache.get(query.toUrl()));
+
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test
+    public void syncIfStale_servesRecentEntriesWithoutARequest() {
+        EarthquakeQuery query = new EarthquakeQuery("6", "magnitude", 20, 21);
+        mCache.put(query.toUrl(), new EarthquakeCache.Entry(Arrays.asList(event("us1", 7.0, 100, 100)),
+                "\"v1\"", null, System.currentTimeMillis()));
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                TestTransport.response(HttpURLConnection.HTTP_NOT_MODIFIED));
+
+        EarthquakeResult result = mSync.syncIfStale(query, mCache.get(query.toUrl()), 60 * 1000);
+        assertEquals(0, transport.getRequestCount());
+        assertEquals(Arrays.asList("us1"), idsOf(result.getEvents()));
+
+        // Older than the given age, so it goes to USGS
+        mSync.syncIfStale(query, cache(query, "\"v1\"", null, event("us1", 7.0, 100, 100)), 60 * 1000);
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test
+    public void merge_appliesChangesByIdInQueryOrder() {
+        EarthquakeQuery query = new EarthquakeQuery("6", "magnitude", 20);
+        List<EarthquakeEvent> current = Arrays.asList(event("a", 7.0, 100, 100), event("b", 6.5, 200, 200));
+        List<EarthquakeEvent> changes = Arrays.asList(event("b", 7.5, 200, 300), event("c", 6.8, 300, 300));
+
+        List<EarthquakeEvent> merged = EarthquakeSync.merge(current, changes, query);
+
+        assertEquals(Arrays.asList("b", "a", "c"), idsOf(merged));
+        assertEquals(7.5, merged.get(0).getMagnitude(), 0);
+    }
+
+    @Test
+    public void merge_dropsDeletedEventsAndTrimsToTheLimit() {
+        EarthquakeQuery query = new EarthquakeQuery("6", "time", 2);
+        List<EarthquakeEvent> current = Arrays.asList(event("a", 7.0, 300, 300), event("b", 6.5, 200, 200));
+        List<EarthquakeEvent> changes = Arrays.asList(deleted("a", 400), event("c", 6.1, 500, 500),
+                event("d", 6.2, 100, 400));
+
+        assertEquals(Arrays.asList("c", "b"), idsOf(EarthquakeSync.merge(current, changes, query)));
+    }
+
+    @Test
+    public void sync_fullDeltaPage_pagesThroughTheRestOfTheChanges() throws IOException {
+        EarthquakeQuery query = new EarthquakeQuery("6", "time", 2);
+        EarthquakeCache.Entry cached = cache(query, null, null, event("a", 7.0, 200, 200), event("b", 6.5, 100, 100));
+        ScriptedFetcher fetcher = new ScriptedFetcher();
+        fetcher.respond(query.toDeltaUrl(200), event("c", 6.1, 400, 400), event("d", 6.2, 300, 300));
+        fetcher.respond(query.nextPage().toDeltaUrl(200), deleted("c", 500));
+
+        EarthquakeResult result = new EarthquakeSync(mCache, fetcher).sync(query, cached);
+
+        assertEquals(Arrays.asList(query.toDeltaUrl(200), query.nextPage().toDeltaUrl(200)), fetcher.mUrls);
+        assertEquals(Arrays.asList("d", "a"), idsOf(result.getEvents()));
+        assertEquals(Arrays.asList("d", "a"), idsOf(mCache.get(query.toUrl()).getEvents()));
+    }
+
+    @Test
+    public void sync_endlessDelta_refetchesThePage() throws IOException {
+        EarthquakeQuery query = new EarthquakeQuery("6", "time", 1);
+        EarthquakeCache.Entry cached = cache(query, null, null, event("a", 7.0, 100, 100));
+        ScriptedFetcher fetcher = new ScriptedFetcher();
+        EarthquakeQuery deltaQuery = query;
+        for (int page = 0; page < 10; page++) {
+            fetcher.respond(deltaQuery.toDeltaUrl(100), event("new" + page, 6.0, 200 - page, 200));
+            deltaQuery = deltaQuery.nextPage();
+        }
+        fetcher.respond(query.toUrl(), event("new0", 6.0, 200, 200));
+
+        EarthquakeResult result = new EarthquakeSync(mCache, fetcher).sync(query, cached);
+
+        assertEquals(query.toUrl(), fetcher.mUrls.get(fetcher.mUrls.size() - 1));
+        assertEquals(Arrays.asList("new0"), idsOf(result.getEvents()));
+    }
+
+    @Test
+    public void sync_deletionFromAFullPage_refetchesThePage() throws IOException {
+        EarthquakeQuery query = new EarthquakeQuery("6", "magnitude", 2);
+        EarthquakeCache.Entry cached = cache(query, null, null, event("a", 7.0, 100, 100), event("b", 6.5, 200, 200));
+        ScriptedFetcher fetcher = new ScriptedFetcher();
+        fetcher.respond(query.toDeltaUrl(200), deleted("a", 300));
+        fetcher.respond(query.toUrl(), event("b", 6.5, 200, 200), event("c", 6.1, 50, 50));
+
+        EarthquakeResult result = new EarthquakeSync(mCache, fetcher).sync(query, cached);
+
+        // Two events again, so the page doesn't pass for the last one
+        assertEquals(Arrays.asList("b", "c"), idsOf(result.getEvents()));
+        assertEquals(Arrays.asList(query.toDeltaUrl(200), query.toUrl()), fetcher.mUrls);
+    }
+
+    @Test
+    public void sync_deletionFromAShortPage_keepsTheMergedPage() throws IOException {
+        EarthquakeQuery query = new EarthquakeQuery("6", "magnitude", 20);
+        EarthquakeCache.Entry cached = cache(query, null, null, event("a", 7.0, 100, 100), event("b", 6.5, 200, 200));
+        ScriptedFetcher fetcher = new ScriptedFetcher();
+        fetcher.respond(query.toDeltaUrl(200), deleted("a", 300));
+
+        EarthquakeResult result = new EarthquakeSync(mCache, fetcher).sync(query, cached);
+
+        // USGS had fewer events than the limit already, one less is still all of them
+        assertEquals(Arrays.asList("b"), idsOf(result.getEvents()));
+        assertEquals(1, fetcher.mUrls.size());
+    }
+
+    /**
+     * Serves canned events by URL, for the paths whose responses the JVM can't parse
+     */
+    private static class ScriptedFetcher extends EarthquakeFetcher {
+        private final Map<String, List<EarthquakeEvent>> mResponses = new HashMap<>();
+        final List<String> mUrls = new ArrayList<>();
+
+        void respond(String url, EarthquakeEvent... events) {
+            mResponses.put(url, Arrays.asList(events));
+        }
+
+        @Override
+        public EarthquakeCache.Entry fetch(String url, EarthquakeCache.Entry cached) throws IOException {
+            mUrls.add(url);
+            List<EarthquakeEvent> events = mResponses.get(url);
+            if (events == null) {
+                throw new HttpStatusException(HttpURLConnection.HTTP_NOT_FOUND, -1);
+            }
+            return new EarthquakeCache.Entry(events, null, null, System.currentTimeMillis());
+        }
+    }
+
+    private EarthquakeCache.Entry cache(EarthquakeQuery query, String eTag, String lastModified,
+                                        EarthquakeEvent... events) {
+        EarthquakeCache.Entry entry = new EarthquakeCache.Entry(Arrays.asList(events), eTag, lastModified,
+                STALE_FETCHED_AT);
+        mCache.put(query.toUrl(), entry);
+        return mCache.get(query.toUrl());
+    }
+
+    static EarthquakeEvent event(String id, double magnitude, long time, long updated) {
+        return new EarthquakeEvent(id, magnitude, "Somewhere", time, updated,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id);
+    }
+
+    static EarthquakeEvent deleted(String id, long updated) {
+        return new EarthquakeEvent(id, 0, "", 0, updated, "", true);
+    }
+
+    static List<String> idsOf(List<EarthquakeEvent> events) {
+        String[] ids = new String[events.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = events.get(i).getId();
+        }
+        return Arrays.asList(ids);
+    }
+}
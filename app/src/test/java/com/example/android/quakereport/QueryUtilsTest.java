@@ -0,0 +1,128 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QueryUtilsTest {
+    // Large enough to take several reads of the decode buffer
+    private static final byte[] BODY = repeat("{\"type\":\"Feature\",\"properties\":{\"mag\":6.1}},", 5000);
+
+    @Test
+    public void decode_gzip_inflatesTheBody() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        writeAll(new GZIPOutputStream(compressed), BODY);
+
+        assertDecodes(BODY, QueryUtils.decode(new ByteArrayInputStream(compressed.toByteArray()), "gzip"));
+    }
+
+    @Test
+    public void decode_deflate_inflatesTheBody() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        writeAll(new DeflaterOutputStream(compressed), BODY);
+
+        assertDecodes(BODY, QueryUtils.decode(new ByteArrayInputStream(compressed.toByteArray()), "DEFLATE"));
+    }
+
+    @Test
+    public void decode_identity_returnsTheStream() throws IOException {
+        InputStream body = new ByteArrayInputStream(BODY);
+
+        assertSame(body, QueryUtils.decode(body, null));
+        assertSame(body, QueryUtils.decode(body, "identity"));
+    }
+
+    @Test
+    public void fetch_compressedResponse_isNegotiatedAndReadToTheEnd() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        writeAll(new GZIPOutputStream(compressed), BODY);
+        RecordingBody body = new RecordingBody(compressed.toByteArray());
+        TestTransport transport = TestTransport.install((String url, Map<String, String> headers) ->
+                new HttpTransport.Response() {
+                    @Override
+                    public int getCode() {
+                        return HttpURLConnection.HTTP_OK;
+                    }
+
+                    @Override
+                    public String getHeader(String name) {
+                        return "Content-Encoding".equalsIgnoreCase(name) ? "gzip"
+                                : "ETag".equalsIgnoreCase(name) ? "\"v1\"" : null;
+                    }
+
+                    @Override
+                    public InputStream getBody() {
+                        return body;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+
+        EarthquakeCache.Entry entry = QueryUtils.fetchEarthquakeEvents(
+                "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson", null);
+
+        assertEquals("gzip, deflate", transport.getHeaders(0).get("Accept-Encoding"));
+        assertEquals("\"v1\"", entry.getETag());
+        assertTrue("The decoder wasn't closed", body.mClosed);
+    }
+
+    /**
+     * A response body that records being closed
+     */
+    private static class RecordingBody extends ByteArrayInputStream {
+        boolean mClosed;
+
+        RecordingBody(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mClosed = true;
+            super.close();
+        }
+    }
+
+    private static void assertDecodes(byte[] expected, InputStream decoded) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int count;
+        while ((count = decoded.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        // Ends the Inflater, closing again must be harmless
+        decoded.close();
+        decoded.close();
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    private static void writeAll(OutputStream out, byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.close();
+    }
+
+    private static byte[] repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A stand-in for USGS in unit tests: answers every request with a handler and records what
+ * was asked. On a device, {@code UsgsSimulator} of debug builds serves real HTTP instead.
+ *
+ * <p>Bodies go through the Android JSON parser, which does nothing in JVM tests, so a 200 always
+ * parses to no events. Tests check the requests and the cached events instead.
+ */
+class TestTransport implements HttpTransport {
+    /**
+     * Answers one request, blocking or throwing as the test needs
+     */
+    interface Handler {
+        Response handle(String url, Map<String, String> headers) throws IOException;
+    }
+
+    private final Handler mHandler;
+    private final List<String> mUrls = new ArrayList<>();
+    private final List<Map<String, String>> mHeaders = new ArrayList<>();
+
+    TestTransport(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Installs a transport answering with the handler, replacing the real one
+     */
+    static TestTransport install(Handler handler) {
+        TestTransport transport = new TestTransport(handler);
+        QueryUtils.setTransport(transport);
+        return transport;
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        synchronized (this) {
+            mUrls.add(url.toString());
+            mHeaders.add(new HashMap<>(headers));
+        }
+        return mHandler.handle(url.toString(), headers);
+    }
+
+    synchronized int getRequestCount() {
+        return mUrls.size();
+    }
+
+    synchronized List<String> getUrls() {
+        return new ArrayList<>(mUrls);
+    }
+
+    /**
+     * The headers of the request, in the order received
+     */
+    synchronized Map<String, String> getHeaders(int request) {
+        return mHeaders.get(request);
+    }
+
+    static Response response(int code) {
+        return response(code, Collections.<String, String>emptyMap(), "");
+    }
+
+    static Response response(int code, Map<String, String> headers, String body) {
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        return new Response() {
+            @Override
+            public int getCode() {
+                return code;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    if (header.getKey().equalsIgnoreCase(name)) {
+                        return header.getValue();
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}